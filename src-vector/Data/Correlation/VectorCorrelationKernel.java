@@ -0,0 +1,55 @@
+package Data.Correlation;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Computes the covariance and the dot product with the SIMD instructions of the JDK Vector API (jdk.incubator.vector).
+ * Each iteration processes as many values as fit into the widest vector register of the CPU, using fused multiply-add.
+ * This class is compiled separately (for JDK 16 and later, see the vector-kernel profile in the pom) and registered in META-INF/services,
+ * such that the Java 8 build is unaffected. The incubator module is not resolved by default, so the application has to be started with
+ * --add-modules jdk.incubator.vector (e.g. via the JDK_JAVA_OPTIONS environment variable). Otherwise the kernel reports itself as unavailable.
+ * The result differs from the {@link CorrelationKernel.Scalar} kernel only by the order of summation and the rounding of the fused multiply-add.
+ * @author Carl Witt
+ */
+public class VectorCorrelationKernel implements CorrelationKernel {
+
+    /** Defers loading the Vector API classes until the kernel is used, such that the kernel can be instantiated (and reject itself) when the module is missing. */
+    private static class Lanes {
+        static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    }
+
+    @Override public String getName() { return "vector"; }
+    @Override public int getPriority() { return 20; }
+
+    @Override public boolean isAvailable() {
+        return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    }
+
+    @Override public double covariance(double[] a, int aFrom, double meanA, double[] b, int bFrom, double meanB, int length) {
+        VectorSpecies<Double> species = Lanes.SPECIES;
+        DoubleVector sum = DoubleVector.zero(species), shiftA = DoubleVector.broadcast(species, meanA), shiftB = DoubleVector.broadcast(species, meanB);
+        int i = 0;
+        for (int upperBound = species.loopBound(length); i < upperBound; i += species.length()) {
+            DoubleVector valuesA = DoubleVector.fromArray(species, a, aFrom + i).sub(shiftA),
+                         valuesB = DoubleVector.fromArray(species, b, bFrom + i).sub(shiftB);
+            sum = valuesA.fma(valuesB, sum);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) result += (a[aFrom + i] - meanA) * (b[bFrom + i] - meanB);
+        return result;
+    }
+
+    @Override public double dot(double[] a, int aFrom, double[] b, int bFrom, int length) {
+        VectorSpecies<Double> species = Lanes.SPECIES;
+        DoubleVector sum = DoubleVector.zero(species);
+        int i = 0;
+        for (int upperBound = species.loopBound(length); i < upperBound; i += species.length())
+            sum = DoubleVector.fromArray(species, a, aFrom + i).fma(DoubleVector.fromArray(species, b, bFrom + i), sum);
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) result += a[aFrom + i] * b[bFrom + i];
+        return result;
+    }
+
+}
@@ -106,6 +106,85 @@ public class ComplexSequence {
         return this;
     }
     
+    /** Replaces each element by its complex conjugate. This manipulates the sequence. */
+    public ComplexSequence conjugate() {
+        for (int i = 0; i < im.length; i++) im[i] = -im[i];
+        return this;
+    }
+
+    /**
+     * Replaces the sequence by its discrete fourier transform. This manipulates the sequence.
+     * Uses an iterative radix-2 Cooley-Tukey algorithm, so the length of the sequence must be a power of two (see {@link #nextPowerOfTwo(int)}).
+     */
+    public ComplexSequence fft(){
+        transform(-1);
+        return this;
+    }
+
+    /**
+     * Replaces the sequence by its inverse discrete fourier transform (including the 1/n scaling). This manipulates the sequence.
+     * The length of the sequence must be a power of two.
+     */
+    public ComplexSequence inverseFFT(){
+        transform(1);
+        double scale = 1. / length;
+        for (int i = 0; i < length; i++) {
+            re[i] *= scale;
+            im[i] *= scale;
+        }
+        return this;
+    }
+
+    /**
+     * In place radix-2 fast fourier transform.
+     * The twiddle factors are computed by the trigonometric recurrence w_(k+1) = w_k + w_k * (cos θ - 1 + i sin θ)
+     * which avoids calling sin and cos for every butterfly and keeps the rounding error at O(log n) ulps.
+     * @param sign -1 for the forward transform, +1 for the (unscaled) inverse transform.
+     */
+    private void transform(int sign){
+        assert Integer.bitCount(length) == 1 : "The length of the sequence needs to be a power of two, but is " + length;
+
+        // bit reversal permutation
+        for (int i = 1, j = 0; i < length; i++) {
+            int bit = length >> 1;
+            for (; (j & bit) != 0; bit >>= 1) j ^= bit;
+            j ^= bit;
+            if (i < j) {
+                double t = re[i]; re[i] = re[j]; re[j] = t;
+                t = im[i]; im[i] = im[j]; im[j] = t;
+            }
+        }
+
+        // butterflies
+        for (int len = 2; len <= length; len <<= 1) {
+            double theta = sign * 2 * Math.PI / len;
+            double sinHalfTheta = Math.sin(0.5 * theta);
+            double wpr = -2 * sinHalfTheta * sinHalfTheta,     // cos θ - 1
+                   wpi = Math.sin(theta);
+            double wr = 1, wi = 0;
+            int half = len >> 1;
+            for (int k = 0; k < half; k++) {
+                for (int i = k; i < length; i += len) {
+                    int j = i + half;
+                    double tr = wr * re[j] - wi * im[j];
+                    double ti = wr * im[j] + wi * re[j];
+                    re[j] = re[i] - tr;
+                    im[j] = im[i] - ti;
+                    re[i] += tr;
+                    im[i] += ti;
+                }
+                double wtemp = wr;
+                wr += wr * wpr - wi * wpi;
+                wi += wi * wpr + wtemp * wpi;
+            }
+        }
+    }
+
+    /** @return the smallest power of two that is larger or equal to n (n must be positive). */
+    public static int nextPowerOfTwo(int n){
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
     /** Modifies all values to have at most precision of some specified number of decimals.
      * This modifies the sequence.
      */
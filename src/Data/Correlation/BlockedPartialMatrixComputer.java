@@ -0,0 +1,172 @@
+package Data.Correlation;
+
+import Data.Statistics.CorrelationHistogram;
+import Data.TimeSeries;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Computes one horizontal slice of the correlation matrix like the {@link PartialMatrixComputer} but organizes the work of a cell as a matrix product.
+ * The z-normalized (mean-shifted and scaled to unit L2 norm) windows of each ensemble are copied into the rows of a contiguous matrix Â (|A| × |w|) and B̂ (|B| × |w|).
+ * The correlations of all window pairs are then the entries of Â·B̂<sup>T</sup>, which is computed by {@link #multiplyTransposed(double[], int, double[], int, int, double[])}.
+ * Since the A windows are the same for all non-negative time lags (and the B windows for all negative time lags) of a column, the matrices are only rebuilt when their window start changes.
+ * @author Carl Witt
+ */
+class BlockedPartialMatrixComputer extends PartialMatrixComputer {
+
+    /** Block sizes of the {@link #multiplyTransposed(double[], int, double[], int, int, double[])} kernel: number of windows per block (of each ensemble) and number of samples per block. A block pair occupies 2·32·256·8 bytes = 128 KB. */
+    static final int BLOCK_WINDOWS = 32, BLOCK_SAMPLES = 256;
+
+    /** The z-normalized windows, row major. */
+    final double[] windowsA, windowsB;
+    /** Whether the window of the time series is complete (otherwise its row is zero and the correlations are NaN). */
+    final boolean[] validA, validB;
+    /** The products of all window pairs, row major (row = time series in A). */
+    final double[] products;
+    /** The window start index for which the window matrices have been built. */
+    int windowsAStartIdx = Integer.MIN_VALUE, windowsBStartIdx = Integer.MIN_VALUE;
+
+    BlockedPartialMatrixComputer(CorrelationMatrix matrix, int from, int to, Consumer<Integer> progress) {
+        super(matrix, from, to, progress);
+        windowsA = new double[metadata.setA.size() * metadata.windowSize];
+        windowsB = new double[metadata.setB.size() * metadata.windowSize];
+        validA = new boolean[metadata.setA.size()];
+        validB = new boolean[metadata.setB.size()];
+        products = new double[metadata.setA.size() * metadata.setB.size()];
+    }
+
+    @Override CorrelationMatrix.CorrelationColumn computeColumn(int baseWindowIdx) {
+
+        final int columnSize = metadata.getNumberOfDifferentTimeLags(),
+                  sizeA = metadata.setA.size(),
+                  sizeB = metadata.setB.size();
+        final int[] lags = metadata.getDifferentTimeLags();
+
+        int baseWindowStartIdx = metadata.baseWindowOffset * baseWindowIdx;
+
+        CorrelationHistogram correlationHistogram = matrix.createHistogram();
+        CorrelationMatrix.CorrelationColumn column = matrix.new CorrelationColumnBuilder(baseWindowStartIdx, metadata.tauMin).allEmpty(columnSize).histogram(correlationHistogram).build();
+
+        for (int lagIdx = 0; lagIdx < columnSize; lagIdx++) {
+
+            if(matrix.isCancelled())
+                return null;
+
+            summarizer.clear();
+
+            int lag = lags[lagIdx];
+            int windowAStartIdx = lag >= 0 ? baseWindowStartIdx : baseWindowStartIdx + lag,
+                windowBStartIdx = lag >= 0 ? baseWindowStartIdx - lag : baseWindowStartIdx;
+
+            if(windowAStartIdx != windowsAStartIdx){
+                buildWindowMatrix(windowsA, validA, metadata.setA, matrix.meansA, matrix.L2NormsA, windowAStartIdx);
+                windowsAStartIdx = windowAStartIdx;
+            }
+            if(windowBStartIdx != windowsBStartIdx){
+                buildWindowMatrix(windowsB, validB, metadata.setB, matrix.meansB, matrix.L2NormsB, windowBStartIdx);
+                windowsBStartIdx = windowBStartIdx;
+            }
+
+            multiplyTransposed(windowsA, sizeA, windowsB, sizeB, metadata.windowSize, products);
+
+            for (int tsAIdx = 0; tsAIdx < sizeA; tsAIdx++) {
+                if( ! validA[tsAIdx]) continue;
+                for (int tsBIdx = 0; tsBIdx < sizeB; tsBIdx++) {
+                    double r = products[tsAIdx * sizeB + tsBIdx];
+                    if (validB[tsBIdx] && !Double.isNaN(r)) summarizer.addValue(r);
+                }
+            }
+
+            column.computeCell(summarizer, lagIdx);
+
+        } // for each lag
+
+        return column;
+    }
+
+    /** Copies the z-normalized windows starting at the given index into the rows of the target matrix. Rows of incomplete windows are set to zero and marked invalid. */
+    private void buildWindowMatrix(double[] target, boolean[] valid, List<TimeSeries> set, double[][] means, double[][] l2Norms, int windowStartIdx){
+        final int windowSize = metadata.windowSize;
+        final int lastValidWindowStartIdx = set.get(0).getSize() - windowSize;
+        for (int tsIdx = 0; tsIdx < set.size(); tsIdx++) {
+            int rowOffset = tsIdx * windowSize;
+            valid[tsIdx] = windowStartIdx >= 0 && windowStartIdx <= lastValidWindowStartIdx;
+            if( ! valid[tsIdx]){
+                Arrays.fill(target, rowOffset, rowOffset + windowSize, 0);
+                continue;
+            }
+            double[] data = set.get(tsIdx).getDataItems().im;
+            double mean = means[tsIdx][windowStartIdx], l2Norm = l2Norms[tsIdx][windowStartIdx];
+            for (int i = 0; i < windowSize; i++)
+                target[rowOffset + i] = (data[windowStartIdx + i] - mean) / l2Norm;
+        }
+    }
+
+    /**
+     * Computes the product C = A·B<sup>T</sup> of two row major matrices, i.e. the dot products of all pairs of rows.
+     * The loops are blocked such that a block of rows of both matrices (see {@link #BLOCK_WINDOWS}, {@link #BLOCK_SAMPLES}) stays in the cache while it is used,
+     * and the innermost loop computes a 2×2 tile of results to reuse each loaded value twice.
+     * @param a matrix with rowsA rows of the given length
+     * @param b matrix with rowsB rows of the given length
+     * @param length the number of columns of a and b
+     * @param c the result matrix (rowsA × rowsB, row major), is overwritten.
+     */
+    static void multiplyTransposed(double[] a, int rowsA, double[] b, int rowsB, int length, double[] c){
+
+        Arrays.fill(c, 0, rowsA * rowsB, 0);
+
+        for (int k0 = 0; k0 < length; k0 += BLOCK_SAMPLES) {
+            int k1 = Math.min(length, k0 + BLOCK_SAMPLES);
+            for (int i0 = 0; i0 < rowsA; i0 += BLOCK_WINDOWS) {
+                int i1 = Math.min(rowsA, i0 + BLOCK_WINDOWS);
+                for (int j0 = 0; j0 < rowsB; j0 += BLOCK_WINDOWS) {
+                    int j1 = Math.min(rowsB, j0 + BLOCK_WINDOWS);
+
+                    int i = i0;
+                    for (; i + 1 < i1; i += 2) {
+                        int a0 = i * length, a1 = a0 + length;
+                        int j = j0;
+                        for (; j + 1 < j1; j += 2) {
+                            int b0 = j * length, b1 = b0 + length;
+                            double c00 = 0, c01 = 0, c10 = 0, c11 = 0;
+                            for (int k = k0; k < k1; k++) {
+                                double x0 = a[a0 + k], x1 = a[a1 + k], y0 = b[b0 + k], y1 = b[b1 + k];
+                                c00 += x0 * y0;
+                                c01 += x0 * y1;
+                                c10 += x1 * y0;
+                                c11 += x1 * y1;
+                            }
+                            c[i * rowsB + j] += c00;
+                            c[i * rowsB + j + 1] += c01;
+                            c[(i + 1) * rowsB + j] += c10;
+                            c[(i + 1) * rowsB + j + 1] += c11;
+                        }
+                        if (j < j1) { // odd number of B rows in the block
+                            int b0 = j * length;
+                            double c00 = 0, c10 = 0;
+                            for (int k = k0; k < k1; k++) {
+                                c00 += a[a0 + k] * b[b0 + k];
+                                c10 += a[a1 + k] * b[b0 + k];
+                            }
+                            c[i * rowsB + j] += c00;
+                            c[(i + 1) * rowsB + j] += c10;
+                        }
+                    }
+                    if (i < i1) { // odd number of A rows in the block
+                        int a0 = i * length;
+                        for (int j = j0; j < j1; j++) {
+                            int b0 = j * length;
+                            double c00 = 0;
+                            for (int k = k0; k < k1; k++) c00 += a[a0 + k] * b[b0 + k];
+                            c[i * rowsB + j] += c00;
+                        }
+                    }
+
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+package Data.Correlation;
+
+import Data.TimeSeries;
+import Data.Windowing.WindowMetadata;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Derives coarse previews of a computation: the same computation on downsampled time series (see {@link WindowMetadata#previewLevel}),
+ * which gives an impression of the result of a long computation within a fraction of its time.
+ * @author Carl Witt
+ */
+public class CoarsePreview {
+
+    /** The length up to which the time series of a coarse preview are downsampled (see {@link #level(WindowMetadata)}). */
+    public static final int PREVIEW_LENGTH = 4096;
+    /** The smallest window size to which the windows of a coarse preview are scaled down (see {@link #level(WindowMetadata)}). */
+    public static final int MIN_PREVIEW_WINDOW_SIZE = 8;
+
+    /**
+     * @return the pyramid level for a coarse preview of the given computation: the smallest level at which the time series have at most {@link #PREVIEW_LENGTH} values,
+     * unless the window size would drop below {@link #MIN_PREVIEW_WINDOW_SIZE}. 0 if the time series are short enough to compute the full resolution matrix.
+     */
+    public static int level(WindowMetadata metadata){
+        int length = metadata.setA.get(0).getSize(), level = 0;
+        while((length >> level) > PREVIEW_LENGTH && (metadata.windowSize >> (level + 1)) >= MIN_PREVIEW_WINDOW_SIZE) level++;
+        return level;
+    }
+
+    /**
+     * Creates the metadata of a coarse preview: the same computation on the time series downsampled by 2<sup>level</sup> (see {@link TimeSeries#getPyramidLevel(int)}),
+     * with window size, time lags, time lag step and base window offset divided by 2<sup>level</sup> (rounded). The regular engine computes the preview matrix
+     * in about 1/4<sup>level</sup> of the time of the full resolution matrix, or faster if the time lags shrink to fewer distinct values.
+     * The preview is labeled by its {@link WindowMetadata#previewLevel preview level}, such that it is never mistaken for the full resolution result.
+     * Approximations (sketches, sampling) of the full resolution computation are not applied to the preview.
+     * @param metadata the full resolution computation
+     * @param level the pyramid level, e.g. {@link #level(WindowMetadata)}
+     * @return the metadata of the preview
+     */
+    public static WindowMetadata metadata(WindowMetadata metadata, int level){
+
+        int factor = 1 << level;
+        List<TimeSeries> setA = new ArrayList<>(metadata.setA.size()), setB = new ArrayList<>(metadata.setB.size());
+        for(TimeSeries ts : metadata.setA) setA.add(ts.getPyramidLevel(level));
+        for(TimeSeries ts : metadata.setB) setB.add(ts.getPyramidLevel(level));
+
+        int windowSize = Math.max(3, scaleDown(metadata.windowSize, factor));
+        return new WindowMetadata.Builder(scaleDown(metadata.tauMin, factor), scaleDown(metadata.tauMax, factor), windowSize,
+                Math.max(1, scaleDown(metadata.tauStep, factor)), Math.min(windowSize, Math.max(1, scaleDown(metadata.baseWindowOffset, factor))))
+                .tsA(setA).tsB(setB).parameters(metadata).sketchCoefficients(0).samplingTolerance(0).previewLevel(level).build();
+    }
+
+    /** @return the value divided by the factor, rounded half away from zero (such that symmetric time lag ranges stay symmetric). */
+    private static int scaleDown(int value, int factor){
+        return (int) Math.signum(value) * (int) Math.round((double) Math.abs(value) / factor);
+    }
+}
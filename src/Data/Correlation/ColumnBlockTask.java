@@ -0,0 +1,60 @@
+package Data.Correlation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+/**
+ * Computes a block of consecutive columns. Blocks larger than the given block size are split in halves, one of which is forked (and can be stolen by idle workers).
+ * Columns at the borders of the matrix have many incomplete lag windows and are cheaper to compute than columns in the middle,
+ * so equally sized static partitions leave workers idle. Blocks of consecutive columns keep the state of the rolling engine (which updates from the previous column) effective.
+ * The result is the list of columns in order, or null if the computation has been cancelled.
+ * @author Carl Witt
+ */
+class ColumnBlockTask extends RecursiveTask<List<CorrelationMatrix.CorrelationColumn>> {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The matrix whose columns are computed. */
+    final CorrelationMatrix matrix;
+    /** The first window index (inclusive) and the last window index (exclusive). */
+    final int from, to;
+    /** The maximum number of columns to compute without splitting. */
+    final int blockSize;
+    final Consumer<Integer> progress;
+
+    ColumnBlockTask(CorrelationMatrix matrix, int from, int to, int blockSize, Consumer<Integer> progress) {
+        this.matrix = matrix;
+        this.from = from;
+        this.to = to;
+        this.blockSize = blockSize;
+        this.progress = progress;
+    }
+
+    @Override protected List<CorrelationMatrix.CorrelationColumn> compute() {
+
+        if(matrix.isCancelled()) return null;
+
+        if(to - from <= blockSize){
+            try {
+                CorrelationMatrix partialMatrix = matrix.createPartialMatrixComputer(from, to, progress).call();
+                return partialMatrix == null ? null : partialMatrix.columns;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        int mid = (from + to) >>> 1;
+        ColumnBlockTask left = new ColumnBlockTask(matrix, from, mid, blockSize, progress);
+        left.fork();
+        List<CorrelationMatrix.CorrelationColumn> rightColumns = new ColumnBlockTask(matrix, mid, to, blockSize, progress).compute();
+        List<CorrelationMatrix.CorrelationColumn> leftColumns = left.join();
+
+        if(leftColumns == null || rightColumns == null) return null;
+        List<CorrelationMatrix.CorrelationColumn> columns = new ArrayList<>(leftColumns.size() + rightColumns.size());
+        columns.addAll(leftColumns);
+        columns.addAll(rightColumns);
+        return columns;
+    }
+}
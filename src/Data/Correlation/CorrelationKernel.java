@@ -0,0 +1,88 @@
+package Data.Correlation;
+
+/**
+ * Computes the innermost loop of the correlation matrix computation: the covariance of two windows or the dot product of two z-normalized windows.
+ * Implementations can be registered as services (META-INF/services/Data.Correlation.CorrelationKernel) and are picked up by {@link CorrelationKernels}
+ * if they are available on the current runtime and pass the self-check against the {@link Scalar} reference kernel.
+ * This allows the SIMD kernel compiled against the JDK Vector API (VectorCorrelationKernel in src-vector) to be put on the class path without affecting runtimes that don't provide it.
+ * @author Carl Witt
+ */
+public interface CorrelationKernel {
+
+    /** @return a short name to identify the kernel in log messages. */
+    String getName();
+
+    /** Among all available kernels that pass the self-check, the one with the highest priority is used. */
+    int getPriority();
+
+    /** @return whether the kernel can be used on the current runtime (e.g. whether required JDK modules are present). */
+    default boolean isAvailable(){ return true; }
+
+    /**
+     * @return sum over i in [0, length[ of (a[aFrom+i] - meanA) * (b[bFrom+i] - meanB).
+     */
+    double covariance(double[] a, int aFrom, double meanA, double[] b, int bFrom, double meanB, int length);
+
+    /**
+     * @return sum over i in [0, length[ of a[aFrom+i] * b[bFrom+i].
+     */
+    double dot(double[] a, int aFrom, double[] b, int bFrom, int length);
+
+    /** The reference implementation: a plain loop with a single accumulator. */
+    public static class Scalar implements CorrelationKernel {
+
+        @Override public String getName() { return "scalar"; }
+        @Override public int getPriority() { return 0; }
+
+        @Override public double covariance(double[] a, int aFrom, double meanA, double[] b, int bFrom, double meanB, int length) {
+            double sum = 0;
+            for (int i = 0; i < length; i++) sum += (a[aFrom + i] - meanA) * (b[bFrom + i] - meanB);
+            return sum;
+        }
+
+        @Override public double dot(double[] a, int aFrom, double[] b, int bFrom, int length) {
+            double sum = 0;
+            for (int i = 0; i < length; i++) sum += a[aFrom + i] * b[bFrom + i];
+            return sum;
+        }
+    }
+
+    /**
+     * Unrolls the loop four times and uses four independent accumulators.
+     * This breaks the dependency chain of the floating point additions, such that the CPU can keep several additions in flight,
+     * and gives the JIT compiler the opportunity to use packed instructions.
+     * The result differs from the {@link Scalar} kernel only by the order of summation.
+     */
+    public static class Unrolled implements CorrelationKernel {
+
+        @Override public String getName() { return "unrolled"; }
+        @Override public int getPriority() { return 10; }
+
+        @Override public double covariance(double[] a, int aFrom, double meanA, double[] b, int bFrom, double meanB, int length) {
+            double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+            int i = 0;
+            for (; i + 3 < length; i += 4) {
+                sum0 += (a[aFrom + i]     - meanA) * (b[bFrom + i]     - meanB);
+                sum1 += (a[aFrom + i + 1] - meanA) * (b[bFrom + i + 1] - meanB);
+                sum2 += (a[aFrom + i + 2] - meanA) * (b[bFrom + i + 2] - meanB);
+                sum3 += (a[aFrom + i + 3] - meanA) * (b[bFrom + i + 3] - meanB);
+            }
+            for (; i < length; i++) sum0 += (a[aFrom + i] - meanA) * (b[bFrom + i] - meanB);
+            return (sum0 + sum1) + (sum2 + sum3);
+        }
+
+        @Override public double dot(double[] a, int aFrom, double[] b, int bFrom, int length) {
+            double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+            int i = 0;
+            for (; i + 3 < length; i += 4) {
+                sum0 += a[aFrom + i]     * b[bFrom + i];
+                sum1 += a[aFrom + i + 1] * b[bFrom + i + 1];
+                sum2 += a[aFrom + i + 2] * b[bFrom + i + 2];
+                sum3 += a[aFrom + i + 3] * b[bFrom + i + 3];
+            }
+            for (; i < length; i++) sum0 += a[aFrom + i] * b[bFrom + i];
+            return (sum0 + sum1) + (sum2 + sum3);
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+package Data.Correlation;
+
+import java.util.*;
+
+/**
+ * Selects the {@link CorrelationKernel} that is used for the computation.
+ * Candidates are the built-in kernels ({@link CorrelationKernel.Scalar}, {@link CorrelationKernel.Unrolled}) and all kernels registered via {@link ServiceLoader},
+ * e.g. the Vector API kernel (VectorCorrelationKernel in src-vector) when it has been built for a JDK that provides the Vector API.
+ * On first use, each available candidate is verified against the scalar kernel on random data (self-check). The passing kernel with the highest priority becomes active.
+ * The outcome is reported by {@link #describe()}, which the computation log includes.
+ * @author Carl Witt
+ */
+public class CorrelationKernels {
+
+    /** The maximum relative deviation (relative to the product of the vector norms) from the scalar kernel that a kernel may have to pass the self-check. */
+    static final double SELF_CHECK_TOLERANCE = 1e-12;
+
+    private static CorrelationKernel active;
+    private static final List<String> passedSelfCheck = new ArrayList<>(), failedSelfCheck = new ArrayList<>();
+    /** Kernels that reported themselves as unavailable on this runtime (e.g. because a JDK module isn't resolved) and kernels that couldn't be loaded. */
+    private static final List<String> unavailable = new ArrayList<>();
+
+    /** @return the kernel to use for the computation. Performs the self-check on the first call. */
+    public static synchronized CorrelationKernel active(){
+        if(active == null) select();
+        return active;
+    }
+
+    /** @return a description of the active kernel and the outcome of the self-check, e.g. for the computation log. */
+    public static synchronized String describe(){
+        active();
+        String kernels = String.format("correlation kernel: %s (passed self-check: %s, failed self-check: %s)", active.getName(), passedSelfCheck, failedSelfCheck);
+        // the vector kernel needs the incubator module, which the JVM doesn't resolve unless started with --add-modules jdk.incubator.vector
+        return unavailable.isEmpty() ? kernels : kernels + String.format("\nunavailable kernels: %s (the vector kernel needs --add-modules jdk.incubator.vector, see README)", unavailable);
+    }
+
+    private static void select(){
+
+        CorrelationKernel reference = new CorrelationKernel.Scalar();
+
+        List<CorrelationKernel> candidates = new ArrayList<>(Arrays.asList(reference, new CorrelationKernel.Unrolled()));
+        try {
+            for(CorrelationKernel kernel : ServiceLoader.load(CorrelationKernel.class)) candidates.add(kernel);
+        } catch (ServiceConfigurationError | LinkageError e) {
+            // e.g. a kernel compiled for a newer class file version than the current runtime supports
+            unavailable.add("couldn't load: " + e.getMessage());
+        }
+
+        active = reference;
+        for(CorrelationKernel kernel : candidates){
+            boolean passed;
+            try {
+                if(!kernel.isAvailable()){ unavailable.add(kernel.getName()); continue; }
+                passed = selfCheck(kernel, reference);
+            } catch (Throwable t) { // e.g. NoClassDefFoundError if a required JDK module is missing
+                passed = false;
+            }
+            (passed ? passedSelfCheck : failedSelfCheck).add(kernel.getName());
+            if(passed && kernel.getPriority() > active.getPriority()) active = kernel;
+        }
+    }
+
+    /** Compares the results of the kernel with the reference kernel for random vectors of different lengths and offsets. */
+    static boolean selfCheck(CorrelationKernel kernel, CorrelationKernel reference){
+        Random random = new Random(1);
+        for (int length : new int[]{0, 1, 3, 4, 7, 16, 33, 100, 1001}) {
+            double[] a = new double[length + 5], b = new double[length + 5];
+            for (int i = 0; i < a.length; i++) { a[i] = random.nextGaussian(); b[i] = random.nextGaussian(); }
+            int aFrom = random.nextInt(5), bFrom = random.nextInt(5);
+            double meanA = random.nextGaussian(), meanB = random.nextGaussian();
+
+            double normA = 0, normB = 0, centeredNormA = 0, centeredNormB = 0;
+            for (int i = 0; i < length; i++) {
+                normA += a[aFrom+i] * a[aFrom+i];
+                normB += b[bFrom+i] * b[bFrom+i];
+                centeredNormA += (a[aFrom+i] - meanA) * (a[aFrom+i] - meanA);
+                centeredNormB += (b[bFrom+i] - meanB) * (b[bFrom+i] - meanB);
+            }
+            double dotScale = Math.max(1, Math.sqrt(normA * normB)), covarianceScale = Math.max(1, Math.sqrt(centeredNormA * centeredNormB));
+
+            if(Math.abs(kernel.dot(a, aFrom, b, bFrom, length) - reference.dot(a, aFrom, b, bFrom, length)) > SELF_CHECK_TOLERANCE * dotScale) return false;
+            if(Math.abs(kernel.covariance(a, aFrom, meanA, b, bFrom, meanB, length) - reference.covariance(a, aFrom, meanA, b, bFrom, meanB, length)) > SELF_CHECK_TOLERANCE * covarianceScale) return false;
+        }
+        return true;
+    }
+
+}
@@ -1,5 +1,8 @@
 package Data.Correlation;
 
+import Data.ComplexSequence;
+import Data.Statistics.CellSummarizer;
+import Data.Statistics.CellSummary;
 import Data.Statistics.CorrelationHistogram;
 import Data.TimeSeries;
 import Data.Windowing.WindowMetadata;
@@ -8,11 +11,13 @@ import javafx.concurrent.Service;
 import javafx.concurrent.Task;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 /**
  * This class computes a statistics matrix by applying the pearson product-moment correlation to combinations of time series windows.
@@ -48,6 +53,8 @@ public class CorrelationMatrix {
      */
     public final static int MEAN = 0, STD_DEV = 1, MEDIAN = 2, IQR = 3, POSITIVE_SIGNIFICANT = 4, NEGATIVE_SIGNIFICANT = 5, ABSOLUTE_SIGNIFICANT = 6;
     public final static int NUM_STATS = 7;                     // how many statistics are measured
+    /** Refers to the {@link CorrelationHistogram} of the cells in the set of requested statistics (see {@link WindowMetadata#requestedStatistics}). Not a valid index into the column data. */
+    public final static int HISTOGRAM = NUM_STATS;
 
     /** meta statistic indices for minimum and maximum see {@link #getExtremum(int, int)}  */
     protected final static int MINIMUM = 0, MAXIMUM = 1;
@@ -63,6 +70,9 @@ public class CorrelationMatrix {
     /** Used for t-testing a pearson correlation value on significance. */
     protected CorrelationSignificance significanceTester;
 
+    /** Whether a statistic (index using {@link #MEAN}, ..., {@link #HISTOGRAM}) is computed. Unrequested statistics are NaN and unrequested histograms null. */
+    protected boolean[] requested;
+
     public final ComputeService computeService = new ComputeService();
 
     /**
@@ -72,6 +82,7 @@ public class CorrelationMatrix {
     public CorrelationMatrix(WindowMetadata metadata) {
 
         this.metadata = metadata;
+        requested = metadata == null ? requestedFlags(null) : requestedFlags(metadata.requestedStatistics);
 
         if(metadata != null && metadata.windowSize > 2){ // for significance testing, we need at least one degree of freedom (degrees of freedom = window size - 2)
             significanceTester = new CorrelationSignificance(metadata.windowSize, getSignificanceLevel(metadata));
@@ -90,246 +101,778 @@ public class CorrelationMatrix {
         return metadata;
     }
 
+    /**
+     * The floating point precision used in the innermost loop of the computation.
+     * <pre>
+     * {@link #DOUBLE} all computations are performed in double precision.
+     * {@link #FLOAT} each worker converts the values covered by the windows of its current column to single precision and the products are accumulated in single precision
+     *                blocks of {@link FloatPartialMatrixComputer#BLOCK_SIZE} values, which are summed up in double precision. Halves the memory bandwidth of the innermost loop.
+     *                The time series keep their double precision values. The single precision values need (|A|+|B|) · (window size + lag range) floats per worker,
+     *                independent of the time series length, so the heap usage is that of the double precision computation.
+     *                The correlation values deviate by ~1e-6 from the double precision results, which is far below the resolution of the {@link CorrelationHistogram}.
+     * </pre>
+     */
+    public static enum PRECISION { DOUBLE, FLOAT }
+
+    /** @return whether the statistics of the matrix are approximations, i.e. computed from DFT sketches (see {@link WindowMetadata#sketchCoefficients}),
+     * estimated from a sample of window pairs (see {@link WindowMetadata#samplingTolerance}) or computed on downsampled time series (see {@link #isPreview()}). */
+    public boolean isApproximate(){
+        return metadata != null && isApproximate(metadata);
+    }
+    /** @return whether matrices with the given metadata are approximations (see {@link #isApproximate()}). */
+    public static boolean isApproximate(WindowMetadata metadata){
+        return metadata.sketchCoefficients > 0 || metadata.samplingTolerance > 0 || metadata.previewLevel > 0;
+    }
+
+    /** @return how the matrix was computed (see {@link WindowMetadata#getResultKind()}), including whether median and interquartile range were approximated by the computation (see {@link #binnedPercentiles}). */
+    public String getResultKind(){
+        String kind = metadata.getResultKind();
+        return binnedPercentiles && kind.equals("exact") ? "approximate median" : kind;
+    }
+
+    /** @return whether the matrix is a coarse preview computed on downsampled time series (see {@link WindowMetadata#previewLevel}). */
+    public boolean isPreview(){
+        return metadata != null && metadata.previewLevel > 0;
+    }
+
+    private static boolean[] requestedFlags(Collection<Integer> statistics){
+        boolean[] flags = new boolean[HISTOGRAM + 1];
+        for (int stat = 0; stat <= HISTOGRAM; stat++) flags[stat] = statistics == null || statistics.contains(stat);
+        return flags;
+    }
+
     // -----------------------------------------------------------------------------------------------------------------
     // Computation
     // -----------------------------------------------------------------------------------------------------------------
 
     protected int numThreads = 1;
 
+    /**
+     * The algorithms that can be used to compute the window covariances of a column.
+     * <pre>
+     * {@link #LAG_LOOP} computes one dot product of length |w| per window pair and time lag. Cost per column: |A|·|B|·|tau|·|w|
+     * {@link #FFT} computes the covariances of a window pair for all time lags with a single FFT based cross-correlation.
+     *              Cost per column: |A|·|B|·n·log(n) with n ~ |w| + |tau|. Pays off for large lag ranges. The results agree with {@link #LAG_LOOP} up to {@link #FFT_TOLERANCE}.
+     * {@link #ROLLING} walks along the lag diagonals and updates the cross product of a window pair from the previous column,
+     *              by removing the samples that leave the windows and adding those that enter. Cost per column: |A|·|B|·|tau|·min(2·baseWindowOffset, |w|).
+     *              Pays off for small base window offsets (large window overlaps). The results agree with {@link #LAG_LOOP} up to {@link #ROLLING_TOLERANCE}.
+     * {@link #BLOCKED} builds the z-normalized window matrices of both ensembles and computes all correlations of a cell as a single
+     *              register and cache blocked matrix product. Same cost as {@link #LAG_LOOP} but much better cache reuse for large ensembles.
+     * </pre>
+     */
+    public static enum ENGINE { LAG_LOOP, FFT, ROLLING, BLOCKED }
+
+    /** The maximum absolute deviation of the correlation values computed by the {@link ENGINE#FFT} engine from those computed by the naive algorithm. */
+    public static final double FFT_TOLERANCE = 1e-9;
+
+    /** The maximum absolute deviation of the correlation values computed by the {@link ENGINE#ROLLING} engine from those computed by the naive algorithm. */
+    public static final double ROLLING_TOLERANCE = 1e-9;
+
+    /** The maximum number of correlation values that the {@link ENGINE#FFT} engine buffers per thread before summarizing them into cells (8 bytes each). */
+    protected static final long MAX_FFT_BUFFER_SIZE = 4_000_000;
+
+    /** Which algorithm to use for computing the matrix. Does not affect the results (up to rounding errors). */
+    ENGINE engine = ENGINE.LAG_LOOP;
+
+    public ENGINE getEngine() { return engine; }
+    public void setEngine(ENGINE engine) { this.engine = engine; }
+
+    /** The maximum memory (in bytes) that the {@link ENGINE#LAG_LOOP} engine may use to precompute the z-normalized windows. Zero disables the precomputation. */
+    long windowStoreBudget = NormalizedWindowStore.DEFAULT_BUDGET_BYTES;
+    /** The z-normalized windows used by the {@link ENGINE#LAG_LOOP} engine, null if they exceed the {@link #windowStoreBudget} (the windows are then normalized on the fly). */
+    protected NormalizedWindowStore windowStore;
+
+    /** The largest observed absolute difference between a single precision correlation value and the double precision correlation value.
+     * Is estimated from a sample of {@link FloatPartialMatrixComputer#DEVIATION_SAMPLES} window pairs. NaN if the matrix wasn't computed in single precision. */
+    protected double maxFloatDeviation = Double.NaN;
+
+    public double getMaxFloatDeviation() { return maxFloatDeviation; }
+
+    /**
+     * Whether to partition the set A × set B pair space of each column into tiles that are computed in parallel (see {@link TiledComputation}).
+     * Useful if there are few columns but large ensembles. Median and interquartile range are then approximated (see {@link CellSummary}),
+     * using {@link WindowMetadata#histogramBins} bins if specified and {@link CellSummary#FINE_BINS} otherwise.
+     */
+    private boolean pairTiling = false;
+
+    public boolean getPairTiling() { return pairTiling; }
+    public void setPairTiling(boolean pairTiling) { this.pairTiling = pairTiling; }
+
+    /**
+     * Whether to compute the columns in coarse-to-fine order (see {@link #computeProgressive(Consumer, Consumer)}): first every {@link #COARSEST_STRIDE}-th column,
+     * then the columns in between, halving the stride until all columns are computed. After each level, a preview of the matrix is published, such that
+     * the global structure of the result is visible long before the computation finishes. Has no effect together with {@link #pairTiling}
+     * and for the {@link ENGINE#ROLLING} engine, which updates each column from its left neighbor and would compute every column from scratch in coarse-to-fine order.
+     */
+    private boolean progressive = false;
+
+    public boolean getProgressive() { return progressive; }
+    public void setProgressive(boolean progressive) { this.progressive = progressive; }
+
+    /** The column stride of the first level of a progressive computation. */
+    protected static final int COARSEST_STRIDE = 64;
+
+    /** Whether the matrix is a preview of a progressive computation, in which not yet computed columns are filled with the nearest computed column (see {@link #progressive}). */
+    private boolean partial = false;
+
+    public boolean isPartial() { return partial; }
+
+    /** The range of columns [from, to) that a running progressive computation computes first, null if there is none (see {@link #setPriorityColumns(int, int)}).
+     * Shared with the previews of the computation, such that the range can be set on the preview that is currently displayed. */
+    private AtomicReference<int[]> priorityColumns = new AtomicReference<>();
+
+    /**
+     * Lets a running {@link #progressive} computation compute the given columns first, followed by the columns closest to them.
+     * The columns in the range are computed with the current level, regardless of their stride; the remaining columns of each level are computed
+     * in order of their distance to the range. Can be called at any time, e.g. whenever the visible part of the matrix changes,
+     * and on the previews of a computation (see {@link #isPartial()}) to affect the computation that published them.
+     * @param from the first column (inclusive)
+     * @param to the last column (exclusive). If to ≤ from, all columns are equally important.
+     */
+    public void setPriorityColumns(int from, int to){
+        priorityColumns.set(to > from ? new int[]{from, to} : null);
+    }
+
+    /**
+     * Whether to exploit the symmetry of a within-ensemble comparison (set A and set B contain the same time series).
+     * Then r(a, b, tau) = r(b, a, -tau), so the cell for time lag -tau contains the same correlation values as the cell for time lag tau
+     * and only one of them needs to be computed. In the cell for time lag 0, each unordered pair of time series needs to be correlated only once.
+     * The mode is used automatically if set A and set B contain the same time series objects. Requesting it explicitly allows using it for different time series objects with the same values.
+     * Only the {@link ENGINE#LAG_LOOP} engine (in {@link PRECISION#DOUBLE} precision, without {@link #pairTiling}) makes use of the symmetry.
+     */
+    boolean selfCorrelation = false;
+
+    /** Whether set A and set B contain the same values, determined once when {@link #selfCorrelation} is requested. */
+    boolean sameValues = false;
+
+    public boolean getSelfCorrelation() { return selfCorrelation; }
+    public void setSelfCorrelation(boolean selfCorrelation) {
+        this.selfCorrelation = selfCorrelation;
+        sameValues = selfCorrelation && metadata.setA.size() == metadata.setB.size();
+        for (int tsIdx = 0; sameValues && tsIdx < metadata.setA.size(); tsIdx++)
+            sameValues = Arrays.equals(metadata.setA.get(tsIdx).getDataItems().im, metadata.setB.get(tsIdx).getDataItems().im);
+    }
+
+    /**
+     * The missing value masks and prefix sums of each time series, used if the computation handles missing values pairwise complete
+     * (see {@link CrossCorrelation.NA_ACTION#PAIRWISE_COMPLETE}). Null otherwise and if no time series contains missing values, in which case the NaN-free computation applies.
+     * The pairwise complete handling is implemented by the {@link ENGINE#LAG_LOOP} engine in {@link PRECISION#DOUBLE} precision, which is used regardless of the configured engine.
+     */
+    protected PairwiseCompleteCorrelation.SeriesTerms[] nanTermsA, nanTermsB;
+
+    /** The number of window pairs that have been approximated from DFT sketches and the number of those that have been correlated exactly because the approximation
+     * didn't decide the significance test (see {@link WindowMetadata#sketchCoefficients}). */
+    final AtomicLong sketchedPairs = new AtomicLong(), refinedPairs = new AtomicLong();
+
+    public long getSketchedPairs() { return sketchedPairs.get(); }
+    public long getRefinedPairs() { return refinedPairs.get(); }
+
+    /** The number of window pairs that have been correlated by a sampled computation (see {@link WindowMetadata#samplingTolerance}). */
+    final AtomicLong sampledPairs = new AtomicLong();
+
+    public long getSampledPairs() { return sampledPairs.get(); }
+
+    /** Significance testers for pairwise complete correlation values, indexed by the number of complete pairs (the sample size). Created on demand. */
+    private CorrelationSignificance[] pairwiseSignificanceTesters;
+
+    /** For each time lag index, the index of the cell with the negated time lag whose results are copied, or -1 if the cell is computed.
+     * Null if the symmetry of a within-ensemble comparison isn't exploited. */
+    protected int[] mirroredLagIdx;
+
+    public long getWindowStoreBudget() { return windowStoreBudget; }
+    public void setWindowStoreBudget(long budgetBytes) { this.windowStoreBudget = budgetBytes; }
+
+    /** The default memory budget for the retained cell summaries (512 MB). */
+    public static final long DEFAULT_CELL_SUMMARY_BUDGET_BYTES = 512L * 1024 * 1024;
+
+    /**
+     * The maximum memory (in bytes) for keeping a {@link CellSummary} per cell in the columns (see {@link CorrelationColumn#cellSummaries}). Zero (the default) disables them.
+     * With summaries, a matrix for ensembles that differ by a few time series can be derived by computing only the changed window pairs (see {@link #setMembershipBasis(CorrelationMatrix)}).
+     * Each summary takes about 4·({@link CorrelationHistogram#NUM_BINS} + fine bins) bytes, with {@link WindowMetadata#histogramBins} fine bins if specified and {@link CellSummary#FINE_BINS} otherwise.
+     * Median and interquartile range are then approximated from the fine bins (as for {@link #pairTiling}).
+     * The summaries are not kept for approximate computations, pairwise complete correlations with missing values, pair tiling, or if they exceed the budget.
+     * The budget applies to a single matrix. Summaries that are no longer needed as a membership basis should be discarded (see {@link #releaseCellSummaries()}).
+     */
+    long cellSummaryBudget = 0;
+
+    public long getCellSummaryBudget() { return cellSummaryBudget; }
+    public void setCellSummaryBudget(long budgetBytes) { this.cellSummaryBudget = budgetBytes; }
+
+    /** Whether the current computation keeps the cell summaries (see {@link #cellSummaryBudget}). */
+    boolean summarizing = false;
+    /** Whether the last computation approximated median and interquartile range from binned values, i.e. used {@link #pairTiling} or kept the cell summaries.
+     * Not stored in the metadata, since it doesn't change the parameters of the result. Matrices loaded from a file don't know it. */
+    boolean binnedPercentiles = false;
+
+    /** A matrix with the same parameters but slightly different ensembles, from whose cell summaries the next computation derives this matrix (see {@link #setMembershipBasis(CorrelationMatrix)}). */
+    private CorrelationMatrix membershipBasis;
+    /** The window pairs by which the ensembles of the current computation differ from its membership basis, null if the matrix is computed from scratch. */
+    MembershipChange membershipChange;
+    /** The number of window pairs per cell by which the last computation changed the cell summaries of its membership basis, 0 if it computed the matrix from scratch. */
+    private long changedPairs = 0;
+
+    public long getChangedPairs() { return changedPairs; }
+
+    /**
+     * Lets the next computation derive this matrix from a matrix that differs only in the time series of set A and set B, e.g. after adding or removing a few time series.
+     * If the basis has kept its cell summaries (see {@link #cellSummaryBudget}) and has otherwise the same parameters and time series length (see {@link #canDeriveFrom(CorrelationMatrix)}),
+     * the summaries of the window pairs of removed time series are subtracted from the cell summaries of the basis and those of the added time series are merged into them.
+     * The cost is then proportional to the number of changed pairs instead of |A|·|B|. Otherwise, or if more pairs changed than the matrix has, the matrix is computed from scratch.
+     * Requires a {@link #cellSummaryBudget}, since the derived cells are summaries as well. The basis is released after the computation.
+     */
+    public void setMembershipBasis(CorrelationMatrix basis) { this.membershipBasis = basis; }
+    public CorrelationMatrix getMembershipBasis() { return membershipBasis; }
+
+    /** @return whether the columns keep their cell summaries (see {@link #cellSummaryBudget}), such that the matrix can serve as a membership basis. */
+    public boolean hasCellSummaries() { return !columns.isEmpty() && columns.get(0).cellSummaries != null; }
+
+    /** Discards the cell summaries of all columns (see {@link #cellSummaryBudget}), e.g. when the matrix is no longer needed as a membership basis. The statistics are unaffected. */
+    public void releaseCellSummaries() {
+        for(CorrelationColumn column : columns) column.cellSummaries = null;
+    }
+
+    /** @return whether this matrix can be derived from the given matrix (see {@link #setMembershipBasis(CorrelationMatrix)}). */
+    public boolean canDeriveFrom(CorrelationMatrix basis){
+        WindowMetadata other = basis.metadata;
+        return basis != this && !basis.isPartial() && basis.hasCellSummaries() &&
+                other.windowSize == metadata.windowSize && other.tauMin == metadata.tauMin && other.tauMax == metadata.tauMax &&
+                other.tauStep == metadata.tauStep && other.baseWindowOffset == metadata.baseWindowOffset &&
+                other.sameParameters(metadata) && basis.columns.size() == metadata.numBaseWindows &&
+                // the summaries of the basis describe the values up to its length, values appended since would be missing
+                other.timeSeriesLength == metadata.timeSeriesLength && metadata.timeSeriesLength == metadata.setA.get(0).getSize();
+    }
+
+    /** @return the memory needed for the summaries of all cells of the matrix (see {@link #cellSummaryBudget}). */
+    private long cellSummaryBytes(){
+        int fineBins = metadata.histogramBins > 0 ? metadata.histogramBins : CellSummary.FINE_BINS;
+        return (long) metadata.numBaseWindows * metadata.getNumberOfDifferentTimeLags() * cellSummaryBytes(fineBins);
+    }
+
+    /** @return the approximate memory needed for a single {@link CellSummary} with the given number of fine bins. */
+    static long cellSummaryBytes(int fineBins){
+        return 4L * (CorrelationHistogram.NUM_BINS + fineBins) + 64;
+    }
+
+    /** The thread pool shared by all computations. Idle workers steal column blocks from busy workers (see {@link ColumnBlockTask}). */
+    protected static final ForkJoinPool COMPUTE_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /** Column blocks are split until they contain at most numBaseWindows / (numThreads · BLOCKS_PER_THREAD) columns, such that idle workers find blocks to steal. */
+    protected static final int BLOCKS_PER_THREAD = 8;
+
+    /** The number of columns computed so far by all workers. */
+    final AtomicInteger finishedColumns = new AtomicInteger();
+
+    /** The length of the time series when the matrix was computed (see {@link #update()}). */
+    int computedLength;
+
+    /** Set when the computation is aborted, checked by all workers. */
+    volatile boolean cancelled = false;
+
     /** Resets the column data. Determines a sensible number of threads for parallel computation. */
     private void initComputation(){
         columns = new ArrayList<>();
-        // partition the input set A among the threads
-        int maxThreads = metadata.numBaseWindows;                   // each thread gets at least one base window
-        int minThreads = 1;
-        int stdThreads = Runtime.getRuntime().availableProcessors();
-        numThreads = Math.max(minThreads, Math.min(maxThreads, stdThreads));
+        computedLength = metadata.setA.get(0).getSize();
+        finishedColumns.set(0);
+        sketchedPairs.set(0);
+        refinedPairs.set(0);
+        sampledPairs.set(0);
+        cancelled = false;
+        // each thread gets at least one base window
+        numThreads = Math.max(1, Math.min(metadata.numBaseWindows, COMPUTE_POOL.getParallelism()));
+        mirroredLagIdx = exploitsSymmetry() ? mirroredLags(metadata.getDifferentTimeLags()) : null;
+        requested = requestedFlags(metadata.requestedStatistics);
+    }
+
+    /**
+     * Computes the columns [from, to) without appending them to the matrix (see {@link Refinement} and {@link IncrementalUpdate}).
+     * @param registry the registry to obtain the window terms from, or null to obtain them as in {@link #precomputeTerms()}
+     * @return the columns or null if the computation has been cancelled
+     */
+    List<CorrelationColumn> computeColumns(int from, int to, WindowStatisticsRegistry registry){
+        initComputation();
+        numThreads = Math.max(1, Math.min(to - from, COMPUTE_POOL.getParallelism()));
+        if(registry == null) precomputeTerms(); else precomputeTerms(registry);
+        if(cancelled) return null;
+        int blockSize = Math.max(1, (to - from) / (numThreads * BLOCKS_PER_THREAD));
+        return COMPUTE_POOL.invoke(new ColumnBlockTask(this, from, to, blockSize, null));
+    }
+
+    /** @return whether the computation is a within-ensemble comparison (see {@link #selfCorrelation}) that is computed by an engine exploiting the symmetry. */
+    private boolean exploitsSymmetry(){
+        if(engine != ENGINE.LAG_LOOP || metadata.precision != PRECISION.DOUBLE || pairTiling) return false;
+        if(selfCorrelation) return sameValues;
+        // automatic detection compares the time series objects, not their values
+        boolean sameSeries = metadata.setA.size() == metadata.setB.size();
+        for (int tsIdx = 0; sameSeries && tsIdx < metadata.setA.size(); tsIdx++)
+            sameSeries = metadata.setA.get(tsIdx) == metadata.setB.get(tsIdx);
+        return sameSeries;
+    }
+
+    /** @return whether the last computation exploited the symmetry of a within-ensemble comparison (see {@link #selfCorrelation}). */
+    public boolean isSymmetric(){ return mirroredLagIdx != null; }
+
+    /** @return for each negative time lag tau for which -tau is also computed, the index of -tau. -1 for all other time lags. */
+    static int[] mirroredLags(int[] lags){
+        int[] mirrored = new int[lags.length];
+        for (int lagIdx = 0; lagIdx < lags.length; lagIdx++) {
+            mirrored[lagIdx] = -1;
+            if(lags[lagIdx] >= 0) continue;
+            for (int otherIdx = 0; otherIdx < lags.length; otherIdx++)
+                if(lags[otherIdx] == -lags[lagIdx]) mirrored[lagIdx] = otherIdx;
+        }
+        return mirrored;
+    }
+
+    /** @return whether the computation has been aborted (either by interrupting the computing thread or by cancelling the computation). */
+    boolean isCancelled(){
+        return cancelled || Thread.currentThread().isInterrupted();
     }
 
     /** Computes the correlation matrix according to the {@link #metadata} that describes the computation input. */
     public void compute(){
+        compute(null);
+    }
+
+    /** Computes the correlation matrix and passes the number of finished columns to the given callback (see {@link #computeParallel(Consumer, Consumer)}). */
+    void compute(Consumer<Integer> reportProgress){
+        compute(reportProgress, null);
+    }
+
+    /** Computes the correlation matrix and passes the previews of a {@link #progressive} computation to the given callback (see {@link #computeParallel(Consumer, Consumer)}). */
+    void compute(Consumer<Integer> reportProgress, Consumer<CorrelationMatrix> publishPreview){
 
         initComputation();
-        computeParallel(null);
+        computeParallel(reportProgress, publishPreview);
 
     }
 
     /**
-     * Fills the columns data structure. Horizontally partitions the correlation matrix. Each thread is assigned a subsequence of columns to compute.
-     * Each partition of the matrix is computed in a {@link Data.Correlation.CorrelationMatrix.PartialMatrixComputer}.
-     * @param reportProgress an optional callback to report progress to the GUI. Used by the compute service to pass the current base window index
+     * Fills the columns data structure. Horizontally partitions the correlation matrix into blocks of consecutive columns that are computed on the {@link #COMPUTE_POOL}.
+     * Each block of the matrix is computed in a {@link Data.Correlation.CorrelationMatrix.PartialMatrixComputer}. See {@link ColumnBlockTask} for the partitioning.
+     * @param reportProgress an optional callback to report progress to the GUI. Is called by all workers and receives the total number of finished columns,
      *                       which causes prediction of the remaining time and makes the result available via the service reportProgress() etc. methods.
+     * @param publishPreview an optional callback that receives the previews of a {@link #progressive} computation.
      */
-    void computeParallel(Consumer<Integer> reportProgress) {
+    void computeParallel(Consumer<Integer> reportProgress, Consumer<CorrelationMatrix> publishPreview) {
 
         // all time series in set A and set B are expected to be of equal length
         precomputeTerms();
+        if(cancelled) return; // the window terms are incomplete
+        summarizing = cellSummaryBudget > 0 && nanTermsA == null && !isApproximate() && !pairTiling && cellSummaryBytes() <= cellSummaryBudget;
+        binnedPercentiles = summarizing || pairTiling && !engineOverridden();
+        membershipChange = summarizing && membershipBasis != null && canDeriveFrom(membershipBasis) ? new MembershipChange(this, membershipBasis) : null;
+        if(membershipChange != null && membershipChange.changedPairs >= (long) metadata.setA.size() * metadata.setB.size()) membershipChange = null;
+        changedPairs = membershipChange == null ? 0 : membershipChange.changedPairs;
+        if(membershipChange != null && !membershipChange.precomputeBasisTerms()) return;
+        boolean singlePrecision = metadata.precision == PRECISION.FLOAT && !engineOverridden() && !summarizing;
+        windowStore = summarizing ? null : createWindowStore();
+
+        if(pairTiling && !engineOverridden()){
+            new TiledComputation(this).compute(reportProgress);
+        } else if(progressive && !usesRollingEngine()){
+            computeProgressive(reportProgress, publishPreview);
+        } else {
+            int blockSize = Math.max(1, metadata.numBaseWindows / (numThreads * BLOCKS_PER_THREAD));
+            ForkJoinTask<List<CorrelationColumn>> computation = COMPUTE_POOL.submit(new ColumnBlockTask(this, 0, metadata.numBaseWindows, blockSize, reportProgress));
+            try {
+                List<CorrelationColumn> result = computation.get();
+                // append columns to the matrix in order of computation
+                if(result != null) result.forEach(this::append);
+            } catch (InterruptedException | ExecutionException e) {
+                System.out.println(String.format("Computation aborted. Cancelling workers."));
+                cancelled = true;
+                computation.cancel(true);
+                e.printStackTrace();
+            }
+        }
+        windowStore = null; // the precomputed windows are only needed during the computation
+        membershipBasis = null;
+        membershipChange = null;
 
-        List<Callable<CorrelationMatrix>> threads = new ArrayList<>(numThreads);
-        for (int i = 0; i < numThreads; i++) {
+        if(singlePrecision) maxFloatDeviation = FloatPartialMatrixComputer.measureFloatDeviation(this);
 
-            // assign each thread a partition of the base windows to process
-            int stepSize = (int) Math.floor((double) metadata.numBaseWindows / numThreads);      // there won't be more threads than windows {@link initComputation()}
-            final int from = i*stepSize,
-                      to   = i == numThreads - 1 ? metadata.numBaseWindows : (i+1)*stepSize;     // index is exclusive
+    }
 
-//            if(RuntimeConfiguration.VERBOSE) System.out.println(String.format("thread %s is responsible for base window range [%s,%s[", i, from, to));
 
-            // create a thread handling the given bounds. pass the progress reporter callback only to the first.
-            threads.add(new PartialMatrixComputer(from, to, i == numThreads-1 ? reportProgress : null));
+    /**
+     * Computes the columns level by level: the first level contains every {@link #COARSEST_STRIDE}-th column, each following level the columns halfway between
+     * the columns computed so far. The workers on the {@link #COMPUTE_POOL} take the columns of a level one by one from a {@link ProgressiveLevel},
+     * which hands out the columns in the {@link #setPriorityColumns(int, int) priority range} first. Each worker computes its columns of a level with a single
+     * {@link PartialMatrixComputer}, such that its buffers (e.g. the spectra of the {@link ENGINE#FFT} engine) are allocated once per level and not per column.
+     * After each level except the last, the preview of the matrix (see {@link #previewMatrix(CorrelationColumn[])}) is passed to the given callback.
+     */
+    private void computeProgressive(Consumer<Integer> reportProgress, Consumer<CorrelationMatrix> publishPreview){
+
+        CorrelationColumn[] computed = new CorrelationColumn[metadata.numBaseWindows];
+
+        for (int stride = COARSEST_STRIDE; stride >= 1; stride /= 2) {
+
+            ProgressiveLevel level = new ProgressiveLevel(computed, stride, priorityColumns);
+
+            List<Callable<Boolean>> workers = new ArrayList<>(numThreads);
+            for (int worker = 0; worker < numThreads; worker++) {
+                workers.add(() -> {
+                    // created on the worker thread, since the computer uses the summarizer of its thread
+                    PartialMatrixComputer computer = createPartialMatrixComputer(0, 0, null);
+                    try {
+                        for (int baseWindowIdx = level.next(); baseWindowIdx >= 0; baseWindowIdx = level.next()) {
+                            CorrelationColumn column = computer.computeColumn(baseWindowIdx);
+                            if(column == null) return false; // the computation has been interrupted
+                            computed[baseWindowIdx] = column;
+                            int finished = finishedColumns.incrementAndGet();
+                            if(reportProgress != null) reportProgress.accept(finished);
+                        }
+                    } finally {
+                        computer.summarizer.trim();
+                    }
+                    return true;
+                });
+            }
 
-        }
+            try {
+                for(Future<Boolean> workerResult : COMPUTE_POOL.invokeAll(workers))
+                    if(!workerResult.get()) return;
+            } catch (InterruptedException | ExecutionException e) {
+                System.out.println(String.format("Computation aborted. Cancelling workers."));
+                cancelled = true;
+                e.printStackTrace();
+                return;
+            }
 
-        final ExecutorService service = Executors.newFixedThreadPool(numThreads);
-        try {
-            List<Future<CorrelationMatrix>> results = service.invokeAll(threads);
-            // append columns to the matrix in order of computation
-            for(Future<CorrelationMatrix> f : results) f.get().columns.forEach(this::append);
-        } catch (InterruptedException | ExecutionException e) {
-            System.out.println(String.format("Computation aborted. Shutting down execution pool."));
-            service.shutdownNow();
-            e.printStackTrace();
+            if(stride > 1 && publishPreview != null) publishPreview.accept(previewMatrix(computed));
         }
-        service.shutdown();
 
+        for(CorrelationColumn column : computed) append(column);
+    }
+
+    /** @return a {@link #isPartial() partial} matrix that contains for each column the computed column with the nearest index (the left one if two are equally near). */
+    private CorrelationMatrix previewMatrix(CorrelationColumn[] computed){
+        CorrelationMatrix preview = new CorrelationMatrix(metadata);
+        preview.partial = true;
+        preview.priorityColumns = priorityColumns;
+        int left = -1;  // the index of the last computed column at or before the current index
+        for (int baseWindowIdx = 0; baseWindowIdx < computed.length; baseWindowIdx++) {
+            if(computed[baseWindowIdx] != null) left = baseWindowIdx;
+            int right = baseWindowIdx;
+            while(right < computed.length && computed[right] == null) right++;
+            boolean useLeft = left >= 0 && (right == computed.length || baseWindowIdx - left <= right - baseWindowIdx);
+            preview.append(useLeft ? computed[left] : computed[right]);
+        }
+        return preview;
     }
 
+    /** The registry that holds the window means and norms. A registry shared by several computations avoids recomputing them for time series that are used by more than one computation.
+     * If null, each computation uses its own registry (which still deduplicates the time series that appear in both set A and set B). */
+    WindowStatisticsRegistry windowStatisticsRegistry;
+
+    public WindowStatisticsRegistry getWindowStatisticsRegistry() { return windowStatisticsRegistry; }
+    public void setWindowStatisticsRegistry(WindowStatisticsRegistry registry) { this.windowStatisticsRegistry = registry; }
 
     /**
-     * TODO: Is precomputation for large time lag steps slower than no precomputation?
-     * Computes the means and standard deviations for each window necessary for the cc matrix computation.
-     * This induces a slight overhead in the main computation, since the values in each window need to be normalized to
-     * compute the L2 norm.
+     * Computes the means and L2 norms (of the mean-shifted values) of each window necessary for the cc matrix computation.
+     * Uses running sums (see {@link #precomputeWindowTerms(double[], int, double[], double[])}) such that each window costs O(1) regardless of the window size.
+     * The terms are obtained from a {@link WindowStatisticsRegistry}, such that time series that are contained in both sets are processed only once
+     * and their arrays are shared by {@link #meansA} and {@link #meansB} (analogously for the L2 norms).
+     * The time series are processed in parallel on the {@link #COMPUTE_POOL}.
      */
     protected void precomputeTerms() {
+        precomputeTerms(windowStatisticsRegistry != null ? windowStatisticsRegistry : new WindowStatisticsRegistry());
+    }
 
-        // number of possible placements of a window: number of data points
-        int numWindows = metadata.setA.get(0).getSize();
-        int lastValidWindowStartIdx = metadata.setA.get(0).getSize() - metadata.windowSize;
-
-        meansA = new double[metadata.setA.size()][numWindows];
-        meansB = new double[metadata.setB.size()][numWindows];
-        L2NormsA = new double[metadata.setA.size()][numWindows];
-        L2NormsB = new double[metadata.setB.size()][numWindows];
+    /** The registry from which the window terms of the last computation have been obtained. Extended by {@link #update()} for the updated matrix. */
+    WindowStatisticsRegistry termsRegistry;
 
-        // precompute means for time series ensemble A
-        for (int tsIdx = 0; tsIdx < metadata.setA.size(); tsIdx++) {
-            TimeSeries tsA = metadata.setA.get(tsIdx);
-            Arrays.fill(meansA[tsIdx], placeholder);
-            meansA[tsIdx][0] = CrossCorrelation.mean(tsA, 0, metadata.windowSize - 1);
-            for (int offset = 1; offset <= lastValidWindowStartIdx; offset++) {
-                meansA[tsIdx][offset] = CrossCorrelation.incrementalMean(tsA, offset, offset+metadata.windowSize-1, meansA[tsIdx][offset-1], offset-1);
-            }
-        }
+    void precomputeTerms(WindowStatisticsRegistry registry) {
 
-        // precompute means for time series ensemble B
-        for (int tsIdx = 0; tsIdx < metadata.setB.size(); tsIdx++) {
-            TimeSeries tsB = metadata.setB.get(tsIdx);
-            Arrays.fill(meansB[tsIdx], placeholder);
-            meansB[tsIdx][0] = CrossCorrelation.mean(tsB, 0, metadata.windowSize-1);
-            for (int offset = 1; offset <= lastValidWindowStartIdx; offset++) {
-                meansB[tsIdx][offset] = CrossCorrelation.incrementalMean(tsB, offset, offset+metadata.windowSize-1, meansB[tsIdx][offset-1], offset-1);
-            }
-        }
+        termsRegistry = registry;
 
-        double[] normalizedValues = new double[metadata.windowSize];
+        meansA = new double[metadata.setA.size()][];
+        meansB = new double[metadata.setB.size()][];
+        L2NormsA = new double[metadata.setA.size()][];
+        L2NormsB = new double[metadata.setB.size()][];
 
-        // precompute L2 norms of normalized window data for time series A
+        // each distinct time series is processed once
+        WindowStatisticsRegistry.WindowStatistics[] statisticsA = new WindowStatisticsRegistry.WindowStatistics[metadata.setA.size()],
+                                                    statisticsB = new WindowStatisticsRegistry.WindowStatistics[metadata.setB.size()];
+        Set<WindowStatisticsRegistry.WindowStatistics> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
         for (int tsIdx = 0; tsIdx < metadata.setA.size(); tsIdx++) {
-            TimeSeries tsA = metadata.setA.get(tsIdx);
-            Arrays.fill(L2NormsA[tsIdx], placeholder);
-            double[] data = tsA.getDataItems().im;
-            for (int offset = 0; offset <= lastValidWindowStartIdx; offset++) {
-                CrossCorrelation.normalizeValues(data, offset, offset+metadata.windowSize-1, meansA[tsIdx][offset], normalizedValues);
-                L2NormsA[tsIdx][offset] = CrossCorrelation.rootOfSummedSquares(normalizedValues);
-            }
+            statisticsA[tsIdx] = registry.get(metadata.setA.get(tsIdx), metadata.windowSize);
+            distinct.add(statisticsA[tsIdx]);
         }
-
-        // precompute L2 norms of normalized window data for time series B
         for (int tsIdx = 0; tsIdx < metadata.setB.size(); tsIdx++) {
-            TimeSeries tsB = metadata.setB.get(tsIdx);
-            Arrays.fill(L2NormsB[tsIdx], placeholder);
-            double[] data = tsB.getDataItems().im;
-            for (int offset = 0; offset <= lastValidWindowStartIdx; offset++) {
-                CrossCorrelation.normalizeValues(data, offset, offset+metadata.windowSize-1, meansB[tsIdx][offset], normalizedValues);
-                L2NormsB[tsIdx][offset] = CrossCorrelation.rootOfSummedSquares(normalizedValues);
-            }
+            statisticsB[tsIdx] = registry.get(metadata.setB.get(tsIdx), metadata.windowSize);
+            distinct.add(statisticsB[tsIdx]);
         }
 
-    }
-
-    /** Computes one horizontal slice of the correlation matrix, that is, all columns in a given range. */
-    private class PartialMatrixComputer implements Callable<CorrelationMatrix>{
+        List<Callable<Void>> tasks = new ArrayList<>(distinct.size());
+        for(WindowStatisticsRegistry.WindowStatistics statistics : distinct) tasks.add(() -> { statistics.ensureComputed(); return null; });
 
-        CorrelationMatrix partialMatrix = new CorrelationMatrix(metadata); // each threads own results (a subsequence of the matrixs columns)
-
-        /** The first window index (inclusive) and the last window index (exclusive). */
-        final int from, to;
-        final Consumer<Integer> progress;
-
-        private PartialMatrixComputer(int from, int to, Consumer<Integer> progress) {
-            this.from = from;
-            this.to = to;
-            this.progress = progress;
+        // missing value masks for pairwise complete correlation
+        nanTermsA = nanTermsB = null;
+        PairwiseCompleteCorrelation.SeriesTerms[] termsA = new PairwiseCompleteCorrelation.SeriesTerms[metadata.setA.size()],
+                                                  termsB = new PairwiseCompleteCorrelation.SeriesTerms[metadata.setB.size()];
+        if(metadata.naAction == CrossCorrelation.NA_ACTION.PAIRWISE_COMPLETE){
+            for (int tsIdx = 0; tsIdx < termsA.length; tsIdx++) tasks.add(nanTermsTask(termsA, tsIdx, metadata.setA.get(tsIdx)));
+            for (int tsIdx = 0; tsIdx < termsB.length; tsIdx++) tasks.add(nanTermsTask(termsB, tsIdx, metadata.setB.get(tsIdx)));
         }
 
-        @Override public CorrelationMatrix call() throws Exception {
-
-            int columnSize = metadata.getNumberOfDifferentTimeLags();
-
-            DescriptiveStatistics descriptiveStatistics = new DescriptiveStatistics();
-
-            int windowAStartIdx, windowBStartIdx;                       // the offset of the current window pair
-            double[] windowAData = new double[metadata.windowSize],     // values in the current window pair
-                     windowBData = new double[metadata.windowSize];
-            double   windowAMean, windowAL2Norm,                        // means and L2 norms of the current window pair
-                     windowBMean, windowBL2Norm;
-
-            boolean isProgressReporter = progress != null; // only one thread reports its progress (it is assumed that all threads proceed at the same speed)
+        try {
+            for(Future<Void> f : COMPUTE_POOL.invokeAll(tasks)) f.get();
+        } catch (InterruptedException | ExecutionException e) {
+            System.out.println(String.format("Precomputation aborted."));
+            cancelled = true;
+            e.printStackTrace();
+            return;
+        }
 
-            // create the result column by column to avoid having to keep too much data in main memory
-            for (int baseWindowIdx = from; baseWindowIdx < to; baseWindowIdx++) {
+        // the arrays are available only after the computation (and are replaced when a time series grows)
+        for (int tsIdx = 0; tsIdx < metadata.setA.size(); tsIdx++) {
+            meansA[tsIdx] = statisticsA[tsIdx].means;
+            L2NormsA[tsIdx] = statisticsA[tsIdx].l2Norms;
+        }
+        for (int tsIdx = 0; tsIdx < metadata.setB.size(); tsIdx++) {
+            meansB[tsIdx] = statisticsB[tsIdx].means;
+            L2NormsB[tsIdx] = statisticsB[tsIdx].l2Norms;
+        }
 
-                if(isProgressReporter) progress.accept(baseWindowIdx-from);
+        // without missing values, the pairwise complete correlation is the ordinary correlation
+        if(metadata.naAction == CrossCorrelation.NA_ACTION.PAIRWISE_COMPLETE &&
+                (Arrays.stream(termsA).anyMatch(PairwiseCompleteCorrelation.SeriesTerms::containsNaN) || Arrays.stream(termsB).anyMatch(PairwiseCompleteCorrelation.SeriesTerms::containsNaN))){
+            nanTermsA = termsA;
+            nanTermsB = termsB;
+        }
 
-                int baseWindowStartIdx = metadata.baseWindowOffset * baseWindowIdx;
+    }
 
-                CorrelationHistogram correlationHistogram = new CorrelationHistogram(metadata);
-                CorrelationColumn column = new CorrelationColumnBuilder(baseWindowStartIdx, metadata.tauMin).allEmpty(columnSize).histogram(correlationHistogram).build();
+    private static Callable<Void> nanTermsTask(PairwiseCompleteCorrelation.SeriesTerms[] terms, int tsIdx, TimeSeries timeSeries){
+        return () -> { terms[tsIdx] = new PairwiseCompleteCorrelation.SeriesTerms(timeSeries.getDataItems().im); return null; };
+    }
 
-                // compute columns cell by cell
-                int lagIdx = 0;
-                for(int lag : metadata.getDifferentTimeLags()){
+    /** @return whether the columns are computed by a dedicated computer regardless of the engine, precision and tiling settings (pairwise complete handling of missing values or sketching). */
+    private boolean engineOverridden(){
+        return nanTermsA != null || metadata.sketchCoefficients > 0 || metadata.samplingTolerance > 0;
+    }
 
-                    if(Thread.currentThread().isInterrupted())
-                        return null;
+    /** @return the significance tester for a pairwise complete correlation value computed from the given number of complete pairs, null if there are less than three pairs. */
+    synchronized CorrelationSignificance pairwiseSignificanceTester(int numPairs){
+        if(numPairs == metadata.windowSize) return significanceTester;
+        if(numPairs < 3) return null;
+        if(pairwiseSignificanceTesters == null) pairwiseSignificanceTesters = new CorrelationSignificance[metadata.windowSize];
+        if(pairwiseSignificanceTesters[numPairs] == null) pairwiseSignificanceTesters[numPairs] = new CorrelationSignificance(numPairs, getSignificanceLevel(metadata));
+        return pairwiseSignificanceTesters[numPairs];
+    }
 
-                    descriptiveStatistics.clear();
+    /** If the summed squares of a window (after subtracting the window mean) are smaller than this fraction of the summed squares before subtracting the window mean,
+     * too many digits cancel out and the L2 norm is recomputed explicitly. */
+    protected static final double CANCELLATION_THRESHOLD = 1e-3;
 
-                    if (lag >= 0) {
-                        // process positive time lags (look at past events in time series B ~ find influences of B on A)
-                        windowAStartIdx = baseWindowStartIdx;
-                        windowBStartIdx = baseWindowStartIdx - lag;
-                    } else {
-                        // process negative time lags (look for occurrences of a pattern in time series B in the past of time series A ~ find influences of A on B)
-                        windowAStartIdx = baseWindowStartIdx + lag;
-                        windowBStartIdx = baseWindowStartIdx;
-                    }
+    /**
+     * Computes the mean and the L2 norm of the mean-shifted values for each window of a time series.
+     * Uses prefix sums of the values and the squared values, such that the sums for a window are differences of two prefix sums.
+     * To retain accuracy on long time series, the values are shifted by the time series mean before summation and the prefix sums are
+     * accumulated with compensated (Neumaier) summation, keeping the compensation term alongside each prefix sum.
+     * Windows that contain NaN values get NaN mean and L2 norm.
+     * @param data the time series values
+     * @param windowSize the number of values per window
+     * @param means output, the mean of the window starting at each index (NaN if the window exceeds the time series)
+     * @param l2Norms output, the L2 norm of the mean-shifted window starting at each index (NaN if the window exceeds the time series)
+     */
+    protected static void precomputeWindowTerms(double[] data, int windowSize, double[] means, double[] l2Norms){
+        precomputeWindowTerms(data, windowSize, means, l2Norms, 0);
+    }
 
-                    // compute all pairwise correlation values
-                    List<TimeSeries> setA = metadata.setA;
-                    for (int tsAIdx = 0; tsAIdx < setA.size(); tsAIdx++) {
-                        TimeSeries tsA = setA.get(tsAIdx);
+    /**
+     * Like {@link #precomputeWindowTerms(double[], int, double[], double[])} but only for the windows starting at or after the given index, e.g. to extend the terms
+     * after values have been appended to the time series. Only the values from that index on are read, and the entries before it are left unchanged.
+     */
+    protected static void precomputeWindowTerms(double[] data, int windowSize, double[] means, double[] l2Norms, int firstWindowStartIdx){
+
+        Arrays.fill(means, firstWindowStartIdx, means.length, Double.NaN);
+        Arrays.fill(l2Norms, firstWindowStartIdx, l2Norms.length, Double.NaN);
+
+        int n = data.length, first = firstWindowStartIdx;
+        int lastValidWindowStartIdx = n - windowSize;
+        if(lastValidWindowStartIdx < first) return;
+
+        // shift the values by their mean to keep the magnitude of the sums small
+        double shift = 0;
+        int numValues = 0;
+        for (int i = first; i < n; i++) if(!Double.isNaN(data[i])){ shift += data[i]; numValues++; }
+        shift = numValues > 0 ? shift / numValues : 0;
+
+        // prefix sums: element i refers to the values in [first, first + i). (sum + compensation) and (sum of squares + compensation).
+        double[] sums = new double[n-first+1], sumsCompensation = new double[n-first+1],
+                 squares = new double[n-first+1], squaresCompensation = new double[n-first+1];
+        int[] nanCounts = new int[n-first+1];
+        double sum = 0, sumCompensation = 0, squareSum = 0, squareCompensation = 0;
+        for (int i = 0; i < n - first; i++) {
+            double value = data[first + i] - shift;
+            if(Double.isNaN(value)){
+                value = 0;
+                nanCounts[i+1] = nanCounts[i] + 1;
+            } else nanCounts[i+1] = nanCounts[i];
+
+            double t = sum + value;
+            sumCompensation += Math.abs(sum) >= Math.abs(value) ? (sum - t) + value : (value - t) + sum;
+            sum = t;
+
+            double square = value * value;
+            t = squareSum + square;
+            squareCompensation += squareSum >= square ? (squareSum - t) + square : (square - t) + squareSum;
+            squareSum = t;
+
+            sums[i+1] = sum;        sumsCompensation[i+1] = sumCompensation;
+            squares[i+1] = squareSum; squaresCompensation[i+1] = squareCompensation;
+        }
 
-                        CrossCorrelation.getWindow(windowAData, tsA, windowAStartIdx, placeholder);
+        for (int from = first; from <= lastValidWindowStartIdx; from++) {
+            int to = from + windowSize; // exclusive
+            int f = from - first, t = to - first;   // prefix sum indices
 
-                        List<TimeSeries> setB = metadata.setB;
-                        for (int tsBIdx = 0; tsBIdx < setB.size(); tsBIdx++) {
-                            TimeSeries tsB = setB.get(tsBIdx);
+            if(nanCounts[t] - nanCounts[f] > 0) continue;
 
-                            CrossCorrelation.getWindow(windowBData, tsB, windowBStartIdx, placeholder);
+            double windowSum = (sums[t] - sums[f]) + (sumsCompensation[t] - sumsCompensation[f]);
+            double windowSquares = (squares[t] - squares[f]) + (squaresCompensation[t] - squaresCompensation[f]);
+            double shiftedMean = windowSum / windowSize;
 
-                            if(windowAStartIdx < 0){
-                                windowAMean = Double.NaN;
-                                windowAL2Norm = Double.NaN;
-                            } else {
-                                windowAMean = meansA[tsAIdx][windowAStartIdx];
-                                windowAL2Norm = L2NormsA[tsAIdx][windowAStartIdx];
-                            }
+            means[from] = shift + shiftedMean;
 
-                            if(windowBStartIdx < 0){
-                                windowBMean = Double.NaN;
-                                windowBL2Norm = Double.NaN;
-                            } else {
-                                windowBMean = meansB[tsBIdx][windowBStartIdx];
-                                windowBL2Norm = L2NormsB[tsBIdx][windowBStartIdx];
-                            }
+            double summedSquares = windowSquares - windowSum * shiftedMean;
+            if(summedSquares <= CANCELLATION_THRESHOLD * windowSquares){
+                // the window values vary little compared to their distance to the time series mean: compute explicitly
+                summedSquares = 0;
+                for (int i = from; i < to; i++) {
+                    double deviation = data[i] - means[from];
+                    summedSquares += deviation * deviation;
+                }
+            }
+            l2Norms[from] = Math.sqrt(Math.max(0, summedSquares));
+        }
+    }
 
-                            double covariance = 0;
-                            for (int i = 0; i < metadata.windowSize; i++)
-                                covariance += (windowAData[i] - windowAMean) * (windowBData[i] - windowBMean);
-                            double r = covariance / windowAL2Norm / windowBL2Norm;
+    /** @return the z-normalized windows for the {@link ENGINE#LAG_LOOP} engine, or null if they are not used or exceed the {@link #windowStoreBudget}. */
+    private NormalizedWindowStore createWindowStore(){
+        boolean used = nanTermsA != null || !engineOverridden() && engine == ENGINE.LAG_LOOP && metadata.precision != PRECISION.FLOAT && !pairTiling;
+        return used ? NormalizedWindowStore.create(metadata, meansA, meansB, L2NormsA, L2NormsB, windowStoreBudget) : null;
+    }
 
-                            if (!Double.isNaN(r)) descriptiveStatistics.addValue(r);
+    /** @return the histogram for a new column, or null if histograms are not {@link #requested}. */
+    CorrelationHistogram createHistogram(){
+        return requested[HISTOGRAM] ? new CorrelationHistogram(metadata) : null;
+    }
 
-                        } // for each time series in set B
+    /**
+     * Computes statistics that have not been requested for the computation (see {@link WindowMetadata#requestedStatistics}) for a range of columns.
+     * Reuses the precomputed window terms of the computation if present. The other statistics of the columns remain unchanged.
+     * @param from the index of the first column (inclusive)
+     * @param to the index of the last column (exclusive)
+     * @param statistics the statistics to compute, e.g. {@link #MEDIAN} or {@link #HISTOGRAM}
+     */
+    public void computeStatistics(int from, int to, int... statistics){
+
+        Set<Integer> missing = new TreeSet<>();
+        for(int stat : statistics) missing.add(stat);
+
+        // a matrix that computes only the missing statistics, sharing the precomputed terms with this matrix
+        CorrelationMatrix missingStatistics = new CorrelationMatrix(metadata);
+        missingStatistics.engine = engine;
+        missingStatistics.selfCorrelation = selfCorrelation;
+        missingStatistics.sameValues = sameValues;
+        missingStatistics.windowStatisticsRegistry = windowStatisticsRegistry;
+        missingStatistics.windowStoreBudget = windowStoreBudget;
+        if(meansA == null) precomputeTerms();
+        missingStatistics.meansA = meansA;
+        missingStatistics.meansB = meansB;
+        missingStatistics.L2NormsA = L2NormsA;
+        missingStatistics.L2NormsB = L2NormsB;
+        missingStatistics.nanTermsA = nanTermsA;
+        missingStatistics.nanTermsB = nanTermsB;
+        missingStatistics.initComputation();
+        missingStatistics.requested = requestedFlags(missing);
+        missingStatistics.windowStore = missingStatistics.createWindowStore();
+
+        int blockSize = Math.max(1, (to - from) / (missingStatistics.numThreads * BLOCKS_PER_THREAD));
+        List<CorrelationColumn> computed = COMPUTE_POOL.invoke(new ColumnBlockTask(missingStatistics, from, to, blockSize, null));
+        if(computed == null) return;
+
+        for (int i = 0; i < computed.size(); i++) {
+            CorrelationColumn column = columns.get(from + i), source = computed.get(i);
+            for(int stat : missing){
+                if(stat == HISTOGRAM) column.histogram = source.histogram;
+                else System.arraycopy(source.data[stat], 0, column.data[stat], 0, column.getSize());
+                if(isValidStatistic(stat)) column.extrema[stat][MINIMUM] = column.extrema[stat][MAXIMUM] = null;
+            }
+        }
+        for(int stat : missing) if(isValidStatistic(stat)) extrema[stat][MINIMUM] = extrema[stat][MAXIMUM] = null;
+    }
 
-                    } // for each time series in set A
+    /** The regions of the matrix that have been recomputed at a finer resolution (see {@link #refine(int, int, int, int, int, int)}). */
+    private final List<Refinement> refinements = new CopyOnWriteArrayList<>();
 
-                    // summarize the computed distribution (calculate mean, sd, etc) and store the results in the column data structure
-                    column.computeCell(descriptiveStatistics, lagIdx);
-                    correlationHistogram.setDistribution(lagIdx, descriptiveStatistics.getValues());
-                    lagIdx++;
+    public List<Refinement> getRefinements() { return Collections.unmodifiableList(refinements); }
+    public void clearRefinements() { refinements.clear(); }
 
-                } // for each lag
+    /**
+     * Recomputes a rectangular region of the matrix at a finer resolution and attaches the result to the matrix (see {@link #getRefinements()}).
+     * The refinement uses the same time series, window size and parameters as the matrix, but the given time lag step and base window offset.
+     * Only the columns of the finer matrix whose base windows start within the base windows of the region are computed.
+     * @param fromColumn the first column of the region (inclusive)
+     * @param toColumn the last column of the region (exclusive)
+     * @param minLag the smallest time lag of the region
+     * @param maxLag the largest time lag of the region
+     * @param tauStep the time lag step of the refinement
+     * @param baseWindowOffset the base window offset of the refinement
+     * @return the refinement or null if the region contains no base window of the finer resolution or the computation has been cancelled
+     */
+    public Refinement refine(int fromColumn, int toColumn, int minLag, int maxLag, int tauStep, int baseWindowOffset){
+        Refinement refinement = Refinement.compute(this, fromColumn, toColumn, minLag, maxLag, tauStep, baseWindowOffset);
+        if(refinement != null) refinements.add(refinement);
+        return refinement;
+    }
 
-                partialMatrix.append(column);
+    /**
+     * Extends the matrix after values have been appended to its time series (see {@link TimeSeries#append(double...)}). All time series must have the same new length.
+     * This matrix and its metadata remain unchanged. The result has new metadata with the number of base windows of the new length and shares the columns that are unaffected by the new values.
+     * The window terms are extended to the new windows only (see {@link WindowStatisticsRegistry.WindowStatistics#ensureComputed()}), and only the columns that
+     * refer to a window overlapping the new values are (re)computed: the new columns and the last columns, whose windows were incomplete or whose lag windows
+     * exceeded the time series before. The cost is thus proportional to the number of appended values (plus one window size), not to the length of the time series.
+     * If this matrix hasn't been computed yet, the result is computed from scratch.
+     * @return the matrix for the new length of the time series, or null if the computation has been cancelled
+     */
+    public CorrelationMatrix update(){
+        return IncrementalUpdate.update(this);
+    }
 
-            }
+    /** @return whether {@link #createPartialMatrixComputer(int, int, Consumer)} creates workers of the {@link ENGINE#ROLLING} engine. */
+    private boolean usesRollingEngine(){
+        return nanTermsA == null && !summarizing && metadata.sketchCoefficients == 0 && metadata.samplingTolerance == 0 &&
+                metadata.precision != PRECISION.FLOAT && engine == ENGINE.ROLLING;
+    }
 
-            return partialMatrix;
+    /** @return the worker that computes the given range of columns using the {@link #engine} and precision of this matrix. */
+    PartialMatrixComputer createPartialMatrixComputer(int from, int to, Consumer<Integer> progress){
+        if(nanTermsA != null) return new PartialMatrixComputer(this, from, to, progress);
+        if(summarizing) return new SummaryPartialMatrixComputer(this, from, to, progress);
+        // sketching decides the significance test, windows too short for the test are correlated exactly
+        if(metadata.sketchCoefficients > 0 && significanceTester != null) return new SketchPartialMatrixComputer(this, from, to, progress);
+        if(metadata.samplingTolerance > 0) return new SamplingPartialMatrixComputer(this, from, to, progress);
+        if(metadata.precision == PRECISION.FLOAT) return new FloatPartialMatrixComputer(this, from, to, progress);
+        switch (engine){
+            case FFT:       return new FFTPartialMatrixComputer(this, from, to, progress);
+            case ROLLING:   return new RollingPartialMatrixComputer(this, from, to, progress);
+            case BLOCKED:   return new BlockedPartialMatrixComputer(this, from, to, progress);
+            default:        return new PartialMatrixComputer(this, from, to, progress);
         }
+    }
 
+    /** The confidence level of the intervals of sampled cell statistics (see {@link WindowMetadata#samplingTolerance}). */
+    public static final double SAMPLING_CONFIDENCE = 0.95;
+
+    /** @return the indices 0, 1, ..., n-1 */
+    static int[] range(int n){
+        int[] indices = new int[n];
+        for (int i = 0; i < n; i++) indices[i] = i;
+        return indices;
     }
 
     /**
@@ -386,33 +929,34 @@ public class CorrelationMatrix {
                 long computationStart = System.currentTimeMillis(),  // when the last base window was finished
                      elapsedTime = 0;
 
-                void predictRemainingTime(int finishedBaseWindows){
+                /** Is called by all workers, each time a column is finished. */
+                synchronized void predictRemainingTime(int finishedBaseWindows){
 
                     elapsedTime = System.currentTimeMillis() - computationStart; // this happens once for each base window
 
                     // predict remaining execution time and update progress
                     if(finishedBaseWindows>0){
-                        // the total number of finished windows is estimated to be numThreads times larger than the progress the first worker has made so far.
-                        double percentFinished = (double)numThreads*finishedBaseWindows/totalWork;
+                        double percentFinished = (double)finishedBaseWindows/totalWork;
                         double estimatedTotalTime = elapsedTime/percentFinished;
                         long remainingTime = Math.round(estimatedTotalTime*(1-percentFinished));
                         long minutes = remainingTime / (60 * 1000);
                         long seconds = (remainingTime / 1000) % 60;
-                        updateMessage(String.format("Processing base window %s of %s. %d min %02d sec left.",numThreads*finishedBaseWindows, totalWork, minutes, seconds));
-                        updateProgress(numThreads*finishedBaseWindows, totalWork);
+                        updateMessage(String.format("Processing base window %s of %s. %d min %02d sec left.",finishedBaseWindows, totalWork, minutes, seconds));
+                        updateProgress(finishedBaseWindows, totalWork);
                     }
                 }
 
                 @Override protected CorrelationMatrix call() {
                     initComputation();
                     updateMessage("Precomputing data.");
-                    computeParallel(this::predictRemainingTime);
+                    computeParallel(this::predictRemainingTime, this::updateValue);
 //                    System.out.println("Raw data computation: "+(timeSpent-aggregationTime));
 //                    System.out.println("Aggregation: "+aggregationTime);
                     return CorrelationMatrix.this;
                 }
                 @Override protected void cancelled() {
                     super.cancelled();
+                    CorrelationMatrix.this.cancelled = true;
                     System.out.println("Computation aborted.");
                 }
                 @Override
@@ -441,6 +985,10 @@ public class CorrelationMatrix {
 
         public CorrelationHistogram histogram;
 
+        /** The half-widths of the {@link #SAMPLING_CONFIDENCE} confidence intervals of the statistics, indexed like {@link #data}, if the column has been estimated from a
+         * sample of window pairs (see {@link WindowMetadata#samplingTolerance}). Zero for cells that have been computed exhaustively, NaN where not quantified. Null for exhaustive computations. */
+        public double[][] confidenceHalfWidths;
+
         public final static short histogramResolution = 180; // bins, covering the possible range between -1 and 1
 
         /** Contains the minimal/maximal value of the given statistic along this column.
@@ -516,6 +1064,94 @@ public class CorrelationMatrix {
 
         }
 
+        /**
+         * Summarizes the correlation values of a cell and sets its statistics and histogram. Gives the same results as {@link #computeCell(DescriptiveStatistics, int)}
+         * followed by {@link CorrelationHistogram#setDistribution(int, double[])} without copying or sorting the values.
+         * In histogram mode, median and interquartile range are approximated (see {@link WindowMetadata#histogramBins}).
+         * @param summarizer the correlation values (excluding NaNs). Their order is changed.
+         * @param lagIdx the offset of the cell in the column (0 corresponds to the minimum time lag)
+         */
+        public void computeCell(CellSummarizer summarizer, int lagIdx) {
+
+            boolean percentiles = requested[MEDIAN] || requested[IQR],
+                    significance = requested[POSITIVE_SIGNIFICANT] || requested[NEGATIVE_SIGNIFICANT] || requested[ABSOLUTE_SIGNIFICANT];
+
+            summarizer.summarize(percentiles, histogram != null);
+            data[MEAN][lagIdx] = requested[MEAN] ? summarizer.getMean() : Double.NaN;
+            data[STD_DEV][lagIdx] = requested[STD_DEV] ? Math.sqrt(summarizer.getPopulationVariance()) : Double.NaN;
+            data[MEDIAN][lagIdx] = requested[MEDIAN] ? summarizer.getMedian() : Double.NaN;
+            data[IQR][lagIdx] = requested[IQR] ? summarizer.getThirdQuartile() - summarizer.getFirstQuartile() : Double.NaN;
+
+            // if the window size is too small (less than three) significance can't be tested using the t-distribution.
+            if(significanceTester == null || !significance){
+                data[POSITIVE_SIGNIFICANT][lagIdx] = Double.NaN;
+                data[NEGATIVE_SIGNIFICANT][lagIdx] = Double.NaN;
+                data[ABSOLUTE_SIGNIFICANT][lagIdx] = Double.NaN;
+            } else if(summarizer.hasSignificanceCounts()){
+                // the values have been tested while adding them
+                data[POSITIVE_SIGNIFICANT][lagIdx] = (double) summarizer.getPositiveSignificantCount() / summarizer.getN();
+                data[NEGATIVE_SIGNIFICANT][lagIdx] = (double) summarizer.getNegativeSignificantCount() / summarizer.getN();
+                data[ABSOLUTE_SIGNIFICANT][lagIdx] = data[POSITIVE_SIGNIFICANT][lagIdx] + data[NEGATIVE_SIGNIFICANT][lagIdx];
+            } else {
+                final double[] correlationValues = summarizer.getValues();
+                int numValues = summarizer.getN(), posSigCount = 0, negSigCount = 0;
+                for (int i = 0; i < numValues; i++) {
+                    double r = correlationValues[i];
+                    if(significanceTester.significanceTest(r)){
+                        if(r > 0) posSigCount++;
+                        else negSigCount++;
+                    }
+                }
+                data[POSITIVE_SIGNIFICANT][lagIdx] = (double) posSigCount / numValues;
+                data[NEGATIVE_SIGNIFICANT][lagIdx] = (double) negSigCount / numValues;
+                data[ABSOLUTE_SIGNIFICANT][lagIdx] = data[POSITIVE_SIGNIFICANT][lagIdx] + data[NEGATIVE_SIGNIFICANT][lagIdx];
+            }
+
+            if(significance) clearUnrequestedSignificance(lagIdx);
+            if(histogram != null) histogram.setHistogram(lagIdx, summarizer.getHistogram());
+
+        }
+
+        /** Sets the significance statistics that have not been requested to NaN. */
+        private void clearUnrequestedSignificance(int lagIdx){
+            for(int stat : new int[]{POSITIVE_SIGNIFICANT, NEGATIVE_SIGNIFICANT, ABSOLUTE_SIGNIFICANT})
+                if(!requested[stat]) data[stat][lagIdx] = Double.NaN;
+        }
+
+        /**
+         * Sets the statistics and the histogram for the cell corresponding to a certain time lag index from a (merged) cell summary.
+         * Mean, standard deviation, significance fractions and histogram are the same as for {@link #computeCell(DescriptiveStatistics, int)},
+         * median and interquartile range are approximations (see {@link CellSummary#getPercentile(double)}).
+         * @param summary the summary of the correlation values (excluding NaNs)
+         * @param lagIdx the offset of the cell in the column (0 corresponds to the minimum time lag)
+         */
+        public void computeCell(CellSummary summary, int lagIdx) {
+
+            boolean significance = requested[POSITIVE_SIGNIFICANT] || requested[NEGATIVE_SIGNIFICANT] || requested[ABSOLUTE_SIGNIFICANT];
+
+            data[MEAN][lagIdx] = requested[MEAN] ? summary.getMean() : Double.NaN;
+            data[STD_DEV][lagIdx] = requested[STD_DEV] ? summary.getPopulationStandardDeviation() : Double.NaN;
+            data[MEDIAN][lagIdx] = requested[MEDIAN] ? summary.getPercentile(50) : Double.NaN;
+            data[IQR][lagIdx] = requested[IQR] ? summary.getPercentile(75) - summary.getPercentile(25) : Double.NaN;
+
+            if(significanceTester == null || !significance){
+                data[POSITIVE_SIGNIFICANT][lagIdx] = Double.NaN;
+                data[NEGATIVE_SIGNIFICANT][lagIdx] = Double.NaN;
+                data[ABSOLUTE_SIGNIFICANT][lagIdx] = Double.NaN;
+            } else {
+                data[POSITIVE_SIGNIFICANT][lagIdx] = (double) summary.getPositiveSignificantCount() / summary.getN();
+                data[NEGATIVE_SIGNIFICANT][lagIdx] = (double) summary.getNegativeSignificantCount() / summary.getN();
+                data[ABSOLUTE_SIGNIFICANT][lagIdx] = data[POSITIVE_SIGNIFICANT][lagIdx] + data[NEGATIVE_SIGNIFICANT][lagIdx];
+            }
+
+            if(significance) clearUnrequestedSignificance(lagIdx);
+            if(histogram != null) histogram.setHistogram(lagIdx, summary.getHistogram());
+
+        }
+
+        /** The summaries of the correlation values of the cells, if they are kept (see {@link #cellSummaryBudget}). Null otherwise. */
+        public CellSummary[] cellSummaries;
+
         /** @return the number of cells (different time lags) in this column. */
         public int getSize() {
             return data[MEAN].length;
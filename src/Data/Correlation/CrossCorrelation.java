@@ -346,6 +346,8 @@ public class CrossCorrelation {
     public static enum NA_ACTION{
         //        NA_FAIL,
         REPLACE_WITH_ZERO,
-        LEAVE_UNCHANGED
+        LEAVE_UNCHANGED,
+        /** Correlate each window pair over the positions where neither window has a missing value (see {@link PairwiseCompleteCorrelation}). */
+        PAIRWISE_COMPLETE
     }
 }
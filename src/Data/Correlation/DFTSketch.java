@@ -0,0 +1,142 @@
+package Data.Correlation;
+
+/**
+ * Approximates the pearson correlation of two windows from the first few coefficients of their discrete Fourier transforms.
+ *
+ * The correlation of two windows is the dot product of their z-normalized versions (mean zero, unit L2 norm). By Parseval's theorem, the dot product equals
+ * the (scaled) dot product of the DFT coefficients. Since the windows are real, coefficient w-k is the complex conjugate of coefficient k,
+ * and since they have mean zero, coefficient 0 vanishes. Keeping only the coefficients 1..K (scaled by sqrt(2/w)) gives the sketch of a window,
+ * and the dot product of two sketches approximates the correlation. For smooth (autocorrelated) time series, most of the energy is in the low frequencies
+ * and the approximation is close.
+ *
+ * The energy E of a sketch is the fraction of the window's (unit) energy captured by the kept coefficients. By the Cauchy–Schwarz inequality,
+ * the correlation deviates from the sketch approximation by at most sqrt(1 - E<sub>a</sub>) · sqrt(1 - E<sub>b</sub>) (see {@link #errorBound(double, double)}).
+ *
+ * The sketches of consecutive windows are updated in O(K) by the sliding DFT: X<sub>k</sub>(s+1) = e<sup>2πik/w</sup> (X<sub>k</sub>(s) - x<sub>s</sub> + x<sub>s+w</sub>).
+ * To limit the accumulation of rounding errors, the coefficients are computed from scratch every {@link #RECOMPUTE_INTERVAL} windows.
+ * @author Carl Witt
+ */
+public class DFTSketch {
+
+    /** The number of sliding updates after which the coefficients are computed from scratch. */
+    static final int RECOMPUTE_INTERVAL = 64;
+
+    final int windowSize, numCoefficients;
+
+    /** cos(2π·j·k/w) and sin(2π·j·k/w) at index j·K + k-1, for the direct computation. */
+    private final double[] cosTable, sinTable;
+    /** The rotation e<sup>2πik/w</sup> of the sliding update, at index k-1. */
+    private final double[] rotationCos, rotationSin;
+
+    /** The unscaled coefficients of the current window (shifted values, see {@link #compute(double[], double[], double[], int, int, double[], double[])}). */
+    private final double[] re, im;
+
+    /**
+     * @param windowSize the number of values per window
+     * @param numCoefficients the number of coefficients K to keep, at most {@link #maxCoefficients(int)}
+     */
+    public DFTSketch(int windowSize, int numCoefficients) {
+        assert numCoefficients > 0 && numCoefficients <= maxCoefficients(windowSize) : String.format("Invalid number of coefficients %s for window size %s.", numCoefficients, windowSize);
+        this.windowSize = windowSize;
+        this.numCoefficients = numCoefficients;
+        cosTable = new double[windowSize * numCoefficients];
+        sinTable = new double[windowSize * numCoefficients];
+        for (int j = 0; j < windowSize; j++) {
+            for (int k = 1; k <= numCoefficients; k++) {
+                double angle = 2 * Math.PI * ((long) j * k % windowSize) / windowSize;
+                cosTable[j * numCoefficients + k - 1] = Math.cos(angle);
+                sinTable[j * numCoefficients + k - 1] = Math.sin(angle);
+            }
+        }
+        rotationCos = new double[numCoefficients];
+        rotationSin = new double[numCoefficients];
+        for (int k = 1; k <= numCoefficients; k++) {
+            rotationCos[k - 1] = Math.cos(2 * Math.PI * k / windowSize);
+            rotationSin[k - 1] = Math.sin(2 * Math.PI * k / windowSize);
+        }
+        re = new double[numCoefficients];
+        im = new double[numCoefficients];
+    }
+
+    /** @return the maximum number of coefficients for the given window size. Coefficients beyond (w-1)/2 are the conjugates of the kept ones. */
+    public static int maxCoefficients(int windowSize){
+        return (windowSize - 1) / 2;
+    }
+
+    /**
+     * Computes the sketches of the windows starting at from, from + 1, ..., to - 1.
+     * @param data the time series values
+     * @param means the window means of the time series (see {@link CorrelationMatrix#precomputeWindowTerms(double[], int, double[], double[])})
+     * @param l2Norms the L2 norms of the mean-shifted windows of the time series
+     * @param sketches receives the sketch of window s at offset (s - from)·2K as K pairs of real and imaginary part. NaN for incomplete or constant windows.
+     * @param energies receives the energy of the sketch of window s at offset s - from. NaN for incomplete or constant windows.
+     */
+    public void compute(double[] data, double[] means, double[] l2Norms, int from, int to, double[] sketches, double[] energies){
+
+        final int lastValidWindowStartIdx = data.length - windowSize;
+        final double scale = Math.sqrt(2. / windowSize);
+        boolean current = false;    // whether re and im hold the coefficients of the window starting at s
+        double shift = 0;
+        int updates = 0;
+
+        for (int s = from; s < to; s++) {
+
+            int offset = (s - from) * 2 * numCoefficients;
+            boolean valid = s >= 0 && s <= lastValidWindowStartIdx && !Double.isNaN(means[s]) && l2Norms[s] > 0;
+            if(!valid){
+                for (int i = 0; i < 2 * numCoefficients; i++) sketches[offset + i] = Double.NaN;
+                energies[s - from] = Double.NaN;
+                current = false;
+                continue;
+            }
+
+            if(!current || updates >= RECOMPUTE_INTERVAL){
+                // direct computation from the values shifted by the window mean (a constant shift affects only coefficient 0)
+                shift = means[s];
+                for (int k = 0; k < numCoefficients; k++) re[k] = im[k] = 0;
+                for (int j = 0; j < windowSize; j++) {
+                    double value = data[s + j] - shift;
+                    for (int k = 0; k < numCoefficients; k++) {
+                        re[k] += value * cosTable[j * numCoefficients + k];
+                        im[k] -= value * sinTable[j * numCoefficients + k];
+                    }
+                }
+                updates = 0;
+            }
+
+            double factor = scale / l2Norms[s], energy = 0;
+            for (int k = 0; k < numCoefficients; k++) {
+                double x = re[k] * factor, y = im[k] * factor;
+                sketches[offset + 2 * k] = x;
+                sketches[offset + 2 * k + 1] = y;
+                energy += x * x + y * y;
+            }
+            energies[s - from] = energy;
+
+            // slide to the next window
+            current = s + 1 <= lastValidWindowStartIdx && !Double.isNaN(data[s]) && !Double.isNaN(data[s + windowSize]);
+            if(current){
+                double delta = data[s + windowSize] - data[s];
+                for (int k = 0; k < numCoefficients; k++) {
+                    double x = re[k] + delta, y = im[k];
+                    re[k] = x * rotationCos[k] - y * rotationSin[k];
+                    im[k] = x * rotationSin[k] + y * rotationCos[k];
+                }
+                updates++;
+            }
+        }
+    }
+
+    /** @return the approximate correlation of two windows from their sketches, clamped to [-1, 1]. */
+    public static double approximateCorrelation(double[] sketchesA, int offsetA, double[] sketchesB, int offsetB, int numCoefficients){
+        double r = 0;
+        for (int i = 0; i < 2 * numCoefficients; i++) r += sketchesA[offsetA + i] * sketchesB[offsetB + i];
+        return Math.max(-1, Math.min(1, r));
+    }
+
+    /** @return the maximum absolute deviation of the correlation from its sketch approximation, given the energies of both sketches. */
+    public static double errorBound(double energyA, double energyB){
+        return Math.sqrt(Math.max(0, 1 - energyA)) * Math.sqrt(Math.max(0, 1 - energyB));
+    }
+
+}
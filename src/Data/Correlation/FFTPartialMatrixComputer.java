@@ -0,0 +1,192 @@
+package Data.Correlation;
+
+import Data.ComplexSequence;
+import Data.Statistics.CorrelationHistogram;
+import Data.TimeSeries;
+import Data.Windowing.WindowMetadata;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Computes one horizontal slice of the correlation matrix like the {@link PartialMatrixComputer} but obtains the covariances
+ * of a window pair for all time lags at once, from a single FFT based cross-correlation.
+ *
+ * For time lags &ge; 0, the window of time series A is fixed at the base window and the windows of time series B
+ * start at s<sub>b</sub> - tau. All of them lie within the segment B[s<sub>b</sub> - tau<sub>max</sub> .. s<sub>b</sub> + |w| - 1],
+ * so the covariances are the entries of the cross-correlation between the (mean-shifted) base window and that segment.
+ * Negative time lags are handled symmetrically (fixed window in B, segment in A).
+ * The spectra of the fixed windows and the segments are computed once per time series and column and reused for all window pairs,
+ * such that each window pair costs a point wise product and one inverse FFT of length ~ |w| + |tau| instead of one dot product of length |w| per time lag.
+ *
+ * Since the fixed window is mean-shifted before the transform, the cross-correlation yields the covariance directly (no cancellation
+ * of large means). The remaining rounding error of the transform is in the order of log(n) ulps of the window norms, so the correlation values
+ * deviate from {@link CrossCorrelation#naiveCrossCorrelation(WindowMetadata)} by less than {@link CorrelationMatrix#FFT_TOLERANCE}.
+ * @author Carl Witt
+ */
+class FFTPartialMatrixComputer extends PartialMatrixComputer {
+
+    /** The largest non-negative time lag, or -1 if there are no non-negative time lags. */
+    final int maxPositiveLag;
+    /** The smallest negative time lag, or 0 if there are no negative time lags. */
+    final int minNegativeLag;
+
+    /** Transform lengths for the non-negative and negative time lag parts. */
+    final int positiveLength, negativeLength;
+
+    /** Spectra of the fixed (mean-shifted) windows and the segments. First dimension refers to the time series index within the set. */
+    final ComplexSequence[] fixedA, segmentsB, fixedB, segmentsA;
+    /** Working memory for the product of two spectra and its inverse transform. */
+    final ComplexSequence positiveProduct, negativeProduct;
+
+    FFTPartialMatrixComputer(CorrelationMatrix matrix, int from, int to, Consumer<Integer> progress) {
+        super(matrix, from, to, progress);
+
+        int maxPositive = -1, minNegative = 0;
+        for(int lag : metadata.getDifferentTimeLags()){
+            if(lag >= 0) maxPositive = Math.max(maxPositive, lag);
+            else minNegative = Math.min(minNegative, lag);
+        }
+        maxPositiveLag = maxPositive;
+        minNegativeLag = minNegative;
+
+        positiveLength = maxPositiveLag >= 0 ? ComplexSequence.nextPowerOfTwo(metadata.windowSize + maxPositiveLag) : 0;
+        negativeLength = minNegativeLag <  0 ? ComplexSequence.nextPowerOfTwo(metadata.windowSize - minNegativeLag) : 0;
+
+        fixedA = allocate(metadata.setA.size(), positiveLength);
+        segmentsB = allocate(metadata.setB.size(), positiveLength);
+        fixedB = allocate(metadata.setB.size(), negativeLength);
+        segmentsA = allocate(metadata.setA.size(), negativeLength);
+        positiveProduct = ComplexSequence.create(new double[positiveLength], new double[positiveLength]);
+        negativeProduct = ComplexSequence.create(new double[negativeLength], new double[negativeLength]);
+    }
+
+    private ComplexSequence[] allocate(int count, int length){
+        ComplexSequence[] result = new ComplexSequence[count];
+        for (int i = 0; i < count; i++) result[i] = ComplexSequence.create(new double[length], new double[length]);
+        return result;
+    }
+
+    @Override CorrelationMatrix.CorrelationColumn computeColumn(int baseWindowIdx) {
+
+        final int columnSize = metadata.getNumberOfDifferentTimeLags();
+        final int[] lags = metadata.getDifferentTimeLags();
+        final int numPairs = metadata.setA.size() * metadata.setB.size();
+        final int lastValidWindowStartIdx = metadata.setA.get(0).getSize() - metadata.windowSize;
+
+        int baseWindowStartIdx = metadata.baseWindowOffset * baseWindowIdx;
+
+        CorrelationHistogram correlationHistogram = matrix.createHistogram();
+        CorrelationMatrix.CorrelationColumn column = matrix.new CorrelationColumnBuilder(baseWindowStartIdx, metadata.tauMin).allEmpty(columnSize).histogram(correlationHistogram).build();
+
+        // the base window itself needs to be complete, otherwise all cells in the column are empty
+        boolean baseWindowValid = baseWindowStartIdx <= lastValidWindowStartIdx;
+
+        if(baseWindowValid){
+            if(maxPositiveLag >= 0){
+                for (int i = 0; i < fixedA.length; i++)
+                    fixedWindowSpectrum(fixedA[i], metadata.setA.get(i), baseWindowStartIdx, matrix.meansA[i][baseWindowStartIdx]);
+                for (int i = 0; i < segmentsB.length; i++)
+                    segmentSpectrum(segmentsB[i], metadata.setB.get(i), baseWindowStartIdx - maxPositiveLag, metadata.windowSize + maxPositiveLag);
+            }
+            if(minNegativeLag < 0){
+                for (int i = 0; i < fixedB.length; i++)
+                    fixedWindowSpectrum(fixedB[i], metadata.setB.get(i), baseWindowStartIdx, matrix.meansB[i][baseWindowStartIdx]);
+                for (int i = 0; i < segmentsA.length; i++)
+                    segmentSpectrum(segmentsA[i], metadata.setA.get(i), baseWindowStartIdx + minNegativeLag, metadata.windowSize - minNegativeLag);
+            }
+        }
+
+        // the correlation values of a strip of cells. the number of lags per strip limits the memory consumption
+        int lagsPerStrip = (int) Math.max(1, Math.min(columnSize, CorrelationMatrix.MAX_FFT_BUFFER_SIZE / Math.max(1, numPairs)));
+        double[][] values = new double[lagsPerStrip][numPairs];
+
+        for (int stripStart = 0; stripStart < columnSize; stripStart += lagsPerStrip) {
+
+            int stripEnd = Math.min(columnSize, stripStart + lagsPerStrip);
+            boolean stripHasPositiveLags = lags[stripEnd-1] >= 0,
+                    stripHasNegativeLags = lags[stripStart] < 0;
+
+            for(double[] cellValues : values) Arrays.fill(cellValues, Double.NaN);
+
+            if(baseWindowValid){
+                int pairIdx = 0;
+                for (int tsAIdx = 0; tsAIdx < metadata.setA.size(); tsAIdx++) {
+
+                    if(matrix.isCancelled())
+                        return null;
+
+                    for (int tsBIdx = 0; tsBIdx < metadata.setB.size(); tsBIdx++, pairIdx++) {
+
+                        if(stripHasPositiveLags) crossCorrelate(fixedA[tsAIdx], segmentsB[tsBIdx], positiveProduct);
+                        if(stripHasNegativeLags) crossCorrelate(fixedB[tsBIdx], segmentsA[tsAIdx], negativeProduct);
+
+                        for (int lagIdx = stripStart; lagIdx < stripEnd; lagIdx++) {
+                            int lag = lags[lagIdx];
+                            double covariance, normA, normB;
+                            if(lag >= 0){
+                                int windowBStartIdx = baseWindowStartIdx - lag;
+                                if(windowBStartIdx < 0) continue;
+                                covariance = positiveProduct.re[maxPositiveLag - lag];
+                                normA = matrix.L2NormsA[tsAIdx][baseWindowStartIdx];
+                                normB = matrix.L2NormsB[tsBIdx][windowBStartIdx];
+                            } else {
+                                int windowAStartIdx = baseWindowStartIdx + lag;
+                                if(windowAStartIdx < 0) continue;
+                                covariance = negativeProduct.re[lag - minNegativeLag];
+                                normA = matrix.L2NormsA[tsAIdx][windowAStartIdx];
+                                normB = matrix.L2NormsB[tsBIdx][baseWindowStartIdx];
+                            }
+                            values[lagIdx - stripStart][pairIdx] = covariance / normA / normB;
+                        }
+                    } // for each time series in set B
+                } // for each time series in set A
+            }
+
+            // summarize the distributions of the cells in the strip
+            for (int lagIdx = stripStart; lagIdx < stripEnd; lagIdx++) {
+                summarizer.clear();
+                for(double r : values[lagIdx - stripStart]) if(!Double.isNaN(r)) summarizer.addValue(r);
+                column.computeCell(summarizer, lagIdx);
+            }
+
+        } // for each strip
+
+        return column;
+    }
+
+    /** Computes the spectrum of the mean-shifted window of the given time series, zero padded to the length of the target. */
+    private void fixedWindowSpectrum(ComplexSequence target, TimeSeries ts, int windowStartIdx, double mean){
+        double[] data = ts.getDataItems().im;
+        Arrays.fill(target.re, 0);
+        Arrays.fill(target.im, 0);
+        for (int i = 0; i < metadata.windowSize; i++) target.re[i] = data[windowStartIdx + i] - mean;
+        target.fft();
+    }
+
+    /**
+     * Computes the spectrum of a segment of the given time series, zero padded to the length of the target.
+     * The segment is shifted by its mean to reduce the magnitude of the summands (this doesn't change the covariances because the fixed window is mean-free).
+     * Values outside the time series are set to zero, they contribute only to time lags for which one of the windows is incomplete.
+     */
+    private void segmentSpectrum(ComplexSequence target, TimeSeries ts, int segmentStartIdx, int segmentLength){
+        double[] data = ts.getDataItems().im;
+        Arrays.fill(target.re, 0);
+        Arrays.fill(target.im, 0);
+        int firstIdx = Math.max(0, segmentStartIdx),
+            lastIdx  = Math.min(data.length, segmentStartIdx + segmentLength) - 1;
+        double mean = 0;
+        for (int i = firstIdx; i <= lastIdx; i++) mean += data[i];
+        mean /= Math.max(1, lastIdx - firstIdx + 1);
+        for (int i = firstIdx; i <= lastIdx; i++) target.re[i - segmentStartIdx] = data[i] - mean;
+        target.fft();
+    }
+
+    /** Computes the cross-correlation sum_i x[i] * y[i+k] for all k from the spectra of x and y. */
+    private void crossCorrelate(ComplexSequence spectrumX, ComplexSequence spectrumY, ComplexSequence result){
+        System.arraycopy(spectrumX.re, 0, result.re, 0, result.re.length);
+        System.arraycopy(spectrumX.im, 0, result.im, 0, result.im.length);
+        result.conjugate().pointWiseProduct(spectrumY).inverseFFT();
+    }
+
+}
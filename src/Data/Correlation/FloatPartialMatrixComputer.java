@@ -0,0 +1,170 @@
+package Data.Correlation;
+
+import Data.Statistics.CorrelationHistogram;
+import Data.Windowing.WindowMetadata;
+
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Computes one horizontal slice of the correlation matrix like the {@link PartialMatrixComputer} but in single precision (see {@link CorrelationMatrix.PRECISION#FLOAT}).
+ * Before each column, the values that the windows of the column cover are converted to single precision (see {@link #setSpan(int)}).
+ * The products are summed up in single precision blocks of {@link #BLOCK_SIZE} values. The block sums are accumulated in double precision
+ * to keep the rounding error independent of the window size. Means and L2 norms are the (double precision) precomputed terms.
+ * @author Carl Witt
+ */
+class FloatPartialMatrixComputer extends PartialMatrixComputer {
+
+    /** The number of products that are summed up in single precision before adding them to the double precision covariance. */
+    static final int BLOCK_SIZE = 64;
+    /** How many correlation values are recomputed in double precision to measure the deviation of a {@link CorrelationMatrix.PRECISION#FLOAT} computation. */
+    static final int DEVIATION_SAMPLES = 1000;
+
+    /** The smallest and the largest time lag of the matrix. */
+    private final int minLag, maxLag;
+    /** The single precision values of the current span of each time series, shifted by {@link #shiftsA} and {@link #shiftsB}.
+     * Reused for all columns, such that the memory depends on the window size and the lag range, but not on the time series length. */
+    private final float[][] spanA, spanB;
+    private final double[] shiftsA, shiftsB;
+    /** The index of the first value of the current span and the number of values in the current span, for set A and set B. */
+    private int spanAFrom, spanALength, spanBFrom, spanBLength;
+
+    FloatPartialMatrixComputer(CorrelationMatrix matrix, int from, int to, Consumer<Integer> progress) {
+        this(matrix, from, to, progress, matrix.metadata.setA.size(), matrix.metadata.setB.size());
+    }
+
+    /** @param sizeA the number of time series from set A whose spans are held at once (analogously for sizeB) */
+    FloatPartialMatrixComputer(CorrelationMatrix matrix, int from, int to, Consumer<Integer> progress, int sizeA, int sizeB) {
+        super(matrix, from, to, progress);
+        int[] lags = metadata.getDifferentTimeLags();
+        minLag = lags[0];
+        maxLag = lags[lags.length - 1];
+        spanA = new float[sizeA][metadata.windowSize + Math.max(0, -minLag)];
+        spanB = new float[sizeB][metadata.windowSize + Math.max(0, maxLag)];
+        shiftsA = new double[sizeA];
+        shiftsB = new double[sizeB];
+    }
+
+    /** Sets the span to the values covered by the windows of the column at the given base window start index.
+     * Windows of set A start at most |min lag| values earlier, windows of set B at most max lag values earlier, and all windows end with the base window. */
+    void setSpan(int baseWindowStartIdx){
+        int end = Math.min(baseWindowStartIdx + metadata.windowSize, metadata.setA.get(0).getSize());
+        spanAFrom = Math.max(0, baseWindowStartIdx + Math.min(0, minLag));
+        spanBFrom = Math.max(0, baseWindowStartIdx - Math.max(0, maxLag));
+        spanALength = Math.max(0, end - spanAFrom);
+        spanBLength = Math.max(0, end - spanBFrom);
+    }
+
+    /** Converts the values of the current span of a time series of set A (if not null) and of set B (if not null) to single precision. */
+    void loadSpan(double[] a, double[] b, int spanAIdx, int spanBIdx){
+        if(a != null) shiftsA[spanAIdx] = toFloat(a, spanAFrom, spanALength, spanA[spanAIdx]);
+        if(b != null) shiftsB[spanBIdx] = toFloat(b, spanBFrom, spanBLength, spanB[spanBIdx]);
+    }
+
+    @Override CorrelationMatrix.CorrelationColumn computeColumn(int baseWindowIdx) {
+
+        final int columnSize = metadata.getNumberOfDifferentTimeLags();
+        final int lastValidWindowStartIdx = metadata.setA.get(0).getSize() - metadata.windowSize;
+        final int[] lags = metadata.getDifferentTimeLags();
+
+        int baseWindowStartIdx = metadata.baseWindowOffset * baseWindowIdx;
+
+        CorrelationHistogram correlationHistogram = matrix.createHistogram();
+        CorrelationMatrix.CorrelationColumn column = matrix.new CorrelationColumnBuilder(baseWindowStartIdx, metadata.tauMin).allEmpty(columnSize).histogram(correlationHistogram).build();
+
+        setSpan(baseWindowStartIdx);
+        for (int tsAIdx = 0; tsAIdx < metadata.setA.size(); tsAIdx++) loadSpan(metadata.setA.get(tsAIdx).getDataItems().im, null, tsAIdx, 0);
+        for (int tsBIdx = 0; tsBIdx < metadata.setB.size(); tsBIdx++) loadSpan(null, metadata.setB.get(tsBIdx).getDataItems().im, 0, tsBIdx);
+
+        for (int lagIdx = 0; lagIdx < columnSize; lagIdx++) {
+
+            if(matrix.isCancelled())
+                return null;
+
+            summarizer.clear();
+
+            int lag = lags[lagIdx];
+            int windowAStartIdx = lag >= 0 ? baseWindowStartIdx : baseWindowStartIdx + lag,
+                windowBStartIdx = lag >= 0 ? baseWindowStartIdx - lag : baseWindowStartIdx;
+
+            if(windowAStartIdx >= 0 && windowBStartIdx >= 0 && windowAStartIdx <= lastValidWindowStartIdx && windowBStartIdx <= lastValidWindowStartIdx){
+                for (int tsAIdx = 0; tsAIdx < metadata.setA.size(); tsAIdx++) {
+                    for (int tsBIdx = 0; tsBIdx < metadata.setB.size(); tsBIdx++) {
+                        double r = covariance(tsAIdx, tsBIdx, windowAStartIdx, windowBStartIdx, matrix.meansA[tsAIdx][windowAStartIdx], matrix.meansB[tsBIdx][windowBStartIdx]) /
+                                matrix.L2NormsA[tsAIdx][windowAStartIdx] / matrix.L2NormsB[tsBIdx][windowBStartIdx];
+                        if (!Double.isNaN(r)) summarizer.addValue(r);
+                    }
+                }
+            }
+
+            column.computeCell(summarizer, lagIdx);
+
+        } // for each lag
+
+        return column;
+    }
+
+    /** @return the covariance (not divided by the L2 norms) of two complete windows within the current spans, computed in single precision. */
+    double covariance(int spanAIdx, int spanBIdx, int windowAStartIdx, int windowBStartIdx, double windowAMean, double windowBMean){
+        float[] a = spanA[spanAIdx], b = spanB[spanBIdx];
+        int aFrom = windowAStartIdx - spanAFrom, bFrom = windowBStartIdx - spanBFrom;
+        float meanA = (float) (windowAMean - shiftsA[spanAIdx]),
+              meanB = (float) (windowBMean - shiftsB[spanBIdx]);
+        double covariance = 0;
+        for (int blockStart = 0; blockStart < metadata.windowSize; blockStart += BLOCK_SIZE) {
+            int blockEnd = Math.min(metadata.windowSize, blockStart + BLOCK_SIZE);
+            float blockSum = 0;
+            for (int i = blockStart; i < blockEnd; i++)
+                blockSum += (a[aFrom + i] - meanA) * (b[bFrom + i] - meanB);
+            covariance += blockSum;
+        }
+        return covariance;
+    }
+
+    /** Converts data[from, from + length) to single precision, shifted by the mean of these values (ignoring NaN values) to keep their magnitude small.
+     * @return the shift */
+    static double toFloat(double[] data, int from, int length, float[] target){
+        double sum = 0;
+        int numValues = 0;
+        for (int i = from; i < from + length; i++) if(!Double.isNaN(data[i])){ sum += data[i]; numValues++; }
+        double shift = numValues > 0 ? sum / numValues : 0;
+        for (int i = 0; i < length; i++) target[i] = (float) (data[from + i] - shift);
+        return shift;
+    }
+
+    /**
+     * Recomputes the correlation values of a pseudo random sample of window pairs of the given matrix in double precision and compares them to the single precision result.
+     * @return the maximum absolute difference between single and double precision correlation values within the sample.
+     */
+    static double measureFloatDeviation(CorrelationMatrix matrix){
+        WindowMetadata metadata = matrix.metadata;
+        int lastValidWindowStartIdx = metadata.setA.get(0).getSize() - metadata.windowSize;
+        int[] lags = metadata.getDifferentTimeLags();
+        // converts only the time series of the sampled pair
+        FloatPartialMatrixComputer floatComputer = new FloatPartialMatrixComputer(matrix, 0, 0, null, 1, 1);
+        Random random = new Random(0);
+        double maxDeviation = 0;
+        for (int i = 0; i < DEVIATION_SAMPLES; i++) {
+            int baseWindowStartIdx = random.nextInt(metadata.numBaseWindows) * metadata.baseWindowOffset,
+                lag = lags[random.nextInt(lags.length)],
+                tsAIdx = random.nextInt(metadata.setA.size()),
+                tsBIdx = random.nextInt(metadata.setB.size());
+            int windowAStartIdx = lag >= 0 ? baseWindowStartIdx : baseWindowStartIdx + lag,
+                windowBStartIdx = lag >= 0 ? baseWindowStartIdx - lag : baseWindowStartIdx;
+            if(windowAStartIdx < 0 || windowBStartIdx < 0 || windowAStartIdx > lastValidWindowStartIdx || windowBStartIdx > lastValidWindowStartIdx) continue;
+
+            double[] a = metadata.setA.get(tsAIdx).getDataItems().im, b = metadata.setB.get(tsBIdx).getDataItems().im;
+            double covariance = 0;
+            for (int j = 0; j < metadata.windowSize; j++)
+                covariance += (a[windowAStartIdx+j] - matrix.meansA[tsAIdx][windowAStartIdx]) * (b[windowBStartIdx+j] - matrix.meansB[tsBIdx][windowBStartIdx]);
+            double expected = covariance / matrix.L2NormsA[tsAIdx][windowAStartIdx] / matrix.L2NormsB[tsBIdx][windowBStartIdx];
+            floatComputer.setSpan(baseWindowStartIdx);
+            floatComputer.loadSpan(a, b, 0, 0);
+            double deviation = Math.abs(expected - floatComputer.covariance(0, 0, windowAStartIdx, windowBStartIdx, matrix.meansA[tsAIdx][windowAStartIdx], matrix.meansB[tsBIdx][windowBStartIdx]) /
+                    matrix.L2NormsA[tsAIdx][windowAStartIdx] / matrix.L2NormsB[tsBIdx][windowBStartIdx]);
+            if(!Double.isNaN(deviation)) maxDeviation = Math.max(maxDeviation, deviation);
+        }
+        return maxDeviation;
+    }
+
+}
@@ -0,0 +1,56 @@
+package Data.Correlation;
+
+import Data.TimeSeries;
+import Data.Windowing.WindowMetadata;
+
+import java.util.List;
+
+/**
+ * Extends a correlation matrix after values have been appended to its time series (see {@link CorrelationMatrix#update()}).
+ * Only the columns that refer to a window overlapping the new values are (re)computed, the other columns are shared with the previous matrix.
+ * @author Carl Witt
+ */
+class IncrementalUpdate {
+
+    /**
+     * @param matrix the matrix computed for the previous length of the time series, remains unchanged. All time series must have the same new length (see {@link TimeSeries#append(double...)}).
+     * @return the matrix for the new length of the time series, or null if the computation has been cancelled
+     */
+    static CorrelationMatrix update(CorrelationMatrix matrix){
+
+        WindowMetadata metadata = matrix.metadata;
+        WindowMetadata grown = new WindowMetadata.Builder(metadata.tauMin, metadata.tauMax, metadata.windowSize, metadata.tauStep, metadata.baseWindowOffset)
+                .tsA(metadata.setA).tsB(metadata.setB).parameters(metadata).build();
+
+        CorrelationMatrix updated = new CorrelationMatrix(grown);
+        updated.engine = matrix.engine;
+        // the appended values may differ between the two sets
+        updated.setSelfCorrelation(matrix.selfCorrelation);
+        updated.windowStatisticsRegistry = matrix.windowStatisticsRegistry;
+        updated.windowStoreBudget = matrix.windowStoreBudget;
+        updated.cellSummaryBudget = matrix.cellSummaryBudget;
+
+        List<CorrelationMatrix.CorrelationColumn> columns = matrix.columns;
+        if(matrix.termsRegistry == null || columns.isEmpty()){
+            updated.compute();
+            return updated.cancelled ? null : updated;
+        }
+
+        int length = metadata.setA.get(0).getSize();
+        assert metadata.setA.stream().allMatch(ts -> ts.getSize() == length) && metadata.setB.stream().allMatch(ts -> ts.getSize() == length) : "All time series must have the same length.";
+
+        // the columns whose windows end within the previous values are unchanged: s + |w| <= previous length for all windows (the latest window starts at s)
+        int firstAffectedColumn = Math.max(0, Math.min(columns.size(), (matrix.computedLength - metadata.windowSize + metadata.baseWindowOffset) / metadata.baseWindowOffset));
+
+        updated.summarizing = columns.get(0).cellSummaries != null; // the new columns keep their summaries like the unaffected ones
+        updated.binnedPercentiles = matrix.binnedPercentiles || updated.summarizing;
+        updated.windowStore = null; // the store would normalize the windows along the entire time axis
+
+        List<CorrelationMatrix.CorrelationColumn> computed = updated.computeColumns(firstAffectedColumn, grown.numBaseWindows, matrix.termsRegistry);
+        if(computed == null) return null;
+
+        columns.subList(0, firstAffectedColumn).forEach(updated::append);
+        computed.forEach(updated::append);
+        return updated;
+    }
+}
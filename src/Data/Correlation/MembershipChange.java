@@ -0,0 +1,62 @@
+package Data.Correlation;
+
+import Data.TimeSeries;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * The time series by which the ensembles of a matrix differ from those of its membership basis (see {@link CorrelationMatrix#setMembershipBasis(CorrelationMatrix)}).
+ * Time series are identified by object identity. The removed window pairs are the removed time series of set A with all time series of the basis' set B,
+ * and the kept time series of set A with the removed time series of set B. The added window pairs are formed analogously.
+ * @author Carl Witt
+ */
+class MembershipChange {
+
+    /** The matrix that is derived from the basis. */
+    final CorrelationMatrix matrix;
+    final CorrelationMatrix basis;
+    /** Indices into the sets of the basis: time series of set A (set B) that are not in this matrix, time series of set A that are, all time series of set B. */
+    final int[] removedA, keptA, removedB, basisB;
+    /** Indices into the sets of this matrix: time series of set A (set B) that are not in the basis, time series of set A that are. */
+    final int[] addedA, keptNewA, addedB;
+    /** The number of window pairs per cell that are removed or added. */
+    final long changedPairs;
+    /** Holds the window terms of the basis' time series for summarizing the removed window pairs. A separate matrix, such that the basis (a cached result) isn't modified. */
+    CorrelationMatrix basisTerms;
+
+    MembershipChange(CorrelationMatrix matrix, CorrelationMatrix basis) {
+        this.matrix = matrix;
+        this.basis = basis;
+        removedA = indices(basis.metadata.setA, matrix.metadata.setA, false);
+        keptA = indices(basis.metadata.setA, matrix.metadata.setA, true);
+        removedB = indices(basis.metadata.setB, matrix.metadata.setB, false);
+        basisB = CorrelationMatrix.range(basis.metadata.setB.size());
+        addedA = indices(matrix.metadata.setA, basis.metadata.setA, false);
+        keptNewA = indices(matrix.metadata.setA, basis.metadata.setA, true);
+        addedB = indices(matrix.metadata.setB, basis.metadata.setB, false);
+        changedPairs = (long) removedA.length * basisB.length + (long) keptA.length * removedB.length +
+                       (long) addedA.length * matrix.metadata.setB.size() + (long) keptNewA.length * addedB.length;
+    }
+
+    /**
+     * Obtains the window terms of the basis' time series from the registry of the current computation, which already holds those of the kept time series.
+     * @return false if the computation has been cancelled
+     */
+    boolean precomputeBasisTerms(){
+        basisTerms = new CorrelationMatrix(basis.metadata);
+        basisTerms.precomputeTerms(matrix.termsRegistry);
+        if(basisTerms.cancelled) matrix.cancelled = true;
+        return !matrix.cancelled;
+    }
+
+    /** @return the indices of the time series in the set that are (not) contained in the other set. */
+    private int[] indices(List<TimeSeries> set, List<TimeSeries> other, boolean contained){
+        Set<TimeSeries> otherSeries = Collections.newSetFromMap(new IdentityHashMap<>());
+        otherSeries.addAll(other);
+        return IntStream.range(0, set.size()).filter(tsIdx -> otherSeries.contains(set.get(tsIdx)) == contained).toArray();
+    }
+}
@@ -0,0 +1,166 @@
+package Data.Correlation;
+
+import Data.Statistics.CellSummarizer;
+import Data.TimeSeries;
+import Data.Windowing.WindowMetadata;
+
+import java.util.List;
+
+/**
+ * Stores the windows needed for a correlation matrix computation already z-normalized, i.e. shifted by their mean and scaled to unit L2 norm.
+ * The pearson correlation of two windows is then simply the dot product of the stored values, which saves the mean subtraction and the
+ * division by the norms in the innermost loop of {@link CorrelationMatrix}.
+ *
+ * Only the windows that are actually referenced by some cell of the matrix are stored (e.g. base windows and lag windows). The values of all
+ * windows of one ensemble are kept in a single contiguous array, ordered by time series and window start index:
+ * values[(tsIdx * numStoredWindows + slot) * windowSize + i] where slot is the rank of the window start index among the stored window start indices.
+ *
+ * Since the store can become large (number of time series × number of referenced windows × window size), it is only created if it fits into a given memory budget.
+ * @author Carl Witt
+ */
+public class NormalizedWindowStore {
+
+    /** The default memory budget for the window store (256 MB). */
+    public static final long DEFAULT_BUDGET_BYTES = 256L * 1024 * 1024;
+
+    final int windowSize;
+    final int sizeA, sizeB;
+
+    /** The z-normalized window values of ensemble A and B. */
+    final double[] valuesA, valuesB;
+    /** Maps a window start index to its storage slot (or -1 if the window isn't stored). */
+    final int[] slotsA, slotsB;
+    /** The number of stored windows per time series. */
+    final int numStoredA, numStoredB;
+
+    /** Computes the dot products of the stored windows. */
+    final CorrelationKernel kernel = CorrelationKernels.active();
+
+    private NormalizedWindowStore(WindowMetadata metadata, boolean[] neededA, boolean[] neededB, double[][] meansA, double[][] meansB, double[][] L2NormsA, double[][] L2NormsB) {
+        windowSize = metadata.windowSize;
+        sizeA = metadata.setA.size();
+        sizeB = metadata.setB.size();
+        slotsA = slots(neededA);
+        slotsB = slots(neededB);
+        numStoredA = count(neededA);
+        numStoredB = count(neededB);
+        valuesA = normalizedWindows(metadata.setA, slotsA, numStoredA, meansA, L2NormsA);
+        valuesB = normalizedWindows(metadata.setB, slotsB, numStoredB, meansB, L2NormsB);
+    }
+
+    /**
+     * Creates a window store for the given computation if it fits into the memory budget.
+     * @param metadata the computation input
+     * @param meansA the precomputed window means of ensemble A (see {@link CorrelationMatrix#meansA})
+     * @param L2NormsA the precomputed L2 norms of the mean-shifted windows of ensemble A (see {@link CorrelationMatrix#L2NormsA})
+     * @param budgetBytes the maximum size of the stored values in bytes
+     * @return the window store or null if the stored values would exceed the budget.
+     */
+    public static NormalizedWindowStore create(WindowMetadata metadata, double[][] meansA, double[][] meansB, double[][] L2NormsA, double[][] L2NormsB, long budgetBytes){
+
+        int lastValidWindowStartIdx = metadata.setA.get(0).getSize() - metadata.windowSize;
+        if(lastValidWindowStartIdx < 0 || budgetBytes <= 0) return null;
+
+        // mark the windows that are referenced by some cell of the matrix
+        boolean[] neededA = new boolean[lastValidWindowStartIdx + 1],
+                  neededB = new boolean[lastValidWindowStartIdx + 1];
+        int[] lags = metadata.getDifferentTimeLags();
+        for (int baseWindowIdx = 0; baseWindowIdx < metadata.numBaseWindows; baseWindowIdx++) {
+            int baseWindowStartIdx = baseWindowIdx * metadata.baseWindowOffset;
+            for (int lag : lags) {
+                int windowAStartIdx = lag >= 0 ? baseWindowStartIdx : baseWindowStartIdx + lag,
+                    windowBStartIdx = lag >= 0 ? baseWindowStartIdx - lag : baseWindowStartIdx;
+                if(windowAStartIdx < 0 || windowBStartIdx < 0 || windowAStartIdx > lastValidWindowStartIdx || windowBStartIdx > lastValidWindowStartIdx) continue;
+                neededA[windowAStartIdx] = true;
+                neededB[windowBStartIdx] = true;
+            }
+        }
+
+        long valuesA = (long) metadata.setA.size() * count(neededA) * metadata.windowSize,
+             valuesB = (long) metadata.setB.size() * count(neededB) * metadata.windowSize;
+        if(valuesA > Integer.MAX_VALUE || valuesB > Integer.MAX_VALUE || 8 * (valuesA + valuesB) > budgetBytes) return null;
+
+        return new NormalizedWindowStore(metadata, neededA, neededB, meansA, meansB, L2NormsA, L2NormsB);
+    }
+
+    /**
+     * Computes the correlation of each pair of windows (the window of each time series in A starting at windowAStartIdx and the window of each time series in B starting at windowBStartIdx).
+     * Adds each correlation value that is not NaN to the target.
+     * Incomplete windows (start index out of range) produce no values.
+     */
+    public void correlate(int windowAStartIdx, int windowBStartIdx, CellSummarizer target){
+
+        if(windowAStartIdx < 0 || windowBStartIdx < 0 || windowAStartIdx >= slotsA.length || windowBStartIdx >= slotsB.length) return;
+        int slotA = slotsA[windowAStartIdx], slotB = slotsB[windowBStartIdx];
+        assert slotA >= 0 && slotB >= 0 : String.format("Windows %s, %s are not in the store.", windowAStartIdx, windowBStartIdx);
+
+        for (int tsAIdx = 0; tsAIdx < sizeA; tsAIdx++) {
+            int a = (tsAIdx * numStoredA + slotA) * windowSize;
+            for (int tsBIdx = 0; tsBIdx < sizeB; tsBIdx++) {
+                int b = (tsBIdx * numStoredB + slotB) * windowSize;
+                double r = kernel.dot(valuesA, a, valuesB, b, windowSize);
+                if (!Double.isNaN(r)) target.addValue(r);
+            }
+        }
+    }
+
+    /**
+     * Like {@link #correlate(int, int, CellSummarizer)} for time lag 0 of a within-ensemble comparison (set A and set B contain the same time series).
+     * Each unordered pair of different time series is correlated once and its value added twice, each time series is correlated with itself.
+     */
+    public void correlateUnordered(int windowStartIdx, CellSummarizer target){
+
+        if(windowStartIdx < 0 || windowStartIdx >= slotsA.length) return;
+        int slot = slotsA[windowStartIdx];
+        assert slot >= 0 : String.format("Window %s is not in the store.", windowStartIdx);
+
+        for (int tsAIdx = 0; tsAIdx < sizeA; tsAIdx++) {
+            int a = (tsAIdx * numStoredA + slot) * windowSize;
+            for (int tsBIdx = tsAIdx; tsBIdx < sizeA; tsBIdx++) {
+                int b = (tsBIdx * numStoredA + slot) * windowSize;
+                double r = kernel.dot(valuesA, a, valuesA, b, windowSize);
+                if (Double.isNaN(r)) continue;
+                target.addValue(r);
+                if(tsBIdx != tsAIdx) target.addValue(r);
+            }
+        }
+    }
+
+    /** @return the correlation of a single pair of stored windows. */
+    public double correlation(int tsAIdx, int windowAStartIdx, int tsBIdx, int windowBStartIdx){
+        int slotA = slotsA[windowAStartIdx], slotB = slotsB[windowBStartIdx];
+        assert slotA >= 0 && slotB >= 0 : String.format("Windows %s, %s are not in the store.", windowAStartIdx, windowBStartIdx);
+        return kernel.dot(valuesA, (tsAIdx * numStoredA + slotA) * windowSize, valuesB, (tsBIdx * numStoredB + slotB) * windowSize, windowSize);
+    }
+
+    /** @return the number of bytes occupied by the stored values. */
+    public long getSizeInBytes(){ return 8L * (valuesA.length + valuesB.length); }
+
+    private double[] normalizedWindows(List<TimeSeries> set, int[] slots, int numStored, double[][] means, double[][] L2Norms){
+        double[] values = new double[set.size() * numStored * windowSize];
+        for (int tsIdx = 0; tsIdx < set.size(); tsIdx++) {
+            double[] data = set.get(tsIdx).getDataItems().im;
+            for (int windowStartIdx = 0; windowStartIdx < slots.length; windowStartIdx++) {
+                if(slots[windowStartIdx] < 0) continue;
+                int offset = (tsIdx * numStored + slots[windowStartIdx]) * windowSize;
+                double mean = means[tsIdx][windowStartIdx], l2Norm = L2Norms[tsIdx][windowStartIdx];
+                for (int i = 0; i < windowSize; i++) values[offset + i] = (data[windowStartIdx + i] - mean) / l2Norm;
+            }
+        }
+        return values;
+    }
+
+    private static int[] slots(boolean[] needed){
+        int[] slots = new int[needed.length];
+        int nextSlot = 0;
+        for (int i = 0; i < needed.length; i++) slots[i] = needed[i] ? nextSlot++ : -1;
+        return slots;
+    }
+
+    private static int count(boolean[] needed){
+        int count = 0;
+        for(boolean b : needed) if(b) count++;
+        return count;
+    }
+
+}
@@ -0,0 +1,126 @@
+package Data.Correlation;
+
+/**
+ * Computes the pearson correlation of two windows that contain missing values (NaN), using only the positions where both windows have a value
+ * (pairwise complete observations, see {@link CrossCorrelation.NA_ACTION#PAIRWISE_COMPLETE}).
+ *
+ * For each time series, the positions of the missing values are stored as a bit mask, together with prefix sums of the values and the squared values
+ * (missing values count as zero). The number of complete pairs of a window pair is the number of zero bits in the union of both window masks,
+ * and the sums of each window over the complete pairs are the prefix sum differences minus the values at the (few) positions where only the other window has a gap.
+ * Means and L2 norms are thus obtained in time proportional to the number of gaps. Only the covariance requires a pass over the windows.
+ *
+ * As in {@link CorrelationMatrix#precomputeWindowTerms(double[], int, double[], double[])}, the values are shifted by the time series mean before summation,
+ * and norms that suffer from cancellation are recomputed explicitly.
+ * @author Carl Witt
+ */
+public class PairwiseCompleteCorrelation {
+
+    /** The missing value masks and prefix sums of a single time series. */
+    public static class SeriesTerms {
+
+        /** The mean of the values (excluding NaNs) by which the values are shifted before summation. */
+        final double shift;
+        /** Bit i is set if the value at index i is NaN. */
+        final long[] nanBits;
+        /** nanPrefix[i] is the number of NaN values before index i. */
+        final int[] nanPrefix;
+        /** prefixSum[i] is the sum of the (shifted) values before index i, NaN values count as zero. */
+        final double[] prefixSum, prefixSumOfSquares;
+
+        public SeriesTerms(double[] data){
+
+            double sum = 0;
+            int numValues = 0;
+            for(double value : data) if(!Double.isNaN(value)){ sum += value; numValues++; }
+            shift = numValues > 0 ? sum / numValues : 0;
+
+            nanBits = new long[(data.length + 63) / 64];
+            nanPrefix = new int[data.length + 1];
+            prefixSum = new double[data.length + 1];
+            prefixSumOfSquares = new double[data.length + 1];
+            for (int i = 0; i < data.length; i++) {
+                boolean nan = Double.isNaN(data[i]);
+                double value = nan ? 0 : data[i] - shift;
+                if(nan) nanBits[i >>> 6] |= 1L << (i & 63);
+                nanPrefix[i + 1] = nanPrefix[i] + (nan ? 1 : 0);
+                prefixSum[i + 1] = prefixSum[i] + value;
+                prefixSumOfSquares[i + 1] = prefixSumOfSquares[i] + value * value;
+            }
+        }
+
+        /** @return the number of NaN values in the given range. */
+        public int nanCount(int from, int length){ return nanPrefix[from + length] - nanPrefix[from]; }
+
+        /** @return whether the time series contains any NaN value. */
+        public boolean containsNaN(){ return nanPrefix[nanPrefix.length - 1] > 0; }
+
+        /** @return the 64 mask bits starting at the given index (bits beyond the end of the time series are zero). */
+        long bits(int from){
+            int word = from >>> 6, shift = from & 63;
+            long bits = nanBits[word] >>> shift;
+            if(shift != 0 && word + 1 < nanBits.length) bits |= nanBits[word + 1] << (64 - shift);
+            return bits;
+        }
+    }
+
+    /** The number of complete pairs used by the last call to {@link #correlation(double[], SeriesTerms, int, double[], SeriesTerms, int, int)}. */
+    public int n;
+
+    /**
+     * @return the correlation of the windows a[aStart, aStart + length[ and b[bStart, bStart + length[ over the positions where neither window has a NaN value.
+     * NaN if there are less than two such positions or one of the windows is constant on them.
+     */
+    public double correlation(double[] a, SeriesTerms termsA, int aStart, double[] b, SeriesTerms termsB, int bStart, int length){
+
+        double sumA = termsA.prefixSum[aStart + length] - termsA.prefixSum[aStart],
+               sumOfSquaresA = termsA.prefixSumOfSquares[aStart + length] - termsA.prefixSumOfSquares[aStart],
+               sumB = termsB.prefixSum[bStart + length] - termsB.prefixSum[bStart],
+               sumOfSquaresB = termsB.prefixSumOfSquares[bStart + length] - termsB.prefixSumOfSquares[bStart];
+
+        // remove the values that have no partner in the other window
+        n = length;
+        if(termsA.nanCount(aStart, length) > 0 || termsB.nanCount(bStart, length) > 0){
+            for (int offset = 0; offset < length; offset += 64) {
+                long lengthMask = length - offset >= 64 ? -1L : (1L << (length - offset)) - 1;
+                long nanA = termsA.bits(aStart + offset) & lengthMask,
+                     nanB = termsB.bits(bStart + offset) & lengthMask;
+                n -= Long.bitCount(nanA | nanB);
+                for (long onlyB = nanB & ~nanA; onlyB != 0; onlyB &= onlyB - 1) {
+                    double value = a[aStart + offset + Long.numberOfTrailingZeros(onlyB)] - termsA.shift;
+                    sumA -= value;
+                    sumOfSquaresA -= value * value;
+                }
+                for (long onlyA = nanA & ~nanB; onlyA != 0; onlyA &= onlyA - 1) {
+                    double value = b[bStart + offset + Long.numberOfTrailingZeros(onlyA)] - termsB.shift;
+                    sumB -= value;
+                    sumOfSquaresB -= value * value;
+                }
+            }
+        }
+        if(n < 2) return Double.NaN;
+
+        double meanA = termsA.shift + sumA / n, meanB = termsB.shift + sumB / n;
+        double squaredNormA = sumOfSquaresA - sumA * sumA / n,
+               squaredNormB = sumOfSquaresB - sumB * sumB / n;
+        boolean recompute = squaredNormA < CorrelationMatrix.CANCELLATION_THRESHOLD * sumOfSquaresA || squaredNormB < CorrelationMatrix.CANCELLATION_THRESHOLD * sumOfSquaresB;
+
+        // the product is NaN if either value is missing
+        double covariance = 0, explicitSquaredNormA = 0, explicitSquaredNormB = 0;
+        for (int i = 0; i < length; i++) {
+            double x = a[aStart + i] - meanA, y = b[bStart + i] - meanB, product = x * y;
+            if(product != product) continue;
+            covariance += product;
+            if(recompute){
+                explicitSquaredNormA += x * x;
+                explicitSquaredNormB += y * y;
+            }
+        }
+        if(recompute){
+            squaredNormA = explicitSquaredNormA;
+            squaredNormB = explicitSquaredNormB;
+        }
+
+        return covariance / Math.sqrt(squaredNormA) / Math.sqrt(squaredNormB);
+    }
+
+}
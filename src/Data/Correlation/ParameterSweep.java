@@ -0,0 +1,166 @@
+package Data.Correlation;
+
+import Data.Statistics.CorrelationHistogram;
+import Data.Windowing.WindowMetadata;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Computes the correlation matrices of several parameterizations (window size, time lag range, base window offset) of the same ensembles in one job,
+ * e.g. to find a parameterization for which the results are robust.
+ *
+ * The work is shared in two ways. All computations use the same {@link WindowStatisticsRegistry}, such that the window means and norms of each time series
+ * are computed once per window size, and they run on the shared {@link CorrelationMatrix#COMPUTE_POOL}. Furthermore, variants that differ only in their time lag range
+ * and base window offset are computed as a single matrix: the cells of a variant are a subset of the cells of the matrix with the union of the time lag ranges,
+ * if the time lags lie on the same grid and the base window offset is a multiple of the smallest base window offset of the group.
+ * The matrices of the variants are then extracted from that matrix (see {@link #extract(CorrelationMatrix, WindowMetadata)}).
+ *
+ * Variants whose cells are estimated from a sample of window pairs (see {@link WindowMetadata#samplingTolerance}) are computed on their own,
+ * since the samples depend on the position of a cell in its column.
+ * @author Carl Witt
+ */
+public class ParameterSweep {
+
+    /** The parameterizations to compute, all with the same time series in set A and set B. */
+    final List<WindowMetadata> variants;
+
+    /** Shares the window means and norms among the computations. */
+    private final WindowStatisticsRegistry registry = new WindowStatisticsRegistry();
+
+    /** Variants whose cells are computed by a single matrix. */
+    private static class Group {
+        final List<WindowMetadata> members = new ArrayList<>();
+        final int baseWindowOffset;
+        int tauMin, tauMax;
+        Group(WindowMetadata first){
+            members.add(first);
+            baseWindowOffset = first.baseWindowOffset;
+            tauMin = first.tauMin;
+            tauMax = lastLag(first);
+        }
+    }
+
+    /**
+     * @param variants the parameterizations to compute. All must refer to the same time series in set A and set B.
+     */
+    public ParameterSweep(List<WindowMetadata> variants) {
+        assert ! variants.isEmpty() : "No parameterizations to compute.";
+        assert variants.stream().allMatch(variant -> variant.setA.equals(variants.get(0).setA) && variant.setB.equals(variants.get(0).setB)) : "All variants must refer to the same time series.";
+        this.variants = new ArrayList<>(variants);
+    }
+
+    /**
+     * Computes the matrices of all variants.
+     * @param onCompleted an optional callback that receives each matrix as soon as it is complete (called on the computing thread)
+     * @return the matrices in the order of the variants
+     */
+    public List<CorrelationMatrix> compute(Consumer<CorrelationMatrix> onCompleted){
+
+        Map<WindowMetadata, CorrelationMatrix> results = new IdentityHashMap<>();
+        for(Group group : groups()){
+
+            // a group with a single variant is computed directly
+            WindowMetadata covering = group.members.size() == 1 ? group.members.get(0) : coveringMetadata(group);
+            CorrelationMatrix matrix = new CorrelationMatrix(covering);
+            matrix.setWindowStatisticsRegistry(registry);
+            matrix.compute();
+            if(matrix.getSize() < covering.numBaseWindows) return null; // the computation has been cancelled
+
+            for(WindowMetadata variant : group.members){
+                CorrelationMatrix result = variant == covering ? matrix : extract(matrix, variant);
+                results.put(variant, result);
+                if(onCompleted != null) onCompleted.accept(result);
+            }
+        }
+
+        List<CorrelationMatrix> matrices = new ArrayList<>(variants.size());
+        for(WindowMetadata variant : variants) matrices.add(results.get(variant));
+        return matrices;
+    }
+
+    /**
+     * Copies the cells of a matrix with fewer columns or time lags out of the covering matrix of a group.
+     * The variant must have the same time series, window size, time lag step and parameters (e.g. significance level), its time lags must be a subset of the covering matrix' time lags,
+     * and its base window offset a multiple of the covering matrix' base window offset. The statistics, histograms and cell summaries are shared with the covering matrix, not copied.
+     * @param covering the computed matrix of the group
+     * @param variant the metadata of the matrix to extract
+     * @return the matrix for the variant
+     */
+    private static CorrelationMatrix extract(CorrelationMatrix covering, WindowMetadata variant){
+
+        WindowMetadata metadata = covering.metadata;
+        assert variant.windowSize == metadata.windowSize && variant.tauStep == metadata.tauStep && variant.baseWindowOffset % metadata.baseWindowOffset == 0 &&
+                variant.tauMin >= metadata.tauMin && (variant.tauMin - metadata.tauMin) % metadata.tauStep == 0 &&
+                variant.getDifferentTimeLags()[variant.getNumberOfDifferentTimeLags() - 1] <= metadata.getDifferentTimeLags()[metadata.getNumberOfDifferentTimeLags() - 1] :
+                String.format("The matrix for %s can't be extracted from %s.", variant, metadata);
+
+        CorrelationMatrix matrix = new CorrelationMatrix(variant);
+        int firstLagIdx = (variant.tauMin - metadata.tauMin) / metadata.tauStep, numLags = variant.getNumberOfDifferentTimeLags(),
+            columnStride = variant.baseWindowOffset / metadata.baseWindowOffset;
+
+        for (int baseWindowIdx = 0; baseWindowIdx < variant.numBaseWindows; baseWindowIdx++) {
+            CorrelationMatrix.CorrelationColumn source = covering.columns.get(baseWindowIdx * columnStride);
+            CorrelationHistogram correlationHistogram = source.histogram == null ? null : new CorrelationHistogram(variant);
+            CorrelationMatrix.CorrelationColumn column = matrix.new CorrelationColumnBuilder(source.windowStartIndex, variant.tauMin).allEmpty(numLags).histogram(correlationHistogram).build();
+            for (int stat = 0; stat < CorrelationMatrix.NUM_STATS; stat++) System.arraycopy(source.data[stat], firstLagIdx, column.data[stat], 0, numLags);
+            for (int lagIdx = 0; lagIdx < numLags && correlationHistogram != null; lagIdx++)
+                correlationHistogram.setCompressedHistogram(lagIdx, source.histogram.getCompressedHistogram(firstLagIdx + lagIdx));
+            if(source.cellSummaries != null) column.cellSummaries = Arrays.copyOfRange(source.cellSummaries, firstLagIdx, firstLagIdx + numLags);
+            matrix.append(column);
+        }
+        return matrix;
+    }
+
+    /** @return the number of matrices that are actually computed for the variants. */
+    public int getNumberOfComputations(){ return groups().size(); }
+
+    /**
+     * Partitions the variants into groups that can be computed by a single matrix, in the order of the first variant of each group.
+     * Variants are considered in order of increasing base window offset, and each joins the first compatible group.
+     */
+    private List<Group> groups(){
+
+        List<WindowMetadata> byOffset = new ArrayList<>(variants);
+        byOffset.sort(Comparator.comparingInt(variant -> variant.baseWindowOffset));
+
+        List<Group> groups = new ArrayList<>();
+        for(WindowMetadata variant : byOffset){
+            Group joined = null;
+            if(variant.samplingTolerance <= 0)
+                for(Group group : groups) if(compatible(group, variant)){ joined = group; break; }
+            if(joined == null) groups.add(new Group(variant));
+            else {
+                joined.members.add(variant);
+                joined.tauMin = Math.min(joined.tauMin, variant.tauMin);
+                joined.tauMax = Math.max(joined.tauMax, lastLag(variant));
+            }
+        }
+        groups.sort(Comparator.comparingInt(group -> group.members.stream().mapToInt(variants::indexOf).min().getAsInt()));
+        return groups;
+    }
+
+    /** @return whether the cells of the variant are a subset of the cells of a matrix that covers the group, after extending its time lag range. */
+    private static boolean compatible(Group group, WindowMetadata variant){
+        WindowMetadata first = group.members.get(0);
+        return first.samplingTolerance <= 0 &&
+                variant.windowSize == first.windowSize && variant.tauStep == first.tauStep &&
+                Math.floorMod(variant.tauMin - first.tauMin, first.tauStep) == 0 &&
+                variant.baseWindowOffset % group.baseWindowOffset == 0 &&
+                variant.sameParameters(first);
+    }
+
+    /** @return the metadata of a matrix whose cells include the cells of all variants in the group. */
+    private static WindowMetadata coveringMetadata(Group group){
+        WindowMetadata first = group.members.get(0);
+        WindowMetadata covering = new WindowMetadata.Builder(group.tauMin, group.tauMax, first.windowSize, first.tauStep, group.baseWindowOffset)
+                .tsA(first.setA).tsB(first.setB).parameters(first).build();
+        return covering;
+    }
+
+    /** @return the largest time lag of the variant (which may be smaller than tauMax if the time lag range is not a multiple of the time lag step). */
+    private static int lastLag(WindowMetadata variant){
+        return variant.tauMin + (variant.getNumberOfDifferentTimeLags() - 1) * variant.tauStep;
+    }
+
+}
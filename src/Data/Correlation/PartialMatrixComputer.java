@@ -0,0 +1,235 @@
+package Data.Correlation;
+
+import Data.Statistics.CellSummarizer;
+import Data.Statistics.CorrelationHistogram;
+import Data.TimeSeries;
+import Data.Windowing.WindowMetadata;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+
+/**
+ * Computes one horizontal slice of the correlation matrix, that is, all columns in a given range.
+ * The computer correlates each pair of windows explicitly, the subclasses implement the other engines (see {@link CorrelationMatrix#createPartialMatrixComputer(int, int, Consumer)}).
+ * @author Carl Witt
+ */
+class PartialMatrixComputer implements Callable<CorrelationMatrix>{
+
+    /** The matrix whose columns are computed, it provides the parameters and the precomputed window terms. */
+    final CorrelationMatrix matrix;
+    final WindowMetadata metadata;
+
+    final CorrelationMatrix partialMatrix; // each threads own results (a subsequence of the matrixs columns)
+
+    /** The first window index (inclusive) and the last window index (exclusive). */
+    final int from, to;
+    final Consumer<Integer> progress;
+
+    /** Collects and summarizes the correlation values of the cell that is currently processed. The computer is created and called on a worker thread. */
+    final CellSummarizer summarizer = CellSummarizer.forCurrentThread();
+
+    /** Computes the covariances of window pairs. */
+    final CorrelationKernel kernel = CorrelationKernels.active();
+
+    /** Correlates window pairs with missing values (see {@link CorrelationMatrix#nanTermsA}). */
+    final PairwiseCompleteCorrelation pairwiseComplete = new PairwiseCompleteCorrelation();
+
+    PartialMatrixComputer(CorrelationMatrix matrix, int from, int to, Consumer<Integer> progress) {
+        this.matrix = matrix;
+        this.metadata = matrix.metadata;
+        this.partialMatrix = new CorrelationMatrix(metadata);
+        this.from = from;
+        this.to = to;
+        this.progress = progress;
+        int histogramBins = metadata.histogramBins;
+        summarizer.setHistogramMode(histogramBins, matrix.significanceTester == null ? Double.NaN : matrix.significanceTester.criticalCorrelationValue);
+        if(histogramBins == 0) summarizer.ensureCapacity(metadata.setA.size() * metadata.setB.size());
+    }
+
+    @Override public CorrelationMatrix call() throws Exception {
+
+        try {
+            // create the result column by column to avoid having to keep too much data in main memory
+            for (int baseWindowIdx = from; baseWindowIdx < to; baseWindowIdx++) {
+
+                CorrelationMatrix.CorrelationColumn column = computeColumn(baseWindowIdx);
+                if(column == null) return null; // the computation has been interrupted
+
+                partialMatrix.append(column);
+
+                // all workers report the total progress
+                int finished = matrix.finishedColumns.incrementAndGet();
+                if(progress != null) progress.accept(finished);
+
+            }
+        } finally {
+            summarizer.trim(); // the summarizer stays with the pool thread
+        }
+
+        return partialMatrix;
+    }
+
+    /**
+     * Computes all cells of a single column by correlating each pair of windows explicitly, i.e. one dot product of length |w| per window pair and time lag.
+     * @param baseWindowIdx the index of the column to compute.
+     * @return the column or null if the computing thread has been interrupted.
+     */
+    CorrelationMatrix.CorrelationColumn computeColumn(int baseWindowIdx){
+
+        int columnSize = metadata.getNumberOfDifferentTimeLags();
+
+        int windowAStartIdx, windowBStartIdx;                       // the offset of the current window pair
+        double[] windowAData = new double[metadata.windowSize],     // values in the current window pair
+                 windowBData = new double[metadata.windowSize];
+        double   windowAMean, windowAL2Norm,                        // means and L2 norms of the current window pair
+                 windowBMean, windowBL2Norm;
+
+        int baseWindowStartIdx = metadata.baseWindowOffset * baseWindowIdx;
+
+        CorrelationHistogram correlationHistogram = matrix.createHistogram();
+        CorrelationMatrix.CorrelationColumn column = matrix.new CorrelationColumnBuilder(baseWindowStartIdx, metadata.tauMin).allEmpty(columnSize).histogram(correlationHistogram).build();
+
+        // compute columns cell by cell
+        int[] lags = metadata.getDifferentTimeLags();
+        for (int lagIdx = 0; lagIdx < lags.length; lagIdx++) {
+
+            if(matrix.isCancelled())
+                return null;
+
+            // cells with a mirrored time lag are copied below
+            if(matrix.mirroredLagIdx != null && matrix.mirroredLagIdx[lagIdx] >= 0) continue;
+
+            int lag = lags[lagIdx];
+            summarizer.clear();
+
+            if (lag >= 0) {
+                // process positive time lags (look at past events in time series B ~ find influences of B on A)
+                windowAStartIdx = baseWindowStartIdx;
+                windowBStartIdx = baseWindowStartIdx - lag;
+            } else {
+                // process negative time lags (look for occurrences of a pattern in time series B in the past of time series A ~ find influences of A on B)
+                windowAStartIdx = baseWindowStartIdx + lag;
+                windowBStartIdx = baseWindowStartIdx;
+            }
+
+            if(matrix.nanTermsA != null){
+                correlatePairwiseComplete(windowAStartIdx, windowBStartIdx);
+            } else if(matrix.mirroredLagIdx != null && lag == 0){
+                // within-ensemble comparison: r(a, b, 0) = r(b, a, 0)
+                if(matrix.windowStore != null) matrix.windowStore.correlateUnordered(baseWindowStartIdx, summarizer);
+                else correlateUnordered(baseWindowStartIdx, windowAData, windowBData);
+            } else if(matrix.windowStore != null){
+                // the windows are already z-normalized: each correlation value is a dot product
+                matrix.windowStore.correlate(windowAStartIdx, windowBStartIdx, summarizer);
+            } else {
+                // compute all pairwise correlation values
+                List<TimeSeries> setA = metadata.setA;
+                for (int tsAIdx = 0; tsAIdx < setA.size(); tsAIdx++) {
+                    TimeSeries tsA = setA.get(tsAIdx);
+
+                    CrossCorrelation.getWindow(windowAData, tsA, windowAStartIdx, matrix.placeholder);
+
+                    List<TimeSeries> setB = metadata.setB;
+                    for (int tsBIdx = 0; tsBIdx < setB.size(); tsBIdx++) {
+                        TimeSeries tsB = setB.get(tsBIdx);
+
+                        CrossCorrelation.getWindow(windowBData, tsB, windowBStartIdx, matrix.placeholder);
+
+                        if(windowAStartIdx < 0){
+                            windowAMean = Double.NaN;
+                            windowAL2Norm = Double.NaN;
+                        } else {
+                            windowAMean = matrix.meansA[tsAIdx][windowAStartIdx];
+                            windowAL2Norm = matrix.L2NormsA[tsAIdx][windowAStartIdx];
+                        }
+
+                        if(windowBStartIdx < 0){
+                            windowBMean = Double.NaN;
+                            windowBL2Norm = Double.NaN;
+                        } else {
+                            windowBMean = matrix.meansB[tsBIdx][windowBStartIdx];
+                            windowBL2Norm = matrix.L2NormsB[tsBIdx][windowBStartIdx];
+                        }
+
+                        double covariance = kernel.covariance(windowAData, 0, windowAMean, windowBData, 0, windowBMean, metadata.windowSize);
+                        double r = covariance / windowAL2Norm / windowBL2Norm;
+
+                        if (!Double.isNaN(r)) summarizer.addValue(r);
+
+                    } // for each time series in set B
+
+                } // for each time series in set A
+            }
+
+            // summarize the computed distribution (calculate mean, sd, etc) and store the results in the column data structure
+            column.computeCell(summarizer, lagIdx);
+
+        } // for each lag
+
+        // within-ensemble comparison: the cell for time lag -tau contains the same correlation values as the cell for time lag tau
+        if(matrix.mirroredLagIdx != null){
+            for (int lagIdx = 0; lagIdx < lags.length; lagIdx++) {
+                int mirrored = matrix.mirroredLagIdx[lagIdx];
+                if(mirrored < 0) continue;
+                for (int stat = 0; stat < CorrelationMatrix.NUM_STATS; stat++) column.data[stat][lagIdx] = column.data[stat][mirrored];
+                if(correlationHistogram != null) correlationHistogram.setCompressedHistogram(lagIdx, correlationHistogram.getCompressedHistogram(mirrored).clone());
+            }
+        }
+
+        return column;
+    }
+
+    /**
+     * Adds the correlation values of all pairs of windows starting at the given index (time lag 0) to the {@link #summarizer} of a within-ensemble comparison.
+     * Each unordered pair of different time series is correlated once and its value added twice, each time series is correlated with itself.
+     */
+    private void correlateUnordered(int windowStartIdx, double[] windowAData, double[] windowBData){
+        List<TimeSeries> set = metadata.setA;
+        for (int tsAIdx = 0; tsAIdx < set.size(); tsAIdx++) {
+            CrossCorrelation.getWindow(windowAData, set.get(tsAIdx), windowStartIdx, matrix.placeholder);
+            double windowAMean = matrix.meansA[tsAIdx][windowStartIdx], windowAL2Norm = matrix.L2NormsA[tsAIdx][windowStartIdx];
+            for (int tsBIdx = tsAIdx; tsBIdx < set.size(); tsBIdx++) {
+                CrossCorrelation.getWindow(windowBData, set.get(tsBIdx), windowStartIdx, matrix.placeholder);
+                double covariance = kernel.covariance(windowAData, 0, windowAMean, windowBData, 0, matrix.meansA[tsBIdx][windowStartIdx], metadata.windowSize);
+                double r = covariance / windowAL2Norm / matrix.L2NormsA[tsBIdx][windowStartIdx];
+                if (Double.isNaN(r)) continue;
+                summarizer.addValue(r);
+                if(tsBIdx != tsAIdx) summarizer.addValue(r);
+            }
+        }
+    }
+
+    /**
+     * Adds the correlation values of all window pairs to the {@link #summarizer}, handling missing values pairwise complete (see {@link CorrelationMatrix#nanTermsA}).
+     * Window pairs without missing values are correlated as usual and tested with the {@link CorrelationMatrix#significanceTester},
+     * the others are correlated over their complete pairs and tested with the sample size reduced to the number of complete pairs.
+     * Incomplete windows (start index out of range) produce no values.
+     */
+    private void correlatePairwiseComplete(int windowAStartIdx, int windowBStartIdx){
+
+        int windowSize = metadata.windowSize, lastValidWindowStartIdx = metadata.setA.get(0).getSize() - windowSize;
+        if(windowAStartIdx < 0 || windowBStartIdx < 0 || windowAStartIdx > lastValidWindowStartIdx || windowBStartIdx > lastValidWindowStartIdx) return;
+
+        for (int tsAIdx = 0; tsAIdx < metadata.setA.size(); tsAIdx++) {
+            double[] a = metadata.setA.get(tsAIdx).getDataItems().im;
+            boolean completeA = matrix.nanTermsA[tsAIdx].nanCount(windowAStartIdx, windowSize) == 0;
+            for (int tsBIdx = 0; tsBIdx < metadata.setB.size(); tsBIdx++) {
+                double[] b = metadata.setB.get(tsBIdx).getDataItems().im;
+                double r;
+                CorrelationSignificance tester;
+                if(completeA && matrix.nanTermsB[tsBIdx].nanCount(windowBStartIdx, windowSize) == 0){
+                    r = matrix.windowStore != null ? matrix.windowStore.correlation(tsAIdx, windowAStartIdx, tsBIdx, windowBStartIdx)
+                            : kernel.covariance(a, windowAStartIdx, matrix.meansA[tsAIdx][windowAStartIdx], b, windowBStartIdx, matrix.meansB[tsBIdx][windowBStartIdx], windowSize)
+                              / matrix.L2NormsA[tsAIdx][windowAStartIdx] / matrix.L2NormsB[tsBIdx][windowBStartIdx];
+                    tester = matrix.significanceTester;
+                } else {
+                    r = pairwiseComplete.correlation(a, matrix.nanTermsA[tsAIdx], windowAStartIdx, b, matrix.nanTermsB[tsBIdx], windowBStartIdx, windowSize);
+                    tester = matrix.pairwiseSignificanceTester(pairwiseComplete.n);
+                }
+                if (!Double.isNaN(r)) summarizer.addValue(r, tester != null && tester.significanceTest(r));
+            }
+        }
+    }
+
+}
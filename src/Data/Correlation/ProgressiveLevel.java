@@ -0,0 +1,55 @@
+package Data.Correlation;
+
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The columns of one level of a progressive computation that have not yet been handed out to a worker (see {@link CorrelationMatrix#setProgressive(boolean)}).
+ * @author Carl Witt
+ */
+class ProgressiveLevel {
+
+    final CorrelationMatrix.CorrelationColumn[] computed;
+    /** The columns of the level that haven't been handed out. */
+    final TreeSet<Integer> pending = new TreeSet<>();
+    /** Whether a column has been handed out (and might still be computing). */
+    final boolean[] handedOut;
+    /** The range of columns to hand out first, shared with the computation and its previews (see {@link CorrelationMatrix#setPriorityColumns(int, int)}). */
+    final AtomicReference<int[]> priorityColumns;
+    /** The priority range for which the columns have been added to the pending columns. */
+    int[] addedPriorityColumns;
+
+    /** Collects the columns with the given stride that haven't been computed in previous levels. */
+    ProgressiveLevel(CorrelationMatrix.CorrelationColumn[] computed, int stride, AtomicReference<int[]> priorityColumns) {
+        this.computed = computed;
+        this.priorityColumns = priorityColumns;
+        handedOut = new boolean[computed.length];
+        for (int baseWindowIdx = 0; baseWindowIdx < computed.length; baseWindowIdx += stride)
+            if(computed[baseWindowIdx] == null) pending.add(baseWindowIdx);
+    }
+
+    /** @return the next column to compute: the first pending column in the priority range or the pending column closest to it. -1 if all columns have been handed out. */
+    synchronized int next(){
+
+        // promote the columns in a new priority range to the current level
+        int[] priority = priorityColumns.get();
+        if(priority != null && priority != addedPriorityColumns){
+            for (int baseWindowIdx = Math.max(0, priority[0]); baseWindowIdx < Math.min(computed.length, priority[1]); baseWindowIdx++)
+                if(computed[baseWindowIdx] == null && !handedOut[baseWindowIdx]) pending.add(baseWindowIdx);
+            addedPriorityColumns = priority;
+        }
+        if(pending.isEmpty()) return -1;
+
+        int next;
+        Integer inRange = priority == null ? null : pending.ceiling(priority[0]);
+        if(priority == null) next = pending.first();
+        else if(inRange != null && inRange < priority[1]) next = inRange;
+        else {
+            Integer left = pending.lower(priority[0]), right = inRange;
+            next = left == null ? right : right == null ? left : priority[0] - left <= right - priority[1] + 1 ? left : right;
+        }
+        pending.remove(next);
+        handedOut[next] = true;
+        return next;
+    }
+}
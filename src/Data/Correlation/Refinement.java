@@ -0,0 +1,60 @@
+package Data.Correlation;
+
+import Data.Windowing.WindowMetadata;
+
+import java.util.List;
+
+/**
+ * A region of a matrix that has been recomputed at a finer resolution (see {@link CorrelationMatrix#refine(int, int, int, int, int, int)}).
+ * The columns are indexed as in a matrix computed for the {@link #metadata} of the refinement, of which only the columns in [{@link #fromColumn}, {@link #toColumn()}) are present.
+ * @author Carl Witt
+ */
+public class Refinement {
+
+    /** The parameters of the finer resolution. */
+    public final WindowMetadata metadata;
+    /** The index of the first refined column. */
+    public final int fromColumn;
+    /** The refined columns. */
+    public final List<CorrelationMatrix.CorrelationColumn> columns;
+
+    Refinement(WindowMetadata metadata, int fromColumn, List<CorrelationMatrix.CorrelationColumn> columns) {
+        this.metadata = metadata;
+        this.fromColumn = fromColumn;
+        this.columns = columns;
+    }
+
+    /** @return the index of the last refined column (exclusive). */
+    public int toColumn() { return fromColumn + columns.size(); }
+
+    /** @param columnIndex the index of the column in the finer resolution, between {@link #fromColumn} (inclusive) and {@link #toColumn()} (exclusive) */
+    public CorrelationMatrix.CorrelationColumn getColumn(int columnIndex) { return columns.get(columnIndex - fromColumn); }
+
+    /**
+     * Recomputes a rectangular region of the given matrix at a finer resolution (see {@link CorrelationMatrix#refine(int, int, int, int, int, int)}).
+     * @return the refinement or null if the region contains no base window of the finer resolution or the computation has been cancelled
+     */
+    static Refinement compute(CorrelationMatrix matrix, int fromColumn, int toColumn, int minLag, int maxLag, int tauStep, int baseWindowOffset){
+
+        WindowMetadata metadata = matrix.metadata;
+        WindowMetadata fineMetadata = new WindowMetadata.Builder(minLag, maxLag, metadata.windowSize, tauStep, baseWindowOffset)
+                .tsA(metadata.setA).tsB(metadata.setB).parameters(metadata).build();
+
+        // the fine base windows that start within [first base window start, last base window start] of the region
+        int fineFrom = (fromColumn * metadata.baseWindowOffset + baseWindowOffset - 1) / baseWindowOffset,
+            fineTo = Math.min(fineMetadata.numBaseWindows, (toColumn - 1) * metadata.baseWindowOffset / baseWindowOffset + 1);
+        if(fineTo <= fineFrom) return null;
+
+        CorrelationMatrix fine = new CorrelationMatrix(fineMetadata);
+        fine.engine = matrix.engine;
+        fine.selfCorrelation = matrix.selfCorrelation;
+        fine.sameValues = matrix.sameValues;
+        fine.windowStatisticsRegistry = matrix.windowStatisticsRegistry;
+        fine.windowStoreBudget = 0; // the store would normalize the windows along the entire time axis
+
+        List<CorrelationMatrix.CorrelationColumn> computed = fine.computeColumns(fineFrom, fineTo, null);
+        if(computed == null) return null;
+
+        return new Refinement(fineMetadata, fineFrom, computed);
+    }
+}
@@ -0,0 +1,133 @@
+package Data.Correlation;
+
+import Data.Statistics.CorrelationHistogram;
+import Data.TimeSeries;
+import Data.Windowing.WindowMetadata;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Computes one horizontal slice of the correlation matrix like the {@link PartialMatrixComputer} but exploits the overlap of consecutive base windows.
+ *
+ * For a fixed time lag and window pair, the windows of the next column are the windows of the current column shifted by {@link WindowMetadata#baseWindowOffset}.
+ * The cross product sum_i A[s<sub>a</sub>+i]·B[s<sub>b</sub>+i] of the next column is therefore obtained from the current one by subtracting the
+ * first baseWindowOffset products and adding the baseWindowOffset products that enter the windows.
+ * The covariance follows from the cross product and the precomputed means ({@link CorrelationMatrix#meansA}, {@link CorrelationMatrix#meansB}), the normalization uses the precomputed {@link CorrelationMatrix#L2NormsA}, {@link CorrelationMatrix#L2NormsB}.
+ *
+ * To avoid cancellation, the samples are shifted by the mean of their time series before multiplication (the covariance is invariant to shifts).
+ * To limit the accumulation of rounding errors, the cross products are computed from scratch every {@link #RECOMPUTE_INTERVAL} columns,
+ * whenever a window pair becomes valid, and if the base window offset is not smaller than the window size (where rolling wouldn't save anything).
+ * @author Carl Witt
+ */
+class RollingPartialMatrixComputer extends PartialMatrixComputer {
+
+    /** The number of rolling updates after which the cross products are computed from scratch, to limit the accumulation of rounding errors. */
+    static final int RECOMPUTE_INTERVAL = 64;
+
+    /** The shifted cross products of the previous column. First dimension refers to the time lag index, second to the window pair (tsAIdx * |B| + tsBIdx). NaN if the window pair wasn't valid. */
+    final double[][] crossProducts;
+
+    /** The values by which the samples of each time series are shifted. */
+    final double[] shiftsA, shiftsB;
+
+    /** The index of the previously computed column and the number of rolling updates since the last recomputation from scratch. */
+    int previousBaseWindowIdx = -1, updatesSinceRecompute = 0;
+
+    RollingPartialMatrixComputer(CorrelationMatrix matrix, int from, int to, Consumer<Integer> progress) {
+        super(matrix, from, to, progress);
+        crossProducts = new double[metadata.getNumberOfDifferentTimeLags()][metadata.setA.size() * metadata.setB.size()];
+        for(double[] lagCrossProducts : crossProducts) Arrays.fill(lagCrossProducts, Double.NaN);
+        shiftsA = metadata.setA.stream().mapToDouble(this::shift).toArray();
+        shiftsB = metadata.setB.stream().mapToDouble(this::shift).toArray();
+    }
+
+    /** @return the mean of all non-NaN values of the time series (zero if there are none). */
+    private double shift(TimeSeries ts){
+        double sum = 0;
+        int count = 0;
+        for(double value : ts.getDataItems().im){
+            if(Double.isNaN(value)) continue;
+            sum += value;
+            count++;
+        }
+        return count == 0 ? 0 : sum / count;
+    }
+
+    @Override CorrelationMatrix.CorrelationColumn computeColumn(int baseWindowIdx) {
+
+        final int windowSize = metadata.windowSize,
+                  offset = metadata.baseWindowOffset,
+                  columnSize = metadata.getNumberOfDifferentTimeLags();
+        final int lastValidWindowStartIdx = metadata.setA.get(0).getSize() - windowSize;
+        final int[] lags = metadata.getDifferentTimeLags();
+
+        boolean roll = previousBaseWindowIdx == baseWindowIdx - 1 && offset < windowSize && updatesSinceRecompute < RECOMPUTE_INTERVAL;
+        updatesSinceRecompute = roll ? updatesSinceRecompute + 1 : 0;
+        previousBaseWindowIdx = baseWindowIdx;
+
+        int baseWindowStartIdx = offset * baseWindowIdx;
+
+        CorrelationHistogram correlationHistogram = matrix.createHistogram();
+        CorrelationMatrix.CorrelationColumn column = matrix.new CorrelationColumnBuilder(baseWindowStartIdx, metadata.tauMin).allEmpty(columnSize).histogram(correlationHistogram).build();
+
+        for (int lagIdx = 0; lagIdx < columnSize; lagIdx++) {
+
+            if(matrix.isCancelled())
+                return null;
+
+            summarizer.clear();
+
+            int lag = lags[lagIdx];
+            int windowAStartIdx = lag >= 0 ? baseWindowStartIdx : baseWindowStartIdx + lag,
+                windowBStartIdx = lag >= 0 ? baseWindowStartIdx - lag : baseWindowStartIdx;
+            boolean validWindows = windowAStartIdx >= 0 && windowBStartIdx >= 0 && windowAStartIdx <= lastValidWindowStartIdx && windowBStartIdx <= lastValidWindowStartIdx;
+
+            double[] lagCrossProducts = crossProducts[lagIdx];
+
+            int pairIdx = 0;
+            for (int tsAIdx = 0; tsAIdx < metadata.setA.size(); tsAIdx++) {
+
+                double[] a = metadata.setA.get(tsAIdx).getDataItems().im;
+                double shiftA = shiftsA[tsAIdx];
+
+                for (int tsBIdx = 0; tsBIdx < metadata.setB.size(); tsBIdx++, pairIdx++) {
+
+                    if( ! validWindows){
+                        lagCrossProducts[pairIdx] = Double.NaN;
+                        continue;
+                    }
+
+                    double[] b = metadata.setB.get(tsBIdx).getDataItems().im;
+                    double shiftB = shiftsB[tsBIdx];
+
+                    double crossProduct = lagCrossProducts[pairIdx];
+                    if(roll && !Double.isNaN(crossProduct)){
+                        // the windows of the previous column start offset samples earlier
+                        int leavingA = windowAStartIdx - offset, leavingB = windowBStartIdx - offset,
+                            enteringA = leavingA + windowSize, enteringB = leavingB + windowSize;
+                        for (int i = 0; i < offset; i++)
+                            crossProduct += (a[enteringA+i] - shiftA) * (b[enteringB+i] - shiftB) - (a[leavingA+i] - shiftA) * (b[leavingB+i] - shiftB);
+                    } else {
+                        crossProduct = 0;
+                        for (int i = 0; i < windowSize; i++)
+                            crossProduct += (a[windowAStartIdx+i] - shiftA) * (b[windowBStartIdx+i] - shiftB);
+                    }
+                    lagCrossProducts[pairIdx] = crossProduct;
+
+                    double covariance = crossProduct - windowSize * (matrix.meansA[tsAIdx][windowAStartIdx] - shiftA) * (matrix.meansB[tsBIdx][windowBStartIdx] - shiftB);
+                    double r = covariance / matrix.L2NormsA[tsAIdx][windowAStartIdx] / matrix.L2NormsB[tsBIdx][windowBStartIdx];
+
+                    if (!Double.isNaN(r)) summarizer.addValue(r);
+
+                } // for each time series in set B
+            } // for each time series in set A
+
+            column.computeCell(summarizer, lagIdx);
+
+        } // for each lag
+
+        return column;
+    }
+
+}
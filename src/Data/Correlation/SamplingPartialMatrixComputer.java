@@ -0,0 +1,149 @@
+package Data.Correlation;
+
+import Data.Statistics.CorrelationHistogram;
+import Data.TimeSeries;
+import Data.Windowing.WindowMetadata;
+
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Computes one horizontal slice of the correlation matrix by estimating the statistics of each cell from a random sample of window pairs (see {@link WindowMetadata#samplingTolerance}).
+ * The pairs are drawn uniformly with replacement among the pairs of complete windows. After each round, the confidence interval half-widths are computed
+ * (normal approximation for the mean, adjusted Wald intervals (x+2)/(n+4) for the significance fractions), and if any exceeds the tolerance,
+ * the sample grows to the size that the current estimates suggest (by at least half). The random numbers are seeded per cell, so the results are reproducible.
+ * @author Carl Witt
+ */
+class SamplingPartialMatrixComputer extends PartialMatrixComputer {
+
+    /** The standard normal quantile for the {@link CorrelationMatrix#SAMPLING_CONFIDENCE} level. */
+    static final double SAMPLING_Z = 1.959963984540054;
+    /** The number of window pairs that are sampled before the confidence intervals are checked for the first time. */
+    static final int INITIAL_SAMPLE_SIZE = 256;
+
+    final double tolerance = metadata.samplingTolerance;
+    final Random random = new Random();
+    /** The indices of the time series whose window in the current cell is complete and not constant. */
+    final int[] validA = new int[metadata.setA.size()], validB = new int[metadata.setB.size()];
+
+    SamplingPartialMatrixComputer(CorrelationMatrix matrix, int from, int to, Consumer<Integer> progress) {
+        super(matrix, from, to, progress);
+    }
+
+    @Override CorrelationMatrix.CorrelationColumn computeColumn(int baseWindowIdx) {
+
+        final int columnSize = metadata.getNumberOfDifferentTimeLags();
+        final int[] lags = metadata.getDifferentTimeLags();
+        final int baseWindowStartIdx = metadata.baseWindowOffset * baseWindowIdx;
+
+        CorrelationHistogram correlationHistogram = matrix.createHistogram();
+        CorrelationMatrix.CorrelationColumn column = matrix.new CorrelationColumnBuilder(baseWindowStartIdx, metadata.tauMin).allEmpty(columnSize).histogram(correlationHistogram).build();
+        column.confidenceHalfWidths = new double[CorrelationMatrix.NUM_STATS][columnSize];
+        long sampled = 0;
+
+        for (int lagIdx = 0; lagIdx < columnSize; lagIdx++) {
+
+            if(matrix.isCancelled())
+                return null;
+
+            summarizer.clear();
+            random.setSeed(((long) baseWindowIdx << 32) ^ lagIdx);
+
+            int lag = lags[lagIdx];
+            int windowAStartIdx = lag >= 0 ? baseWindowStartIdx : baseWindowStartIdx + lag,
+                windowBStartIdx = lag >= 0 ? baseWindowStartIdx - lag : baseWindowStartIdx;
+            int numA = validWindows(metadata.setA, matrix.meansA, matrix.L2NormsA, windowAStartIdx, validA),
+                numB = validWindows(metadata.setB, matrix.meansB, matrix.L2NormsB, windowBStartIdx, validB);
+            long numPairs = (long) numA * numB;
+
+            // the sample grows until the confidence intervals are narrow enough
+            int n = 0;
+            long positive = 0, negative = 0;
+            double mean = 0, squaredDeviations = 0;
+            long sampleSize = Math.min(INITIAL_SAMPLE_SIZE, numPairs);
+            boolean exhaustive = numPairs > 0;
+            while(numPairs > 0 && sampleSize < numPairs / 2){
+                for (; n < sampleSize; n++) {
+                    int tsAIdx = validA[random.nextInt(numA)], tsBIdx = validB[random.nextInt(numB)];
+                    double r = correlation(tsAIdx, windowAStartIdx, tsBIdx, windowBStartIdx);
+                    boolean significant = matrix.significanceTester != null && matrix.significanceTester.significanceTest(r);
+                    summarizer.addValue(r, significant);
+                    if(significant){ if(r > 0) positive++; else negative++; }
+                    double delta = r - mean;
+                    mean += delta / (n + 1);
+                    squaredDeviations += delta * (r - mean);
+                }
+                // the sample size needed for each interval, given the current estimates
+                double needed = matrix.requested[CorrelationMatrix.MEAN] ? squared(SAMPLING_Z / tolerance) * squaredDeviations / (n - 1) : 0;
+                if(matrix.significanceTester != null){
+                    needed = Math.max(needed, proportionSampleSize(positive, n));
+                    needed = Math.max(needed, proportionSampleSize(negative, n));
+                    needed = Math.max(needed, proportionSampleSize(positive + negative, n));
+                }
+                if(needed <= n){ exhaustive = false; break; }
+                sampleSize = (long) Math.ceil(Math.max(needed, 1.5 * n));
+            }
+
+            if(exhaustive){
+                // sampling doesn't pay off: correlate all pairs
+                summarizer.clear();
+                for (int i = 0; i < numA; i++) {
+                    for (int j = 0; j < numB; j++) {
+                        double r = correlation(validA[i], windowAStartIdx, validB[j], windowBStartIdx);
+                        summarizer.addValue(r, matrix.significanceTester != null && matrix.significanceTester.significanceTest(r));
+                    }
+                }
+                sampled += numPairs;
+            }
+            sampled += n;
+
+            column.computeCell(summarizer, lagIdx);
+
+            for (int stat = 0; stat < CorrelationMatrix.NUM_STATS; stat++) column.confidenceHalfWidths[stat][lagIdx] = exhaustive ? 0 : Double.NaN;
+            if(!exhaustive && n > 1){
+                column.confidenceHalfWidths[CorrelationMatrix.MEAN][lagIdx] = SAMPLING_Z * Math.sqrt(squaredDeviations / (n - 1) / n);
+                if(matrix.significanceTester != null){
+                    column.confidenceHalfWidths[CorrelationMatrix.POSITIVE_SIGNIFICANT][lagIdx] = proportionHalfWidth(positive, n);
+                    column.confidenceHalfWidths[CorrelationMatrix.NEGATIVE_SIGNIFICANT][lagIdx] = proportionHalfWidth(negative, n);
+                    column.confidenceHalfWidths[CorrelationMatrix.ABSOLUTE_SIGNIFICANT][lagIdx] = proportionHalfWidth(positive + negative, n);
+                }
+            }
+            for (int stat = 0; stat < CorrelationMatrix.NUM_STATS; stat++) if(Double.isNaN(column.data[stat][lagIdx])) column.confidenceHalfWidths[stat][lagIdx] = Double.NaN;
+
+        } // for each lag
+
+        matrix.sampledPairs.addAndGet(sampled);
+        return column;
+    }
+
+    /** @return the correlation of two complete windows. */
+    private double correlation(int tsAIdx, int windowAStartIdx, int tsBIdx, int windowBStartIdx){
+        double[] a = metadata.setA.get(tsAIdx).getDataItems().im, b = metadata.setB.get(tsBIdx).getDataItems().im;
+        return kernel.covariance(a, windowAStartIdx, matrix.meansA[tsAIdx][windowAStartIdx], b, windowBStartIdx, matrix.meansB[tsBIdx][windowBStartIdx], metadata.windowSize)
+               / matrix.L2NormsA[tsAIdx][windowAStartIdx] / matrix.L2NormsB[tsBIdx][windowBStartIdx];
+    }
+
+    /** Writes the indices of the time series with a complete, non-constant window at the given start index to the target. @return their number */
+    private int validWindows(List<TimeSeries> set, double[][] means, double[][] l2Norms, int windowStartIdx, int[] target){
+        int lastValidWindowStartIdx = set.get(0).getSize() - metadata.windowSize, count = 0;
+        if(windowStartIdx < 0 || windowStartIdx > lastValidWindowStartIdx) return 0;
+        for (int tsIdx = 0; tsIdx < set.size(); tsIdx++)
+            if(!Double.isNaN(means[tsIdx][windowStartIdx]) && l2Norms[tsIdx][windowStartIdx] > 0) target[count++] = tsIdx;
+        return count;
+    }
+
+    /** @return the sample size for which the interval of a fraction with the given count in a sample of size n would be as wide as the tolerance. */
+    private double proportionSampleSize(long count, int n){
+        double p = (count + 2.) / (n + 4.);
+        return squared(SAMPLING_Z / tolerance) * p * (1 - p) - 4;
+    }
+
+    private double proportionHalfWidth(long count, int n){
+        double p = (count + 2.) / (n + 4.);
+        return SAMPLING_Z * Math.sqrt(p * (1 - p) / (n + 4.));
+    }
+
+    private double squared(double x){ return x * x; }
+
+}
@@ -0,0 +1,267 @@
+package Data.Correlation;
+
+import Data.TimeSeries;
+import Data.Windowing.WindowMetadata;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds the individual window pairs (time series A, time series B, base window, time lag) whose absolute correlation reaches a threshold,
+ * instead of summarizing all correlation values of a cell like {@link CorrelationMatrix}. Answers questions like "which ensemble members drive this hotspot".
+ *
+ * The threshold is the critical correlation value of the {@link CorrelationSignificance} test by default. Optionally, only the k strongest correlations per cell are reported,
+ * in which case the threshold rises to the k-th strongest correlation found so far.
+ *
+ * Window pairs that provably can't reach the threshold are abandoned early. The windows of a cell are z-normalized, such that the correlation is the dot product
+ * of the normalized windows. The dot product is accumulated in chunks of {@link #CHUNK_SIZE} samples, and after each chunk the remaining part is bounded by the
+ * Cauchy–Schwarz inequality: |sum over the remaining samples of a<sub>i</sub>b<sub>i</sub>| &le; ||a<sub>rest</sub>|| · ||b<sub>rest</sub>||.
+ * The norms of the remaining parts are precomputed once per window. If the partial dot product plus the bound stays below the threshold, the pair is skipped.
+ *
+ * Windows with missing values are skipped (as with {@link CrossCorrelation.NA_ACTION#LEAVE_UNCHANGED}).
+ * @author Carl Witt
+ */
+public class SignificantPairSearch {
+
+    /** The number of samples between two pruning checks. */
+    static final int CHUNK_SIZE = 16;
+
+    /** Absorbs rounding errors of the partial dot products and tail norms, such that no qualifying pair is pruned. */
+    private static final double BOUND_SLACK = 1e-9;
+
+    /** A window pair whose correlation reaches the threshold. */
+    public static class SignificantPair {
+
+        public final TimeSeries tsA, tsB;
+        /** The column (base window index) and time lag of the cell the pair belongs to. */
+        public final int baseWindowIdx, lag;
+        public final double correlation;
+
+        public SignificantPair(TimeSeries tsA, TimeSeries tsB, int baseWindowIdx, int lag, double correlation) {
+            this.tsA = tsA;
+            this.tsB = tsB;
+            this.baseWindowIdx = baseWindowIdx;
+            this.lag = lag;
+            this.correlation = correlation;
+        }
+
+        @Override public String toString() {
+            return String.format("SignificantPair{tsA: %s, tsB: %s, baseWindowIdx: %d, lag: %d, r: %s}", tsA.getId(), tsB.getId(), baseWindowIdx, lag, correlation);
+        }
+    }
+
+    final WindowMetadata metadata;
+
+    /** Pairs with an absolute correlation of at least this are reported. */
+    private double threshold;
+
+    /** If positive, only the k strongest pairs per cell are reported. */
+    private int topK = 0;
+
+    /** The registry that provides the window means and norms (see {@link CorrelationMatrix#getWindowStatisticsRegistry()}). */
+    private WindowStatisticsRegistry windowStatisticsRegistry;
+
+    /** The number of window pairs that have been correlated completely and the number of pairs that have been abandoned early by the last search. */
+    private final AtomicLong correlatedPairs = new AtomicLong(), prunedPairs = new AtomicLong();
+
+    /** Computes the dot products of the normalized windows. */
+    private final CorrelationKernel kernel = CorrelationKernels.active();
+
+    /** Uses the critical correlation value of the significance test (with the significance level of the metadata) as threshold. */
+    public SignificantPairSearch(WindowMetadata metadata) {
+        this.metadata = metadata;
+        threshold = metadata.windowSize > 2 ? new CorrelationSignificance(metadata.windowSize, CorrelationMatrix.getSignificanceLevel(metadata)).getCriticalCorrelationValue() : Double.POSITIVE_INFINITY;
+    }
+
+    public double getThreshold() { return threshold; }
+    public void setThreshold(double threshold) { this.threshold = threshold; }
+
+    public int getTopK() { return topK; }
+    public void setTopK(int topK) { this.topK = topK; }
+
+    public WindowStatisticsRegistry getWindowStatisticsRegistry() { return windowStatisticsRegistry; }
+    public void setWindowStatisticsRegistry(WindowStatisticsRegistry registry) { this.windowStatisticsRegistry = registry; }
+
+    public long getCorrelatedPairs() { return correlatedPairs.get(); }
+    public long getPrunedPairs() { return prunedPairs.get(); }
+
+    /** Searches all cells of the correlation matrix. */
+    public List<SignificantPair> search(){
+        return search(0, metadata.numBaseWindows, metadata.tauMin, metadata.tauMax);
+    }
+
+    /**
+     * Searches the cells of a rectangular region of the correlation matrix. The columns are processed in parallel.
+     * @param fromColumn the first base window index (inclusive)
+     * @param toColumn the last base window index (exclusive)
+     * @param minLag the smallest time lag to consider (inclusive)
+     * @param maxLag the largest time lag to consider (inclusive)
+     * @return the qualifying pairs ordered by column and time lag. Within a cell, by decreasing absolute correlation in top-k mode and by time series otherwise.
+     */
+    public List<SignificantPair> search(int fromColumn, int toColumn, int minLag, int maxLag){
+
+        correlatedPairs.set(0);
+        prunedPairs.set(0);
+
+        // window means and norms
+        WindowStatisticsRegistry registry = windowStatisticsRegistry != null ? windowStatisticsRegistry : new WindowStatisticsRegistry();
+        WindowStatisticsRegistry.WindowStatistics[] statisticsA = windowStatistics(registry, metadata.setA),
+                                                    statisticsB = windowStatistics(registry, metadata.setB);
+
+        List<Callable<List<SignificantPair>>> tasks = new ArrayList<>();
+        for (int baseWindowIdx = Math.max(0, fromColumn); baseWindowIdx < Math.min(toColumn, metadata.numBaseWindows); baseWindowIdx++) {
+            final int column = baseWindowIdx;
+            tasks.add(() -> searchColumn(column, minLag, maxLag, statisticsA, statisticsB));
+        }
+
+        List<SignificantPair> result = new ArrayList<>();
+        try {
+            for(Future<List<SignificantPair>> f : CorrelationMatrix.COMPUTE_POOL.invokeAll(tasks)) result.addAll(f.get());
+        } catch (InterruptedException | ExecutionException e) {
+            System.out.println(String.format("Significant pair search aborted."));
+            e.printStackTrace();
+        }
+        return result;
+    }
+
+    /** @return the window statistics of each time series in the set, computed in parallel if necessary. */
+    private WindowStatisticsRegistry.WindowStatistics[] windowStatistics(WindowStatisticsRegistry registry, List<TimeSeries> set){
+        WindowStatisticsRegistry.WindowStatistics[] statistics = new WindowStatisticsRegistry.WindowStatistics[set.size()];
+        List<Callable<Void>> tasks = new ArrayList<>(set.size());
+        for (int tsIdx = 0; tsIdx < set.size(); tsIdx++) {
+            WindowStatisticsRegistry.WindowStatistics tsStatistics = registry.get(set.get(tsIdx), metadata.windowSize);
+            statistics[tsIdx] = tsStatistics;
+            tasks.add(() -> { tsStatistics.ensureComputed(); return null; });
+        }
+        try {
+            for(Future<Void> f : CorrelationMatrix.COMPUTE_POOL.invokeAll(tasks)) f.get();
+        } catch (InterruptedException | ExecutionException e) {
+            System.out.println(String.format("Precomputation aborted."));
+            e.printStackTrace();
+        }
+        return statistics;
+    }
+
+    /** @return the qualifying pairs of all cells of a column within the given time lag range. */
+    private List<SignificantPair> searchColumn(int baseWindowIdx, int minLag, int maxLag, WindowStatisticsRegistry.WindowStatistics[] statisticsA, WindowStatisticsRegistry.WindowStatistics[] statisticsB){
+
+        int windowSize = metadata.windowSize,
+            lastValidWindowStartIdx = metadata.setA.get(0).getSize() - windowSize,
+            baseWindowStartIdx = baseWindowIdx * metadata.baseWindowOffset;
+
+        Windows windowsA = new Windows(metadata.setA, statisticsA), windowsB = new Windows(metadata.setB, statisticsB);
+        List<SignificantPair> result = new ArrayList<>();
+
+        for(int lag : metadata.getDifferentTimeLags()){
+            if(lag < minLag || lag > maxLag) continue;
+            int windowAStartIdx = lag >= 0 ? baseWindowStartIdx : baseWindowStartIdx + lag,
+                windowBStartIdx = lag >= 0 ? baseWindowStartIdx - lag : baseWindowStartIdx;
+            if(windowAStartIdx < 0 || windowBStartIdx < 0 || windowAStartIdx > lastValidWindowStartIdx || windowBStartIdx > lastValidWindowStartIdx) continue;
+
+            windowsA.normalize(windowAStartIdx);
+            windowsB.normalize(windowBStartIdx);
+            searchCell(baseWindowIdx, lag, windowsA, windowsB, result);
+        }
+        return result;
+    }
+
+    /** Correlates the normalized windows of a cell pair by pair, abandoning pairs that can't reach the threshold. Adds the qualifying pairs to the result. */
+    private void searchCell(int baseWindowIdx, int lag, Windows windowsA, Windows windowsB, List<SignificantPair> result){
+
+        final int windowSize = metadata.windowSize, numChunks = windowsA.numChunks;
+        PriorityQueue<SignificantPair> strongest = topK > 0 ? new PriorityQueue<>(topK + 1, Comparator.comparingDouble(pair -> Math.abs(pair.correlation))) : null;
+        double effectiveThreshold = threshold;
+        long correlated = 0, pruned = 0;
+
+        for (int tsAIdx = 0; tsAIdx < metadata.setA.size(); tsAIdx++) {
+            if(!windowsA.valid[tsAIdx]) continue;
+            int a = tsAIdx * windowSize, tailA = tsAIdx * (numChunks + 1);
+            for (int tsBIdx = 0; tsBIdx < metadata.setB.size(); tsBIdx++) {
+                if(!windowsB.valid[tsBIdx]) continue;
+                int b = tsBIdx * windowSize, tailB = tsBIdx * (numChunks + 1);
+
+                double r = 0;
+                boolean abandoned = false;
+                for (int chunk = 0; chunk < numChunks; chunk++) {
+                    int from = chunk * CHUNK_SIZE;
+                    r += kernel.dot(windowsA.values, a + from, windowsB.values, b + from, Math.min(CHUNK_SIZE, windowSize - from));
+                    // Cauchy–Schwarz bound on the remaining samples
+                    if(Math.abs(r) + windowsA.tailNorms[tailA + chunk + 1] * windowsB.tailNorms[tailB + chunk + 1] < effectiveThreshold - BOUND_SLACK){
+                        abandoned = true;
+                        break;
+                    }
+                }
+                if(abandoned){ pruned++; continue; }
+                correlated++;
+
+                if(Math.abs(r) < effectiveThreshold) continue;
+                SignificantPair pair = new SignificantPair(metadata.setA.get(tsAIdx), metadata.setB.get(tsBIdx), baseWindowIdx, lag, r);
+                if(strongest == null){
+                    result.add(pair);
+                } else {
+                    strongest.add(pair);
+                    if(strongest.size() > topK) strongest.poll();
+                    if(strongest.size() == topK) effectiveThreshold = Math.max(threshold, Math.abs(strongest.peek().correlation));
+                }
+            }
+        }
+
+        if(strongest != null){
+            List<SignificantPair> cell = new ArrayList<>(strongest);
+            cell.sort(Comparator.comparingDouble((SignificantPair pair) -> Math.abs(pair.correlation)).reversed());
+            result.addAll(cell);
+        }
+        correlatedPairs.addAndGet(correlated);
+        prunedPairs.addAndGet(pruned);
+    }
+
+    /** The z-normalized windows of one ensemble for a single window start index, together with the L2 norms of their remaining parts after each chunk. */
+    private class Windows {
+
+        final List<TimeSeries> set;
+        final WindowStatisticsRegistry.WindowStatistics[] statistics;
+        final int numChunks = (metadata.windowSize + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+        /** values[tsIdx * windowSize + i] is the i-th normalized value of the window of time series tsIdx. */
+        final double[] values;
+        /** tailNorms[tsIdx * (numChunks + 1) + chunk] is the L2 norm of the normalized values from chunk * {@link #CHUNK_SIZE} on (zero after the last chunk). */
+        final double[] tailNorms;
+        /** Whether the window contains no missing values and isn't constant. */
+        final boolean[] valid;
+
+        /** The start index of the currently normalized windows. */
+        int windowStartIdx = -1;
+
+        Windows(List<TimeSeries> set, WindowStatisticsRegistry.WindowStatistics[] statistics) {
+            this.set = set;
+            this.statistics = statistics;
+            values = new double[set.size() * metadata.windowSize];
+            tailNorms = new double[set.size() * (numChunks + 1)];
+            valid = new boolean[set.size()];
+        }
+
+        void normalize(int windowStartIdx){
+            if(windowStartIdx == this.windowStartIdx) return; // e.g. the base windows of all non-negative time lags
+            this.windowStartIdx = windowStartIdx;
+            int windowSize = metadata.windowSize;
+            for (int tsIdx = 0; tsIdx < set.size(); tsIdx++) {
+                double mean = statistics[tsIdx].means[windowStartIdx], l2Norm = statistics[tsIdx].l2Norms[windowStartIdx];
+                valid[tsIdx] = !Double.isNaN(mean) && l2Norm > 0;
+                if(!valid[tsIdx]) continue;
+                double[] data = set.get(tsIdx).getDataItems().im;
+                int offset = tsIdx * windowSize, tailOffset = tsIdx * (numChunks + 1);
+                for (int i = 0; i < windowSize; i++) values[offset + i] = (data[windowStartIdx + i] - mean) / l2Norm;
+                double squares = 0;
+                tailNorms[tailOffset + numChunks] = 0;
+                for (int chunk = numChunks - 1; chunk >= 0; chunk--) {
+                    for (int i = chunk * CHUNK_SIZE; i < Math.min(windowSize, (chunk + 1) * CHUNK_SIZE); i++) squares += values[offset + i] * values[offset + i];
+                    tailNorms[tailOffset + chunk] = Math.sqrt(squares);
+                }
+            }
+        }
+    }
+
+}
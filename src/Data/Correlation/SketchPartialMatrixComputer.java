@@ -0,0 +1,111 @@
+package Data.Correlation;
+
+import Data.Statistics.CorrelationHistogram;
+import Data.TimeSeries;
+import Data.Windowing.WindowMetadata;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Computes one horizontal slice of the correlation matrix from {@link DFTSketch DFT sketches} of the windows (see {@link WindowMetadata#sketchCoefficients}).
+ * The sketches of all windows of a column are computed per time series by sliding over the range of window start indices the column refers to.
+ * Each window pair is approximated by the dot product of the sketches. If the error bound leaves the significance test undecided,
+ * i.e. the interval [|r̃| - bound, |r̃| + bound] contains the critical correlation value, the window pair is correlated exactly.
+ * @author Carl Witt
+ */
+class SketchPartialMatrixComputer extends PartialMatrixComputer {
+
+    /** Absorbs rounding errors of the sketches, such that no undecided window pair is taken as decided. */
+    static final double BOUND_SLACK = 1e-9;
+
+    final DFTSketch sketch;
+    final int numCoefficients;
+
+    /** The sketches and energies of the windows of the current column, first dimension refers to the time series index. */
+    double[][] sketchesA, energiesA, sketchesB, energiesB;
+
+    SketchPartialMatrixComputer(CorrelationMatrix matrix, int from, int to, Consumer<Integer> progress) {
+        super(matrix, from, to, progress);
+        numCoefficients = metadata.sketchCoefficients;
+        sketch = new DFTSketch(metadata.windowSize, numCoefficients);
+        sketchesA = new double[metadata.setA.size()][0];
+        energiesA = new double[metadata.setA.size()][0];
+        sketchesB = new double[metadata.setB.size()][0];
+        energiesB = new double[metadata.setB.size()][0];
+    }
+
+    @Override CorrelationMatrix.CorrelationColumn computeColumn(int baseWindowIdx) {
+
+        final int columnSize = metadata.getNumberOfDifferentTimeLags(), windowSize = metadata.windowSize;
+        final int[] lags = metadata.getDifferentTimeLags();
+        final int baseWindowStartIdx = metadata.baseWindowOffset * baseWindowIdx;
+        final double criticalValue = matrix.significanceTester.criticalCorrelationValue;
+
+        // the A windows start in [s_b + min(0, tauMin), s_b], the B windows in [s_b - max(0, tauMax), s_b]
+        final int fromA = baseWindowStartIdx + Math.min(0, lags[0]), fromB = baseWindowStartIdx - Math.max(0, lags[lags.length - 1]);
+        sketchWindows(metadata.setA, matrix.meansA, matrix.L2NormsA, fromA, baseWindowStartIdx + 1, sketchesA, energiesA);
+        sketchWindows(metadata.setB, matrix.meansB, matrix.L2NormsB, fromB, baseWindowStartIdx + 1, sketchesB, energiesB);
+
+        CorrelationHistogram correlationHistogram = matrix.createHistogram();
+        CorrelationMatrix.CorrelationColumn column = matrix.new CorrelationColumnBuilder(baseWindowStartIdx, metadata.tauMin).allEmpty(columnSize).histogram(correlationHistogram).build();
+        long sketched = 0, refined = 0;
+
+        for (int lagIdx = 0; lagIdx < columnSize; lagIdx++) {
+
+            if(matrix.isCancelled())
+                return null;
+
+            summarizer.clear();
+
+            int lag = lags[lagIdx];
+            int windowAStartIdx = lag >= 0 ? baseWindowStartIdx : baseWindowStartIdx + lag,
+                windowBStartIdx = lag >= 0 ? baseWindowStartIdx - lag : baseWindowStartIdx;
+            int sketchOffsetA = (windowAStartIdx - fromA) * 2 * numCoefficients, sketchOffsetB = (windowBStartIdx - fromB) * 2 * numCoefficients;
+
+            for (int tsAIdx = 0; tsAIdx < metadata.setA.size(); tsAIdx++) {
+                double energyA = energiesA[tsAIdx][windowAStartIdx - fromA];
+                if(Double.isNaN(energyA)) continue;
+                for (int tsBIdx = 0; tsBIdx < metadata.setB.size(); tsBIdx++) {
+                    double energyB = energiesB[tsBIdx][windowBStartIdx - fromB];
+                    if(Double.isNaN(energyB)) continue;
+
+                    double r = DFTSketch.approximateCorrelation(sketchesA[tsAIdx], sketchOffsetA, sketchesB[tsBIdx], sketchOffsetB, numCoefficients);
+                    double bound = DFTSketch.errorBound(energyA, energyB) + BOUND_SLACK;
+                    boolean significant;
+                    sketched++;
+                    if(Math.abs(r) - bound >= criticalValue) significant = true;
+                    else if(Math.abs(r) + bound < criticalValue) significant = false;
+                    else {
+                        // refine
+                        double[] a = metadata.setA.get(tsAIdx).getDataItems().im, b = metadata.setB.get(tsBIdx).getDataItems().im;
+                        r = kernel.covariance(a, windowAStartIdx, matrix.meansA[tsAIdx][windowAStartIdx], b, windowBStartIdx, matrix.meansB[tsBIdx][windowBStartIdx], windowSize)
+                            / matrix.L2NormsA[tsAIdx][windowAStartIdx] / matrix.L2NormsB[tsBIdx][windowBStartIdx];
+                        significant = matrix.significanceTester.significanceTest(r);
+                        refined++;
+                    }
+                    if(!Double.isNaN(r)) summarizer.addValue(r, significant);
+                }
+            }
+
+            column.computeCell(summarizer, lagIdx);
+
+        } // for each lag
+
+        matrix.sketchedPairs.addAndGet(sketched);
+        matrix.refinedPairs.addAndGet(refined);
+        return column;
+    }
+
+    /** Computes the sketches of the windows starting in [from, to) for each time series of the set. Grows the target arrays if necessary. */
+    private void sketchWindows(List<TimeSeries> set, double[][] means, double[][] l2Norms, int from, int to, double[][] sketches, double[][] energies){
+        for (int tsIdx = 0; tsIdx < set.size(); tsIdx++) {
+            if(energies[tsIdx].length < to - from){
+                sketches[tsIdx] = new double[(to - from) * 2 * numCoefficients];
+                energies[tsIdx] = new double[to - from];
+            }
+            sketch.compute(set.get(tsIdx).getDataItems().im, means[tsIdx], l2Norms[tsIdx], from, to, sketches[tsIdx], energies[tsIdx]);
+        }
+    }
+
+}
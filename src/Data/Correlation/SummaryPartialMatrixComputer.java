@@ -0,0 +1,90 @@
+package Data.Correlation;
+
+import Data.Statistics.CellSummary;
+import Data.Statistics.CorrelationHistogram;
+import Data.Windowing.WindowMetadata;
+
+import java.util.function.Consumer;
+
+/**
+ * Computes each cell into a {@link CellSummary} and keeps the summaries in the columns (see {@link CorrelationMatrix#cellSummaryBudget}).
+ * If the matrix is derived from a {@link CorrelationMatrix#membershipChange membership basis}, each summary is a copy of the basis summary
+ * without the window pairs of removed time series and with the window pairs of added time series. Otherwise, all window pairs are summarized.
+ * @author Carl Witt
+ */
+class SummaryPartialMatrixComputer extends PartialMatrixComputer {
+
+    final int fineBins = metadata.histogramBins > 0 ? metadata.histogramBins : CellSummary.FINE_BINS;
+    final int[] allA = CorrelationMatrix.range(metadata.setA.size()), allB = CorrelationMatrix.range(metadata.setB.size());
+    /** Collects the window pairs that are removed from a basis summary. */
+    final CellSummary removed = new CellSummary(fineBins);
+
+    SummaryPartialMatrixComputer(CorrelationMatrix matrix, int from, int to, Consumer<Integer> progress) {
+        super(matrix, from, to, progress);
+    }
+
+    @Override CorrelationMatrix.CorrelationColumn computeColumn(int baseWindowIdx) {
+
+        final int[] lags = metadata.getDifferentTimeLags();
+        final int baseWindowStartIdx = metadata.baseWindowOffset * baseWindowIdx;
+        final MembershipChange change = matrix.membershipChange;
+
+        CorrelationHistogram correlationHistogram = matrix.createHistogram();
+        CorrelationMatrix.CorrelationColumn column = matrix.new CorrelationColumnBuilder(baseWindowStartIdx, metadata.tauMin).allEmpty(lags.length).histogram(correlationHistogram).build();
+        column.cellSummaries = new CellSummary[lags.length];
+        CellSummary[] basisSummaries = change == null ? null : change.basis.columns.get(baseWindowIdx).cellSummaries;
+
+        for (int lagIdx = 0; lagIdx < lags.length; lagIdx++) {
+
+            if(matrix.isCancelled())
+                return null;
+
+            int lag = lags[lagIdx];
+            int windowAStartIdx = lag >= 0 ? baseWindowStartIdx : baseWindowStartIdx + lag,
+                windowBStartIdx = lag >= 0 ? baseWindowStartIdx - lag : baseWindowStartIdx;
+
+            CellSummary summary;
+            if(basisSummaries == null){
+                summary = new CellSummary(fineBins);
+                summarizePairs(matrix, summary, windowAStartIdx, windowBStartIdx, allA, allB);
+            } else {
+                summary = new CellSummary(basisSummaries[lagIdx]);
+                removed.clear();
+                summarizePairs(change.basisTerms, removed, windowAStartIdx, windowBStartIdx, change.removedA, change.basisB);
+                summarizePairs(change.basisTerms, removed, windowAStartIdx, windowBStartIdx, change.keptA, change.removedB);
+                summary.remove(removed);
+                summarizePairs(matrix, summary, windowAStartIdx, windowBStartIdx, change.addedA, allB);
+                summarizePairs(matrix, summary, windowAStartIdx, windowBStartIdx, change.keptNewA, change.addedB);
+            }
+            column.cellSummaries[lagIdx] = summary;
+            column.computeCell(summary, lagIdx);
+        }
+
+        return column;
+    }
+
+    /**
+     * Adds the correlation values of the given window pairs of the matrix to a summary: the window starting at windowAStartIdx of each of the given time series of set A,
+     * paired with the window starting at windowBStartIdx of each of the given time series of set B. Incomplete windows produce no values.
+     * @param tsAIdxs indices into set A
+     * @param tsBIdxs indices into set B
+     */
+    static void summarizePairs(CorrelationMatrix matrix, CellSummary target, int windowAStartIdx, int windowBStartIdx, int[] tsAIdxs, int[] tsBIdxs){
+
+        final WindowMetadata metadata = matrix.metadata;
+        final int lastValidWindowStartIdx = metadata.setA.get(0).getSize() - metadata.windowSize;
+        if(windowAStartIdx < 0 || windowBStartIdx < 0 || windowAStartIdx > lastValidWindowStartIdx || windowBStartIdx > lastValidWindowStartIdx) return;
+        final CorrelationKernel kernel = CorrelationKernels.active();
+
+        for (int tsAIdx : tsAIdxs) {
+            double[] a = metadata.setA.get(tsAIdx).getDataItems().im;
+            for (int tsBIdx : tsBIdxs) {
+                double[] b = metadata.setB.get(tsBIdx).getDataItems().im;
+                double covariance = kernel.covariance(a, windowAStartIdx, matrix.meansA[tsAIdx][windowAStartIdx], b, windowBStartIdx, matrix.meansB[tsBIdx][windowBStartIdx], metadata.windowSize);
+                double r = covariance / matrix.L2NormsA[tsAIdx][windowAStartIdx] / matrix.L2NormsB[tsBIdx][windowBStartIdx];
+                if(!Double.isNaN(r)) target.add(r, matrix.significanceTester != null && matrix.significanceTester.significanceTest(r));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+package Data.Correlation;
+
+import Data.Statistics.CellSummary;
+import Data.Statistics.CorrelationHistogram;
+import Data.Windowing.WindowMetadata;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Computes a correlation matrix column by column, partitioning the set A × set B pair space of each column into tiles that are computed in parallel
+ * (see {@link CorrelationMatrix#setPairTiling(boolean)}).
+ * @author Carl Witt
+ */
+class TiledComputation {
+
+    final CorrelationMatrix matrix;
+    final WindowMetadata metadata;
+
+    TiledComputation(CorrelationMatrix matrix) {
+        this.matrix = matrix;
+        this.metadata = matrix.metadata;
+    }
+
+    /** The maximum memory (in bytes) for the cell summaries of the workers of a tiled computation (64 MB). Limits the number of workers for columns with many time lags. */
+    static final long TILED_SUMMARY_BUDGET_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Computes the columns one after another, each by partitioning the set A × set B pair space into tiles (contiguous ranges of time series in set A, paired with all time series in set B).
+     * The workers take the tiles of a column one by one and summarize them in one {@link CellSummary} per cell, which each worker allocates once and reuses for all columns.
+     * When a worker runs out of tiles, it merges its summaries into the column summaries, which are then converted into the column statistics and histograms.
+     * This utilizes all cores even for a single column, as long as set A contains at least as many time series as there are workers.
+     * The number of workers is bounded by {@link #TILED_SUMMARY_BUDGET_BYTES}.
+     */
+    void compute(Consumer<Integer> reportProgress){
+
+        int sizeA = metadata.setA.size(), numLags = metadata.getNumberOfDifferentTimeLags();
+        int fineBins = metadata.histogramBins > 0 ? metadata.histogramBins : CellSummary.FINE_BINS;
+        int numTiles = Math.max(1, Math.min(sizeA, CorrelationMatrix.COMPUTE_POOL.getParallelism() * CorrelationMatrix.BLOCKS_PER_THREAD));
+        long summariesPerBudget = TILED_SUMMARY_BUDGET_BYTES / ((long) numLags * CorrelationMatrix.cellSummaryBytes(fineBins));
+        int numWorkers = (int) Math.max(1, Math.min(Math.min(numTiles, CorrelationMatrix.COMPUTE_POOL.getParallelism()), summariesPerBudget - 1)); // one set for the merged summaries
+
+        CellSummary[] merged = newSummaries(numLags, fineBins);
+        CellSummary[][] workerSummaries = new CellSummary[numWorkers][];
+        for (int worker = 0; worker < numWorkers; worker++) workerSummaries[worker] = newSummaries(numLags, fineBins);
+
+        for (int baseWindowIdx = 0; baseWindowIdx < metadata.numBaseWindows; baseWindowIdx++) {
+
+            for(CellSummary summary : merged) summary.clear();
+            AtomicInteger nextTile = new AtomicInteger();
+            List<Callable<Void>> workers = new ArrayList<>(numWorkers);
+            for (int worker = 0; worker < numWorkers; worker++) {
+                CellSummary[] summaries = workerSummaries[worker];
+                int column = baseWindowIdx;
+                workers.add(() -> {
+                    for(CellSummary summary : summaries) summary.clear();
+                    for (int tile = nextTile.getAndIncrement(); tile < numTiles; tile = nextTile.getAndIncrement())
+                        summarizeTile(summaries, column, tile * sizeA / numTiles, (tile + 1) * sizeA / numTiles);
+                    synchronized (merged){
+                        for (int lagIdx = 0; lagIdx < numLags; lagIdx++) merged[lagIdx].merge(summaries[lagIdx]);
+                    }
+                    return null;
+                });
+            }
+
+            try {
+                for(Future<Void> workerResult : CorrelationMatrix.COMPUTE_POOL.invokeAll(workers)) workerResult.get();
+            } catch (InterruptedException | ExecutionException e) {
+                System.out.println(String.format("Computation aborted."));
+                matrix.cancelled = true;
+                e.printStackTrace();
+            }
+            if(matrix.isCancelled()) return;
+
+            int baseWindowStartIdx = metadata.baseWindowOffset * baseWindowIdx;
+            CorrelationHistogram correlationHistogram = matrix.createHistogram();
+            CorrelationMatrix.CorrelationColumn column = matrix.new CorrelationColumnBuilder(baseWindowStartIdx, metadata.tauMin).allEmpty(numLags).histogram(correlationHistogram).build();
+            for (int lagIdx = 0; lagIdx < numLags; lagIdx++) column.computeCell(merged[lagIdx], lagIdx);
+            matrix.append(column);
+
+            int finished = matrix.finishedColumns.incrementAndGet();
+            if(reportProgress != null) reportProgress.accept(finished);
+        }
+    }
+
+    /** @return empty summaries for the given number of cells. */
+    private static CellSummary[] newSummaries(int numCells, int fineBins){
+        CellSummary[] summaries = new CellSummary[numCells];
+        for (int cellIdx = 0; cellIdx < numCells; cellIdx++) summaries[cellIdx] = new CellSummary(fineBins);
+        return summaries;
+    }
+
+    /** Adds the correlation values of the window pairs formed by the time series [fromA, toA[ of set A and all time series in set B to the summaries of the cells of a column. */
+    void summarizeTile(CellSummary[] summaries, int baseWindowIdx, int fromA, int toA){
+
+        final int lastValidWindowStartIdx = metadata.setA.get(0).getSize() - metadata.windowSize;
+        final int[] lags = metadata.getDifferentTimeLags();
+        final CorrelationKernel kernel = CorrelationKernels.active();
+        int baseWindowStartIdx = metadata.baseWindowOffset * baseWindowIdx;
+
+        for (int lagIdx = 0; lagIdx < lags.length; lagIdx++) {
+            if(matrix.isCancelled()) return;
+
+            int lag = lags[lagIdx];
+            int windowAStartIdx = lag >= 0 ? baseWindowStartIdx : baseWindowStartIdx + lag,
+                windowBStartIdx = lag >= 0 ? baseWindowStartIdx - lag : baseWindowStartIdx;
+            if(windowAStartIdx < 0 || windowBStartIdx < 0 || windowAStartIdx > lastValidWindowStartIdx || windowBStartIdx > lastValidWindowStartIdx) continue;
+
+            for (int tsAIdx = fromA; tsAIdx < toA; tsAIdx++) {
+                double[] a = metadata.setA.get(tsAIdx).getDataItems().im;
+                for (int tsBIdx = 0; tsBIdx < metadata.setB.size(); tsBIdx++) {
+                    double[] b = metadata.setB.get(tsBIdx).getDataItems().im;
+                    double covariance = kernel.covariance(a, windowAStartIdx, matrix.meansA[tsAIdx][windowAStartIdx], b, windowBStartIdx, matrix.meansB[tsBIdx][windowBStartIdx], metadata.windowSize);
+                    double r = covariance / matrix.L2NormsA[tsAIdx][windowAStartIdx] / matrix.L2NormsB[tsBIdx][windowBStartIdx];
+                    if(!Double.isNaN(r)) summaries[lagIdx].add(r, matrix.significanceTester != null && matrix.significanceTester.significanceTest(r));
+                }
+            }
+        }
+    }
+}
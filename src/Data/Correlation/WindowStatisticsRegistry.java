@@ -0,0 +1,80 @@
+package Data.Correlation;
+
+import Data.TimeSeries;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Holds the precomputed window means and L2 norms (see {@link CorrelationMatrix#precomputeWindowTerms(double[], int, double[], double[])}) per time series and window size.
+ * A time series that appears in both set A and set B (or in several computations that use the same registry) is processed only once
+ * and its arrays are referenced from both {@link CorrelationMatrix#meansA} and {@link CorrelationMatrix#meansB} (analogously for the L2 norms).
+ *
+ * Time series are identified by object identity, since their values may change (e.g. when they are loaded from a file).
+ * If the time series has been modified since the statistics were computed (see {@link TimeSeries#getModificationCount()}), the next {@link WindowStatistics#ensureComputed()} updates them.
+ * Values that have been appended (see {@link TimeSeries#append(double...)}) only require computing the new windows.
+ * @author Carl Witt
+ */
+public class WindowStatisticsRegistry {
+
+    /** The window means and L2 norms of a single time series for a single window size. */
+    public static class WindowStatistics {
+
+        final TimeSeries timeSeries;
+        final int windowSize;
+
+        /** The mean and the L2 norm of the mean-shifted values of the window starting at each index of the time series. Null until {@link #ensureComputed()} has been called.
+         * When the time series grows, the arrays are extended in place if they have spare capacity and replaced by arrays with twice the capacity otherwise.
+         * Entries beyond the last window that fits into the time series are NaN. */
+        public double[] means, l2Norms;
+
+        /** The length and the {@link TimeSeries#getModificationCount() modification count} of the time series when the means and norms were last computed.
+         * The length is -1 if they haven't been computed. */
+        private int computedLength = -1, computedModificationCount;
+
+        WindowStatistics(TimeSeries timeSeries, int windowSize) {
+            this.timeSeries = timeSeries;
+            this.windowSize = windowSize;
+        }
+
+        /** Computes the means and L2 norms unless that has already been done for the current values. If values have been appended to the time series since,
+         * computes only the windows that overlap the new values. Safe to call concurrently. */
+        public synchronized void ensureComputed(){
+            int length = timeSeries.getSize(), modificationCount = timeSeries.getModificationCount();
+            if(computedLength >= 0 && computedModificationCount == modificationCount) return;
+            if(computedLength < 0 || computedLength > length){
+                means = new double[length];
+                l2Norms = new double[length];
+                CorrelationMatrix.precomputeWindowTerms(timeSeries.getDataItems().im, windowSize, means, l2Norms);
+            } else {
+                // the windows that end before the appended values are unchanged. grow geometrically to avoid copying the arrays on each append.
+                if(means.length < length){
+                    int capacity = Math.max(length, 2 * means.length);
+                    means = Arrays.copyOf(means, capacity);
+                    l2Norms = Arrays.copyOf(l2Norms, capacity);
+                }
+                CorrelationMatrix.precomputeWindowTerms(timeSeries.getDataItems().im, windowSize, means, l2Norms, Math.max(0, computedLength - windowSize + 1));
+            }
+            computedLength = length;
+            computedModificationCount = modificationCount;
+        }
+    }
+
+    private final Map<TimeSeries, Map<Integer, WindowStatistics>> statistics = new IdentityHashMap<>();
+
+    /**
+     * @return the window statistics of the time series for the given window size. The means and norms need to be computed with {@link WindowStatistics#ensureComputed()} before use.
+     */
+    public synchronized WindowStatistics get(TimeSeries timeSeries, int windowSize){
+        return statistics.computeIfAbsent(timeSeries, ts -> new HashMap<>())
+                         .computeIfAbsent(windowSize, w -> new WindowStatistics(timeSeries, w));
+    }
+
+    /** @return the number of (time series, window size) combinations held by the registry. */
+    public synchronized int size(){
+        return statistics.values().stream().mapToInt(Map::size).sum();
+    }
+
+}
@@ -1,6 +1,7 @@
 package Data.IO;
 
 import Data.Correlation.CorrelationMatrix;
+import Data.Correlation.CrossCorrelation;
 import Data.DataModel;
 import Data.Statistics.CorrelationHistogram;
 import Data.TimeSeries;
@@ -13,6 +14,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Stores a computation result (i.e. a correlation matrix) in NetCDF file format.
@@ -39,7 +41,14 @@ public class NetCDFCorrelationMatrix {
     private final static int SET_A_IDS = 5;
     private final static int SET_B_IDS = 6;
     private final static int SIGNIFICANCE_LEVEL = 7;
-    private final static int NUM_ATTRIBUTES = 8;
+    private final static int PRECISION = 8;
+    private final static int HISTOGRAM_BINS = 9;
+    private final static int REQUESTED_STATISTICS = 10;
+    private final static int NA_ACTION = 11;
+    private final static int SKETCH_COEFFICIENTS = 12;
+    private final static int SAMPLING_TOLERANCE = 13;
+    private final static int PREVIEW_LEVEL = 14;
+    private final static int NUM_ATTRIBUTES = 15;
     private final static String[] attributeNames = new String[]{
             "WindowSize",
             "WindowOffset",
@@ -48,7 +57,14 @@ public class NetCDFCorrelationMatrix {
             "TimeLagStep",
             "TimeSeriesSet_A_IDs",
             "TimeSeriesSet_B_IDs",
-            "Significance_Level"};
+            "Significance_Level",
+            "Precision",
+            "Histogram_Bins",
+            "Requested_Statistics",
+            "NA_Action",
+            "Sketch_Coefficients",
+            "Sampling_Tolerance",
+            "Preview_Level"};
 
     /** The different aggregation statistics for each cell. Each statistic is stored in its own two dimensional array, that's why the values are an array of ArrayDouble.D2.
      * The data could have been stored in a three-dimensional array as well, using a categorical dimension to label the name of the statistic, but this way, post processing might be easier (no need to extract a slice from a 3D array for accessing e.g. all the means.)
@@ -62,6 +78,12 @@ public class NetCDFCorrelationMatrix {
     private ArrayShort.D3 valuesForCellDistributionHistograms;
     private boolean hasCellDistributionHistograms = false;
 
+    /** The half-widths of the confidence intervals of the statistics of each cell, if the statistics have been estimated from a sample of window pairs
+     * (see {@link Data.Correlation.CorrelationMatrix.CorrelationColumn#confidenceHalfWidths}). Third dimension refers to the statistic. */
+    private Variable confidenceHalfWidths;
+    private ArrayDouble.D3 valuesForConfidenceHalfWidths;
+    private boolean hasConfidenceHalfWidths = false;
+
     /** Holds the actual time lags (time lag index 0: minimum time lag, time lag index 1: minimum time lag + 1*time lag step, etc...) */
     private Variable timeLags;
     private Array    dataTimeLags;
@@ -123,6 +145,13 @@ public class NetCDFCorrelationMatrix {
         metadataAttributes[SET_A_IDS] = dataFile.findGlobalAttribute(attributeName(SET_A_IDS));
         metadataAttributes[SET_B_IDS] = dataFile.findGlobalAttribute(attributeName(SET_B_IDS));
         metadataAttributes[SIGNIFICANCE_LEVEL] = dataFile.findGlobalAttribute(attributeName(SIGNIFICANCE_LEVEL));
+        metadataAttributes[PRECISION] = dataFile.findGlobalAttribute(attributeName(PRECISION));
+        metadataAttributes[HISTOGRAM_BINS] = dataFile.findGlobalAttribute(attributeName(HISTOGRAM_BINS));
+        metadataAttributes[REQUESTED_STATISTICS] = dataFile.findGlobalAttribute(attributeName(REQUESTED_STATISTICS));
+        metadataAttributes[NA_ACTION] = dataFile.findGlobalAttribute(attributeName(NA_ACTION));
+        metadataAttributes[SKETCH_COEFFICIENTS] = dataFile.findGlobalAttribute(attributeName(SKETCH_COEFFICIENTS));
+        metadataAttributes[SAMPLING_TOLERANCE] = dataFile.findGlobalAttribute(attributeName(SAMPLING_TOLERANCE));
+        metadataAttributes[PREVIEW_LEVEL] = dataFile.findGlobalAttribute(attributeName(PREVIEW_LEVEL));
 
         int setASize = metadataAttributes[SET_A_IDS].getLength(),
                 setBSize = metadataAttributes[SET_B_IDS].getLength();
@@ -130,9 +159,13 @@ public class NetCDFCorrelationMatrix {
                 setBSeries = new ArrayList<>(setBSize);
         for (int i = 0; i < setASize; i++) setASeries.add(dataModel.get(0, (int) metadataAttributes[SET_A_IDS].getValue(i)));
         for (int i = 0; i < setBSize; i++) setBSeries.add(dataModel.get(1, (int) metadataAttributes[SET_B_IDS].getValue(i)));
+        // files without the attribute contain full resolution results. previews refer to the downsampled time series.
+        int previewLevel = metadataAttributes[PREVIEW_LEVEL] == null ? 0 : metadataAttributes[PREVIEW_LEVEL].getNumericValue().intValue();
+        setASeries.replaceAll(ts -> ts.getPyramidLevel(previewLevel));
+        setBSeries.replaceAll(ts -> ts.getPyramidLevel(previewLevel));
 
         // re-create metadata object
-        WindowMetadata metadata = new WindowMetadata.Builder(
+        WindowMetadata.Builder builder = new WindowMetadata.Builder(
                 (int) metadataAttributes[TAU_MIN].getNumericValue(),
                 (int) metadataAttributes[TAU_MAX].getNumericValue(),
                 (int) metadataAttributes[WINDOW_SIZE].getNumericValue(),
@@ -140,7 +173,24 @@ public class NetCDFCorrelationMatrix {
                 (int) metadataAttributes[BASEWINDOW_OFFSET].getNumericValue())
                 .tsA(setASeries)
                 .tsB(setBSeries)
-                .build();
+                // files written before the precision attribute was introduced contain double precision results
+                .precision(metadataAttributes[PRECISION] == null ? CorrelationMatrix.PRECISION.DOUBLE : CorrelationMatrix.PRECISION.valueOf(metadataAttributes[PRECISION].getStringValue()))
+                // files without the attribute contain exact statistics
+                .histogramBins(metadataAttributes[HISTOGRAM_BINS] == null ? 0 : metadataAttributes[HISTOGRAM_BINS].getNumericValue().intValue())
+                // files without the attribute ignore windows with missing values
+                .naAction(metadataAttributes[NA_ACTION] == null ? CrossCorrelation.NA_ACTION.LEAVE_UNCHANGED : CrossCorrelation.NA_ACTION.valueOf(metadataAttributes[NA_ACTION].getStringValue()))
+                // files without the attribute contain exact correlation values
+                .sketchCoefficients(metadataAttributes[SKETCH_COEFFICIENTS] == null ? 0 : metadataAttributes[SKETCH_COEFFICIENTS].getNumericValue().intValue())
+                // files without the attribute contain statistics over all window pairs
+                .samplingTolerance(metadataAttributes[SAMPLING_TOLERANCE] == null ? 0 : metadataAttributes[SAMPLING_TOLERANCE].getNumericValue().doubleValue())
+                .previewLevel(previewLevel);
+        // files without the attribute contain all statistics
+        if(metadataAttributes[REQUESTED_STATISTICS] != null){
+            Integer[] requestedStatistics = new Integer[metadataAttributes[REQUESTED_STATISTICS].getLength()];
+            for (int i = 0; i < requestedStatistics.length; i++) requestedStatistics[i] = metadataAttributes[REQUESTED_STATISTICS].getNumericValue(i).intValue();
+            builder.statistics(requestedStatistics);
+        }
+        WindowMetadata metadata = builder.build();
         CorrelationMatrix.setSignificanceLevel(metadata, (double) metadataAttributes[SIGNIFICANCE_LEVEL].getNumericValue());
 
         // re-create matrix and its column structure
@@ -197,6 +247,18 @@ public class NetCDFCorrelationMatrix {
 
         }
 
+        // read confidence interval half-widths (files without the variable contain statistics over all window pairs)
+        confidenceHalfWidths = dataFile.findVariable(null, confidenceHalfWidthVariableName());
+        if(confidenceHalfWidths != null){
+            valuesForConfidenceHalfWidths = (ArrayDouble.D3) confidenceHalfWidths.read();
+            for (int windowIdx = 0; windowIdx < metadata.numBaseWindows; windowIdx++) {
+                CorrelationMatrix.CorrelationColumn column = matrix.getColumn(windowIdx);
+                column.confidenceHalfWidths = new double[CorrelationMatrix.NUM_STATS][columnLength];
+                for (int stat = 0; stat < CorrelationMatrix.NUM_STATS; stat++)
+                    for (int lagIdx = 0; lagIdx < columnLength; lagIdx++)
+                        column.confidenceHalfWidths[stat][lagIdx] = valuesForConfidenceHalfWidths.get(windowIdx, lagIdx, stat);
+            }
+        }
 
     }
     /**
@@ -230,6 +292,17 @@ public class NetCDFCorrelationMatrix {
         metadataAttributes[SET_A_IDS] = new Attribute(attributeName(SET_A_IDS), setAIds);
         metadataAttributes[SET_B_IDS] = new Attribute(attributeName(SET_B_IDS), setBIds);
         metadataAttributes[SIGNIFICANCE_LEVEL] = new Attribute(attributeName(SIGNIFICANCE_LEVEL), CorrelationMatrix.getSignificanceLevel(metadata));
+        metadataAttributes[PRECISION] = new Attribute(attributeName(PRECISION), metadata.precision.name());
+        metadataAttributes[HISTOGRAM_BINS] = new Attribute(attributeName(HISTOGRAM_BINS), metadata.histogramBins);
+        Set<Integer> requestedStatistics = metadata.requestedStatistics;
+        ArrayInt.D1 requestedStatisticsArray = new ArrayInt.D1(requestedStatistics.size());
+        int statisticIdx = 0;
+        for(int stat : requestedStatistics) requestedStatisticsArray.set(statisticIdx++, stat);
+        metadataAttributes[REQUESTED_STATISTICS] = new Attribute(attributeName(REQUESTED_STATISTICS), requestedStatisticsArray);
+        metadataAttributes[NA_ACTION] = new Attribute(attributeName(NA_ACTION), metadata.naAction.name());
+        metadataAttributes[SKETCH_COEFFICIENTS] = new Attribute(attributeName(SKETCH_COEFFICIENTS), metadata.sketchCoefficients);
+        metadataAttributes[SAMPLING_TOLERANCE] = new Attribute(attributeName(SAMPLING_TOLERANCE), metadata.samplingTolerance);
+        metadataAttributes[PREVIEW_LEVEL] = new Attribute(attributeName(PREVIEW_LEVEL), metadata.previewLevel);
 
         for(Attribute a : metadataAttributes)
             dataFile.addGroupAttribute(null, a);
@@ -286,6 +359,8 @@ public class NetCDFCorrelationMatrix {
             for (int windowIdx = 0; windowIdx < windowIndex.getLength(); windowIdx++) {
 
                 CorrelationMatrix.CorrelationColumn column = matrix.getColumn(windowIdx);
+                // histograms that have been computed on demand for a range of columns only (the remaining histograms stay empty)
+                if(column.histogram == null) continue;
 
                 for (int timeLagIdx = 0; timeLagIdx < timeLagIndex.getLength(); timeLagIdx++){
 
@@ -298,6 +373,23 @@ public class NetCDFCorrelationMatrix {
 
         } // end if matrix has correlation histograms
 
+        // write the confidence interval half-widths of sampled statistics
+        if(matrix.getSize() > 0 && matrix.getColumn(0).confidenceHalfWidths != null){
+
+            hasConfidenceHalfWidths = true;
+
+            Dimension statisticIndex = dataFile.addDimension(null, statisticDimensionName(), CorrelationMatrix.NUM_STATS);
+            confidenceHalfWidths = dataFile.addVariable(null, confidenceHalfWidthVariableName(), DataType.DOUBLE, Arrays.asList(windowIndex, timeLagIndex, statisticIndex));
+            valuesForConfidenceHalfWidths = new ArrayDouble.D3(windowIndex.getLength(), timeLagIndex.getLength(), CorrelationMatrix.NUM_STATS);
+
+            for (int windowIdx = 0; windowIdx < windowIndex.getLength(); windowIdx++) {
+                CorrelationMatrix.CorrelationColumn column = matrix.getColumn(windowIdx);
+                for (int timeLagIdx = 0; timeLagIdx < timeLagIndex.getLength(); timeLagIdx++)
+                    for (int stat = 0; stat < CorrelationMatrix.NUM_STATS; stat++)
+                        valuesForConfidenceHalfWidths.set(windowIdx, timeLagIdx, stat, column.confidenceHalfWidths == null ? Double.NaN : column.confidenceHalfWidths[stat][timeLagIdx]);
+            }
+        }
+
     }
 
     /**
@@ -316,16 +408,23 @@ public class NetCDFCorrelationMatrix {
             // the correlation distribution histograms
             dataFile.write(cellDistributionHistograms, valuesForCellDistributionHistograms);
         }
+
+        if(hasConfidenceHalfWidths)
+            dataFile.write(confidenceHalfWidths, valuesForConfidenceHalfWidths);
     }
 
     // generators for dimension-, attribute- and variable names (need to be the same when writing and reading from a file).
     private String windowDimensionName() { return computationResultName + "_WindowIndex"; }
     private String timeLagDimensionName() { return computationResultName + "_TimeLag"; }
     private String binDimensionName() { return computationResultName + "_BinIdx"; }
+    private String statisticDimensionName() { return computationResultName + "_StatisticIdx"; }
     String attributeName(int attribute){ return computationResultName + "_" + attributeNames[attribute]; }
     private String binVariableName(){
         return computationResultName + "_correlation_histogram";
     }
+    private String confidenceHalfWidthVariableName(){
+        return computationResultName + "_confidence_half_width";
+    }
     String variableName(int statistic){
         String[] statisticsLabels = new String[]{"mean", "standard_deviation", "median", "interquartile_range", "%_positive_significant", "%_negative_significant", "%_significant"};
         assert statisticsLabels.length == CorrelationMatrix.NUM_STATS : "Add variable names to the persist logic.";
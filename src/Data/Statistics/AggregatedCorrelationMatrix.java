@@ -214,6 +214,9 @@ public class AggregatedCorrelationMatrix {
         public double minCorrelation = Double.NaN, firstQuartileCorrelation = Double.NaN, medianCorrelation = Double.NaN, thirdQuartileCorrelation = Double.NaN, maxCorrelation = Double.NaN;
         /** The uncertainty distribution summary of the cells in the region */
         public double minUncertainty = Double.NaN, averageUncertainty = Double.NaN, maxUncertainty = Double.NaN;
+        /** The confidence interval half-widths of the correlation and uncertainty values of a single cell whose statistics have been estimated from a sample
+         * (see {@link Data.Correlation.CorrelationMatrix.CorrelationColumn#confidenceHalfWidths}). NaN if not available. */
+        public double correlationHalfWidth = Double.NaN, uncertaintyHalfWidth = Double.NaN;
 
         /** Whether the region is an aggregation of more than one correlation matrix cell. */
         public boolean isAggregated = false;
@@ -239,6 +242,8 @@ public class AggregatedCorrelationMatrix {
             this.minUncertainty = prototype.minUncertainty;
             this.averageUncertainty = prototype.averageUncertainty;
             this.maxUncertainty = prototype.maxUncertainty;
+            this.correlationHalfWidth = prototype.correlationHalfWidth;
+            this.uncertaintyHalfWidth = prototype.uncertaintyHalfWidth;
             this.cellDistribution = prototype.cellDistribution;
         }
 
@@ -285,6 +290,8 @@ public class AggregatedCorrelationMatrix {
             if (Double.compare(that.minUncertainty, minUncertainty) != 0) return false;
             if (row != that.row) return false;
             if (Double.compare(that.thirdQuartileCorrelation, thirdQuartileCorrelation) != 0) return false;
+            if (Double.compare(that.correlationHalfWidth, correlationHalfWidth) != 0) return false;
+            if (Double.compare(that.uncertaintyHalfWidth, uncertaintyHalfWidth) != 0) return false;
             if (width != that.width) return false;
             if (!Arrays.equals(cellDistribution, that.cellDistribution)) return false;
 
@@ -0,0 +1,280 @@
+package Data.Statistics;
+
+import java.util.Arrays;
+
+/**
+ * Collects the correlation values of a single correlation matrix cell and summarizes them (mean, population variance, quartiles, histogram).
+ * Replaces {@link org.apache.commons.math3.stat.descriptive.DescriptiveStatistics} in the innermost loops of the computation:
+ * the values are stored in a reusable primitive buffer that grows only if a cell has more values than any cell before (and is shrunk again by {@link #trim()}),
+ * and the quartiles are found by selection (expected linear time) instead of sorting a copy of the values for each percentile.
+ *
+ * The results are the same as those of DescriptiveStatistics: the mean and variance use the same two-pass formulas (with correction term)
+ * and the percentiles use the same (legacy) position estimate, interpolating between the neighboring order statistics.
+ *
+ * In histogram mode (see {@link #setHistogramMode(int, double)}), the values are not buffered at all but binned into a {@link CellSummary} as they are added.
+ * The memory is then independent of the number of values per cell, and median and quartiles are approximated from the bins.
+ *
+ * Instances are not thread safe. Each worker thread should use its own instance (see {@link #forCurrentThread()}).
+ * @author Carl Witt
+ */
+public class CellSummarizer {
+
+    private static final ThreadLocal<CellSummarizer> perThread = ThreadLocal.withInitial(CellSummarizer::new);
+
+    /** @return the summarizer of the current thread. It is shared by all users on that thread, so it must not be used by two cells at the same time. */
+    public static CellSummarizer forCurrentThread(){ return perThread.get(); }
+
+    /** The buffer capacity (in values) that is kept after {@link #trim()} (64k values, 512 KB). */
+    public static final int RETAINED_CAPACITY = 1 << 16;
+
+    /** Ranges smaller than this are sorted instead of partitioned. */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    /** The collected values. Only the first {@link #n} values are valid. */
+    private double[] values = new double[1024];
+    private int n = 0;
+
+    // results of the last call to summarize()
+    private double mean, populationVariance, min, max;
+    private double firstQuartile, median, thirdQuartile;
+    private final int[] histogram = new int[CorrelationHistogram.NUM_BINS];
+
+    /** Collects the values in histogram mode, null in exact mode. */
+    private CellSummary binned;
+    /** In histogram mode, values with an absolute value of at least this are counted as significant. */
+    private double criticalValue = Double.NaN;
+
+    /** The number of significant positive and negative values, if the values have been tested while adding them (see {@link #hasSignificanceCounts()}). */
+    private long positiveSignificant, negativeSignificant;
+    private boolean significanceCounted;
+
+    /** The selection of an order statistic only considers the values from this index on (the values before are not greater). */
+    private int selectFrom;
+
+    /**
+     * Switches between exact mode (values are buffered, all statistics are exact) and histogram mode (values are binned, percentiles are approximate).
+     * Removes all values.
+     * @param fineBins the number of bins used to approximate percentiles (see {@link CellSummary#maxPercentileError(int)}) or 0 for exact mode.
+     * @param criticalValue in histogram mode, values with an absolute value of at least this are counted as significant (see {@link #getPositiveSignificantCount()})
+     */
+    public void setHistogramMode(int fineBins, double criticalValue){
+        if(fineBins <= 0) binned = null;
+        else if(binned == null || binned.getFineBins() != fineBins) binned = new CellSummary(fineBins);
+        this.criticalValue = criticalValue;
+        clear();
+    }
+
+    /** @return whether the values are binned instead of buffered. */
+    public boolean isHistogramMode(){ return binned != null; }
+
+    /** Removes all values. Keeps the buffer. */
+    public void clear(){
+        n = 0;
+        positiveSignificant = negativeSignificant = 0;
+        significanceCounted = binned != null;
+        if(binned != null) binned.clear();
+    }
+
+    /**
+     * Removes all values and shrinks the buffer to {@link #RETAINED_CAPACITY} if it has grown beyond.
+     * Called when a worker finishes its part of a computation, such that the summarizers of idle pool threads don't keep a buffer of the size of the largest cell (|A|·|B| values) forever.
+     */
+    public void trim(){
+        if(values.length > RETAINED_CAPACITY) values = new double[RETAINED_CAPACITY];
+        clear();
+    }
+
+    /** Adds a value. It must not be NaN. In histogram mode, the value is tested for significance against the critical value. */
+    public void addValue(double value){
+        if(binned != null){
+            addValue(value, Math.abs(value) >= criticalValue);
+            return;
+        }
+        if(n == values.length) values = Arrays.copyOf(values, 2 * values.length);
+        values[n++] = value;
+    }
+
+    /**
+     * Adds a value that has already been tested for significance, e.g. with a sample size that differs from value to value.
+     * All values of a cell need to be added this way for the counts to be complete (see {@link #hasSignificanceCounts()}).
+     */
+    public void addValue(double value, boolean significant){
+        significanceCounted = true;
+        if(significant){
+            if(value > 0) positiveSignificant++;
+            else negativeSignificant++;
+        }
+        if(binned != null){
+            binned.add(value, significant);
+            return;
+        }
+        if(n == values.length) values = Arrays.copyOf(values, 2 * values.length);
+        values[n++] = value;
+    }
+
+    /** Makes sure that the buffer can hold the given number of values without growing. */
+    public void ensureCapacity(int capacity){
+        if(capacity > values.length) values = Arrays.copyOf(values, capacity);
+    }
+
+    public int getN(){ return binned != null ? (int) binned.getN() : n; }
+
+    /** @return whether the values have been tested for significance while adding them (always the case in histogram mode). The counts are then available without testing the values again. */
+    public boolean hasSignificanceCounts(){ return significanceCounted; }
+
+    /** If {@link #hasSignificanceCounts()}: the number of significant positive and negative values. */
+    public long getPositiveSignificantCount(){ return positiveSignificant; }
+    public long getNegativeSignificantCount(){ return negativeSignificant; }
+
+    /** @return the internal buffer. Only the first {@link #getN()} values are valid (none in histogram mode). Their order is changed by {@link #summarize()}. */
+    public double[] getValues(){ return values; }
+
+    /** Computes all statistics of the collected values. Reorders the values. */
+    public void summarize(){
+        summarize(true, true);
+    }
+
+    /**
+     * Computes the statistics of the collected values. Reorders the values if the quartiles are computed.
+     * Two passes compute the mean, variance, minimum, maximum and histogram, and the quartiles are selected in increasing order,
+     * such that each selection only processes the values that are not smaller than the previously selected one.
+     * @param quartiles whether to compute the quartiles (NaN otherwise)
+     * @param binCounts whether to compute the histogram (undefined otherwise)
+     */
+    public void summarize(boolean quartiles, boolean binCounts){
+
+        firstQuartile = median = thirdQuartile = Double.NaN;
+
+        if(binned != null){
+            mean = binned.getMean();
+            populationVariance = binned.getPopulationVariance();
+            min = binned.getMin();
+            max = binned.getMax();
+            if(quartiles){
+                firstQuartile = binned.getPercentile(25);
+                median = binned.getPercentile(50);
+                thirdQuartile = binned.getPercentile(75);
+            }
+            if(binCounts) System.arraycopy(binned.getHistogram(), 0, histogram, 0, histogram.length);
+            return;
+        }
+
+        if(binCounts) Arrays.fill(histogram, 0);
+        if(n == 0){
+            mean = populationVariance = min = max = Double.NaN;
+            return;
+        }
+
+        // first pass: sum and extrema (and the histogram if requested)
+        double sum = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            double value = values[i];
+            sum += value;
+            if(value < min) min = value;
+            if(value > max) max = value;
+        }
+        if(binCounts){
+            for (int i = 0; i < n; i++) {
+                int binIdx = (int) ((values[i] + 1.) / 2. * CorrelationHistogram.NUM_BINS);
+                histogram[binIdx < CorrelationHistogram.NUM_BINS ? Math.max(0, binIdx) : CorrelationHistogram.NUM_BINS - 1]++;
+            }
+        }
+
+        // second pass: mean correction and squared deviations
+        double estimate = sum / n, deviationSum = 0;
+        for (int i = 0; i < n; i++) deviationSum += values[i] - estimate;
+        mean = estimate + deviationSum / n;
+        if(n == 1) populationVariance = 0;
+        else {
+            double deviation, accum = 0, accum2 = 0;
+            for (int i = 0; i < n; i++) {
+                deviation = values[i] - mean;
+                accum += deviation * deviation;
+                accum2 += deviation;
+            }
+            populationVariance = (accum - accum2 * accum2 / n) / n;
+        }
+
+        if(!quartiles) return;
+
+        // quartiles by selection
+        selectFrom = 0;
+        firstQuartile = percentile(25);
+        median = percentile(50);
+        thirdQuartile = percentile(75);
+    }
+
+    public double getMean(){ return mean; }
+    public double getPopulationVariance(){ return populationVariance; }
+    public double getMin(){ return min; }
+    public double getMax(){ return max; }
+    public double getFirstQuartile(){ return firstQuartile; }
+    public double getMedian(){ return median; }
+    public double getThirdQuartile(){ return thirdQuartile; }
+
+    /** @return the bin counts of the values in the resolution of the {@link CorrelationHistogram}. The array is reused by the next call to {@link #summarize()}. */
+    public int[] getHistogram(){ return histogram; }
+
+    /** Legacy percentile estimate. Must be called with increasing p after resetting {@link #selectFrom}. */
+    private double percentile(double p){
+        if(n == 1) return values[0];
+        double pos = p * (n + 1) / 100;
+        if(pos < 1) return min;
+        if(pos >= n) return max;
+        int intPos = (int) Math.floor(pos);
+        double dif = pos - intPos;
+        double lower = select(intPos - 1), upper = select(intPos);
+        return lower + dif * (upper - lower);
+    }
+
+    /** @return the k-th smallest value (0-based). k must not be smaller than the previously selected index. */
+    private double select(int k){
+        int lo = selectFrom, hi = n - 1;
+        while(hi > lo){
+            if(hi - lo < INSERTION_SORT_THRESHOLD){
+                insertionSort(lo, hi);
+                break;
+            }
+            // median of three pivot
+            int mid = (lo + hi) >>> 1;
+            if(values[mid] < values[lo]) swap(lo, mid);
+            if(values[hi] < values[lo]) swap(lo, hi);
+            if(values[hi] < values[mid]) swap(mid, hi);
+            double pivot = values[mid];
+
+            int i = lo, j = hi;
+            while(i <= j){
+                while(values[i] < pivot) i++;
+                while(values[j] > pivot) j--;
+                if(i <= j) swap(i++, j--);
+            }
+            // now values[lo..j] <= pivot, values[j+1..i-1] == pivot, values[i..hi] >= pivot
+            if(k <= j) hi = j;
+            else if(k >= i) lo = i;
+            else break;
+        }
+        selectFrom = k;
+        return values[k];
+    }
+
+    private void insertionSort(int lo, int hi){
+        for (int i = lo + 1; i <= hi; i++) {
+            double value = values[i];
+            int j = i - 1;
+            while(j >= lo && values[j] > value){
+                values[j + 1] = values[j];
+                j--;
+            }
+            values[j + 1] = value;
+        }
+    }
+
+    private void swap(int i, int j){
+        double tmp = values[i];
+        values[i] = values[j];
+        values[j] = tmp;
+    }
+
+}
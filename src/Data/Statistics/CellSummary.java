@@ -0,0 +1,203 @@
+package Data.Statistics;
+
+import java.util.Arrays;
+
+/**
+ * A mergeable summary of the correlation values of a single correlation matrix cell.
+ * Several summaries of disjoint subsets of window pairs (e.g. tiles of the set A × set B pair space) can be merged into the summary of their union,
+ * which allows to compute a single cell in parallel.
+ *
+ * Keeps the number of values, their mean and summed squared deviations from the mean (merged with the parallel variance algorithm by Chan et al.),
+ * the number of significant positive and negative values, the exact {@link CorrelationHistogram} bin counts and a finer histogram (by default with {@link #FINE_BINS} bins)
+ * from which percentiles are interpolated. The memory needed is independent of the number of summarized values.
+ * Percentiles follow the same definition as {@link org.apache.commons.math3.stat.descriptive.DescriptiveStatistics#getPercentile(double)}
+ * but are approximate: the error is at most one fine bin width (see {@link #maxPercentileError(int)}).
+ * @author Carl Witt
+ */
+public class CellSummary {
+
+    /** The default number of bins of the histogram used to approximate percentiles. */
+    public static final int FINE_BINS = 1800;
+
+    private long n = 0;
+    private double mean = 0, sumOfSquaredDeviations = 0;
+    private double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+    private long positiveSignificant = 0, negativeSignificant = 0;
+
+    /** Bin counts of the {@link CorrelationHistogram} resolution. */
+    private final int[] binCounts = new int[CorrelationHistogram.NUM_BINS];
+    /** Bin counts of the finer resolution used for percentiles. */
+    private final int[] fineBinCounts;
+
+    public CellSummary(){
+        this(FINE_BINS);
+    }
+
+    /** @param fineBins the number of bins over [-1, 1] used to approximate percentiles. */
+    public CellSummary(int fineBins){
+        assert fineBins > 0 : "The number of bins must be positive.";
+        fineBinCounts = new int[fineBins];
+    }
+
+    /** Creates a copy of the given summary. */
+    public CellSummary(CellSummary other){
+        n = other.n;
+        mean = other.mean;
+        sumOfSquaredDeviations = other.sumOfSquaredDeviations;
+        min = other.min;
+        max = other.max;
+        positiveSignificant = other.positiveSignificant;
+        negativeSignificant = other.negativeSignificant;
+        System.arraycopy(other.binCounts, 0, binCounts, 0, binCounts.length);
+        fineBinCounts = other.fineBinCounts.clone();
+    }
+
+    /** @return the maximum absolute error of a percentile (e.g. the median) estimated from a histogram with the given number of bins. The error of the interquartile range is at most twice as large. */
+    public static double maxPercentileError(int fineBins){
+        return 2. / fineBins;
+    }
+
+    /** Removes all values. */
+    public void clear(){
+        n = positiveSignificant = negativeSignificant = 0;
+        mean = sumOfSquaredDeviations = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+        Arrays.fill(binCounts, 0);
+        Arrays.fill(fineBinCounts, 0);
+    }
+
+    /**
+     * Adds a correlation value to the summary.
+     * @param r a correlation value in [-1, 1], must not be NaN
+     * @param significant whether the correlation value is statistically significant
+     */
+    public void add(double r, boolean significant){
+        n++;
+        double delta = r - mean;
+        mean += delta / n;
+        sumOfSquaredDeviations += delta * (r - mean);
+        min = Math.min(min, r);
+        max = Math.max(max, r);
+        if(significant){
+            if(r > 0) positiveSignificant++;
+            else negativeSignificant++;
+        }
+        binCounts[bin(r, CorrelationHistogram.NUM_BINS)]++;
+        fineBinCounts[bin(r, fineBinCounts.length)]++;
+    }
+
+    /** Adds the values summarized by another summary (with the same number of bins) to this summary. */
+    public void merge(CellSummary other){
+        assert other.fineBinCounts.length == fineBinCounts.length : "Can't merge summaries with different resolutions.";
+        if(other.n == 0) return;
+        long total = n + other.n;
+        double delta = other.mean - mean;
+        mean += delta * other.n / total;
+        sumOfSquaredDeviations += other.sumOfSquaredDeviations + delta * delta * ((double) n * other.n / total);
+        n = total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        positiveSignificant += other.positiveSignificant;
+        negativeSignificant += other.negativeSignificant;
+        for (int i = 0; i < binCounts.length; i++) binCounts[i] += other.binCounts[i];
+        for (int i = 0; i < fineBinCounts.length; i++) fineBinCounts[i] += other.fineBinCounts[i];
+    }
+
+    /**
+     * Removes the values summarized by another summary (with the same number of bins) from this summary, which must contain all of them (e.g. the window pairs of time series
+     * that have been removed from an ensemble). Inverts {@link #merge(CellSummary)}: counts and bins are exact, mean and variance up to rounding errors.
+     * If the minimum (maximum) value might have been removed, the new one is estimated from the lowest (highest) non-empty fine bin, with an error of at most one fine bin width.
+     */
+    public void remove(CellSummary other){
+        assert other.fineBinCounts.length == fineBinCounts.length : "Can't remove summaries with different resolutions.";
+        assert other.n <= n : "Can't remove more values than the summary contains.";
+        if(other.n == 0) return;
+        if(other.n >= n){
+            clear();
+            return;
+        }
+        long remaining = n - other.n;
+        double remainingMean = (n * mean - other.n * other.mean) / remaining;
+        double delta = other.mean - remainingMean;
+        sumOfSquaredDeviations = Math.max(0, sumOfSquaredDeviations - other.sumOfSquaredDeviations - delta * delta * ((double) remaining * other.n / n));
+        mean = remainingMean;
+        n = remaining;
+        positiveSignificant -= other.positiveSignificant;
+        negativeSignificant -= other.negativeSignificant;
+        for (int i = 0; i < binCounts.length; i++) binCounts[i] -= other.binCounts[i];
+        for (int i = 0; i < fineBinCounts.length; i++) fineBinCounts[i] -= other.fineBinCounts[i];
+
+        final double binWidth = 2. / fineBinCounts.length;
+        if(other.min <= min){
+            int lowest = 0;
+            while(fineBinCounts[lowest] == 0) lowest++;
+            min = Math.max(min, -1 + lowest * binWidth);
+        }
+        if(other.max >= max){
+            int highest = fineBinCounts.length - 1;
+            while(fineBinCounts[highest] == 0) highest--;
+            max = Math.min(max, -1 + (highest + 1) * binWidth);
+        }
+    }
+
+    /** Same binning as {@link CorrelationHistogram}: bin k covers [-1 + k * 2/numBins, -1 + (k+1) * 2/numBins), the last bin is closed. */
+    private static int bin(double r, int numBins){
+        int binIdx = (int) ((r + 1.) / 2. * numBins);
+        return binIdx < numBins ? Math.max(0, binIdx) : numBins - 1;
+    }
+
+    public long getN() { return n; }
+
+    public double getMean() { return n == 0 ? Double.NaN : mean; }
+
+    public double getPopulationVariance() { return n == 0 ? Double.NaN : sumOfSquaredDeviations / n; }
+
+    public double getPopulationStandardDeviation() { return Math.sqrt(getPopulationVariance()); }
+
+    public double getMin() { return n == 0 ? Double.NaN : min; }
+    public double getMax() { return n == 0 ? Double.NaN : max; }
+
+    /** @return the number of bins used to approximate percentiles. */
+    public int getFineBins() { return fineBinCounts.length; }
+
+    public long getPositiveSignificantCount() { return positiveSignificant; }
+    public long getNegativeSignificantCount() { return negativeSignificant; }
+
+    /** @return the bin counts in the resolution of the {@link CorrelationHistogram}. */
+    public int[] getHistogram() { return binCounts; }
+
+    /**
+     * Estimates a percentile from the fine histogram, assuming the values within a bin are spread evenly.
+     * Uses the same position estimate as commons math (position p(n+1)/100, interpolating between the neighboring order statistics).
+     * @param p the percentile in (0, 100]
+     */
+    public double getPercentile(double p){
+        if(n == 0) return Double.NaN;
+        if(n == 1) return min;
+        double pos = p * (n + 1) / 100;
+        if(pos < 1) return min;
+        if(pos >= n) return max;
+        long lower = (long) Math.floor(pos);
+        double lowerValue = orderStatistic(lower), upperValue = orderStatistic(lower + 1);
+        return lowerValue + (pos - lower) * (upperValue - lowerValue);
+    }
+
+    /** @return the estimated k-th smallest value (1-based). */
+    private double orderStatistic(long k){
+        if(k <= 1) return min;
+        if(k >= n) return max;
+        final double binWidth = 2. / fineBinCounts.length;
+        long before = 0;
+        for (int bin = 0; bin < fineBinCounts.length; bin++) {
+            int count = fineBinCounts[bin];
+            if(before + count >= k){
+                double estimate = -1 + binWidth * (bin + (k - before - 0.5) / count);
+                return Math.max(min, Math.min(max, estimate));
+            }
+            before += count;
+        }
+        return max;
+    }
+
+}
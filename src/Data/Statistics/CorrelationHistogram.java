@@ -80,6 +80,11 @@ public class CorrelationHistogram {
         frequencies[row] = computeHistogram(distribution);
     }
 
+    /** Sets the histogram of a given row (of the column) index from already computed bin counts (of length {@link #NUM_BINS}). */
+    public void setHistogram(int row, int[] binCounts){
+        frequencies[row] = compressHistogram(binCounts);
+    }
+
     /**
      * Gives the histogram of the correlation distribution for a given cell (row within this column).
      * @param row The row (or time lag) index
@@ -2,6 +2,10 @@ package Data;
 
 import com.sun.istack.internal.NotNull;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Represents a series of (x, y) pairs.
  * The underlying data structure is a {@link Data.ComplexSequence}, see the {@link #values} documentation.
@@ -17,19 +21,34 @@ public class TimeSeries implements Comparable<TimeSeries> {
     private final int id;
 
     /** The coordinates of the points of the time series. 
-     * X values are represented as real parts of complex numbers and Y values are represented as imaginary parts of complex numbers. */
-    private ComplexSequence values = null;
+     * X values are represented as real parts of complex numbers and Y values are represented as imaginary parts of complex numbers.
+     * Null after values have been appended, until it is materialized from {@link #re} and {@link #im} on the next access (see {@link #getDataItems()}). */
+    private volatile ComplexSequence values = null;
+
+    /** The x and y values, of which the first {@link #size} are valid. When values are appended, the capacity of the arrays grows geometrically,
+     * such that appending costs amortized O(1) per value instead of copying the entire time series. */
+    private double[] re, im;
+    private int size;
 
     /** The difference between x-coordinates of consecutive data points. Must be the same for all subsequent data points, but not necessarily 1. */
     double xAxisSpacing = 1;
 
+    /** The downsampled versions of the time series (see {@link #getPyramidLevel(int)}), level 1 at index 0. Built on demand, discarded when values are appended. */
+    private List<TimeSeries> pyramid = new ArrayList<>();
+
+    /** For a pyramid level, the time series from which it has been downsampled. The time series itself otherwise. */
+    private TimeSeries fullResolution = this;
+
+    /** Counts the changes of the values (see {@link #append(double...)}), such that data derived from the values can detect that it is outdated. */
+    private int modificationCount = 0;
+
     /**
      * @param id
      * @param values The x and y values, specified in the real and imaginary parts of a complex sequence.
      */
     public TimeSeries(int id, @NotNull ComplexSequence values){
         this.id = id;
-        this.values = values;
+        setValues(values);
     }
 
     /** Create time series by specifying only the function values, useful if the x-coordinates don't matter (will all be set to 0).
@@ -39,52 +58,117 @@ public class TimeSeries implements Comparable<TimeSeries> {
      */
     public TimeSeries(int id, double... d) {
         this.id = id;
-        this.values = ComplexSequence.create(new double[d.length], d);
+        setValues(ComplexSequence.create(new double[d.length], d));
     }
 
     public TimeSeries(int id, double[] xValues, double[] yValues) {
         this.id = id;
-        this.values = ComplexSequence.create(xValues, yValues);
+        setValues(ComplexSequence.create(xValues, yValues));
         xAxisSpacing = xValues.length > 1 ? xValues[1]-xValues[0] : 1;
     }
 
+    private void setValues(ComplexSequence values){
+        this.values = values;
+        re = values.re;
+        im = values.im;
+        size = values.im.length;
+    }
+
     /** Returns the number of x/y pairs in the time series. */
-    public int getSize() { return values.im.length; }
+    public int getSize() { return size; }
     
     public boolean contains(int id){
-        return id >= 0 && id < values.re.length;
+        return id >= 0 && id < size;
     }
 
     public boolean isEmpty() {
         return this.getSize() == 0;
     }
 
+    /** @return the x and y values. After values have been appended, this returns a new sequence, references to the previous sequence are not updated. */
     public ComplexSequence getDataItems() {
+        ComplexSequence items = values;
+        return items != null ? items : materializeValues();
+    }
+
+    /** Copies the valid part of the growing arrays into an exactly sized sequence (see {@link #values}). Happens at most once per batch of appends. */
+    private synchronized ComplexSequence materializeValues(){
+        if(values == null) values = ComplexSequence.create(Arrays.copyOf(re, size), Arrays.copyOf(im, size));
         return values;
     }
     
-//    public void append(double item){
-//        yValues.add(item);
-//        if(item.compareTo(minItem) == -1) minItem = item;
-//        if(item.compareTo(maxItem) ==  1) maxItem = item;
-//    }
+    /**
+     * Appends values to the time series, e.g. new samples of a running simulation or sensor.
+     * The x values continue with the spacing of the existing x values. The data items are replaced by a longer sequence, references to the previous sequence are not updated.
+     * Correlation matrices that contain the time series can be extended with {@link Data.Correlation.CorrelationMatrix#update()}.
+     * The values are written to arrays with spare capacity (see {@link #re}), the longer sequence is created on the next call to {@link #getDataItems()}.
+     * @param yValues the function values to append
+     */
+    public synchronized void append(double... yValues){
+        // the arrays may be shared with the current data items only if they have no spare capacity, so the data items are never overwritten
+        if(size + yValues.length > im.length){
+            int capacity = Math.max(size + yValues.length, 2 * size);
+            re = Arrays.copyOf(re, capacity);
+            im = Arrays.copyOf(im, capacity);
+        }
+        for (int i = 0; i < yValues.length; i++) {
+            re[size + i] = size + i == 0 ? 0 : re[size + i - 1] + xAxisSpacing;
+            im[size + i] = yValues[i];
+        }
+        size += yValues.length;
+        values = null;
+        pyramid.clear();
+        modificationCount++;
+    }
+
+    /** @return the number of times the values have been changed (see {@link #append(double...)}). */
+    public int getModificationCount() { return modificationCount; }
+
+    /**
+     * Returns the time series downsampled by a factor of 2<sup>level</sup>, e.g. for computing a coarse preview of a correlation matrix on long time series.
+     * Each value (and each x value) of a level is the mean of two consecutive values of the previous level, i.e. the mean of a block of 2<sup>level</sup> values.
+     * A trailing value without partner is dropped, and a block that contains a missing value is missing.
+     * The levels are built on first use, each from the previous one, such that all levels together cost O(N). They have the id of the time series.
+     * @param level the number of halvings, 0 for the time series itself
+     * @return the downsampled time series
+     */
+    public synchronized TimeSeries getPyramidLevel(int level){
+        if(level == 0) return this;
+        while(pyramid.size() < level){
+            TimeSeries previous = pyramid.isEmpty() ? this : pyramid.get(pyramid.size() - 1);
+            double[] x = previous.getDataItems().re, y = previous.getDataItems().im;
+            double[] xMeans = new double[x.length / 2], yMeans = new double[x.length / 2];
+            for (int i = 0; i < xMeans.length; i++) {
+                xMeans[i] = (x[2 * i] + x[2 * i + 1]) / 2;
+                yMeans[i] = (y[2 * i] + y[2 * i + 1]) / 2;
+            }
+            TimeSeries downsampled = new TimeSeries(id, xMeans, yMeans);
+            downsampled.xAxisSpacing = 2 * previous.xAxisSpacing;
+            downsampled.fullResolution = this;
+            pyramid.add(downsampled);
+        }
+        return pyramid.get(level - 1);
+    }
+
+    /** @return for a pyramid level (see {@link #getPyramidLevel(int)}), the time series from which it has been downsampled. The time series itself otherwise. */
+    public TimeSeries getFullResolution(){ return fullResolution; }
 
     public double getItemById(int id) {
-        return values.im[id];
+        return getDataItems().im[id];
     }
 
     public double getMinX() {
-        return values.getMin(ComplexSequence.Part.REAL);
+        return getDataItems().getMin(ComplexSequence.Part.REAL);
     }
     public double getMinY() {
-        return values.getMin(ComplexSequence.Part.IMAGINARY);
+        return getDataItems().getMin(ComplexSequence.Part.IMAGINARY);
     }
 
     public double getMaxX() {
-        return values.getMax(ComplexSequence.Part.REAL);
+        return getDataItems().getMax(ComplexSequence.Part.REAL);
     }
     public double getMaxY() {
-        return values.getMax(ComplexSequence.Part.IMAGINARY);
+        return getDataItems().getMax(ComplexSequence.Part.IMAGINARY);
     }
     
     @Override
@@ -112,7 +196,7 @@ public class TimeSeries implements Comparable<TimeSeries> {
         if(other.getId() != this.getId())
             return false;
 
-        return this.values.equals(other.values);
+        return this.getDataItems().equals(other.getDataItems());
 
     }
 
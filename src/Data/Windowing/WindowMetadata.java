@@ -1,16 +1,22 @@
 package Data.Windowing;
 
+import Data.Correlation.CoarsePreview;
 import Data.Correlation.CorrelationMatrix;
 import Data.Correlation.CrossCorrelation;
+import Data.Correlation.DFTSketch;
 import Data.Statistics.CorrelationHistogram;
 import Data.TimeSeries;
 import com.google.common.base.Joiner;
 import com.sun.istack.internal.NotNull;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * This class describes how to compute something from a pair of time series by taking windows from them and then comparing the windows.<br/>
@@ -47,6 +53,10 @@ public class WindowMetadata {
      * This equals the number of columns in the correlation matrix.  */
     public final int numBaseWindows;
 
+    /** The length of the time series when the metadata was created. The time series may grow afterwards (see {@link TimeSeries#append(double...)}),
+     * so this tells the data a result has been computed on apart from the data that has been appended since. */
+    public final int timeSeriesLength;
+
     /** The number of lag windows that are needed both in the cross-correlation computation of a base window b and its subsequent base window b'.
       * This is the size of the intersection of the ranges [s_b + tauMin ... s_b + tauMax] and [s_b' + tauMin ... s_b' + tauMax]. */
     private final int lagRangeOverlap;
@@ -55,7 +65,49 @@ public class WindowMetadata {
     public final List<TimeSeries> setA;
     public final List<TimeSeries> setB;
 
-    public final CrossCorrelation.NA_ACTION naAction = CrossCorrelation.NA_ACTION.LEAVE_UNCHANGED;
+    public final CrossCorrelation.NA_ACTION naAction;
+
+    /** The floating point precision of the innermost loop of the computation (see {@link CorrelationMatrix.PRECISION}). */
+    public final CorrelationMatrix.PRECISION precision;
+
+    /**
+     * The number of bins of the histogram from which the cell statistics are derived, or 0 if the statistics are computed exactly (the default).
+     * If positive, the correlation values of a cell are never buffered. Each value is binned right away (see {@link Data.Statistics.CellSummarizer#setHistogramMode(int, double)}).
+     * Mean, standard deviation, significance fractions and the {@link CorrelationHistogram} are still exact (up to rounding errors),
+     * median and interquartile range deviate from the exact values by at most {@link Data.Statistics.CellSummary#maxPercentileError(int)} and twice that, respectively.
+     */
+    public final int histogramBins;
+
+    /**
+     * The number of DFT coefficients per window from which the correlation values are approximated, or 0 if they are computed exactly (the default).
+     * If positive, each correlation value is approximated from the {@link DFTSketch sketches} of the two windows, together with a bound on the approximation error.
+     * Only window pairs whose approximation is too close to the critical correlation value to decide the significance test are correlated exactly.
+     * The significance fractions are thus exact, the other statistics are computed from approximated values (see {@link CorrelationMatrix#isApproximate()}).
+     * At most {@link DFTSketch#maxCoefficients(int)}, e.g. none for windows too short to test significance.
+     */
+    public final int sketchCoefficients;
+
+    /**
+     * The target half-width of the confidence intervals of the sampled cell statistics, or 0 if all window pairs of a cell are correlated (the default).
+     * If positive, the statistics of each cell are estimated from a random sample of window pairs, which grows until the {@link CorrelationMatrix#SAMPLING_CONFIDENCE} confidence intervals
+     * of the mean and the significance fractions are at most this wide (on each side). Cells for which that would take more than half of the window pairs are computed exhaustively.
+     * The interval half-widths are stored in {@link CorrelationMatrix.CorrelationColumn#confidenceHalfWidths}.
+     */
+    public final double samplingTolerance;
+
+    /**
+     * The pyramid level of the time series of a coarse preview (see {@link CoarsePreview#metadata(WindowMetadata, int)}), or 0 for a full resolution matrix (the default).
+     * The time series of a preview are downsampled by 2<sup>level</sup> (see {@link TimeSeries#getPyramidLevel(int)}), and window size, time lags and base window offset are scaled down accordingly.
+     * A preview shows the structure of the full resolution matrix, but its statistics are not those of the full resolution matrix. In particular, significance is tested for the downsampled window size.
+     */
+    public final int previewLevel;
+
+    /**
+     * The statistics to compute (e.g. {@link CorrelationMatrix#MEAN}, {@link CorrelationMatrix#STD_DEV}, {@link CorrelationMatrix#HISTOGRAM}), all statistics if not specified.
+     * The computation skips the work for unrequested statistics, e.g. the percentile selection if neither {@link CorrelationMatrix#MEDIAN} nor {@link CorrelationMatrix#IQR} is requested.
+     * Missing statistics can be computed later for a range of columns (see {@link CorrelationMatrix#computeStatistics(int, int, int...)}).
+     */
+    public final Set<Integer> requestedStatistics;
 
     public final HashMap<String, Object> customParameters = new HashMap<>();
 
@@ -67,10 +119,17 @@ public class WindowMetadata {
         setA.add(seriesA);
         setB = new ArrayList<>(1);
         setB.add(seriesB);
-//        this.naAction = naAction;
+        this.naAction = CrossCorrelation.NA_ACTION.LEAVE_UNCHANGED;
         this.windowSize = windowSize;
         this.baseWindowOffset = baseWindowOffset;
-
+        this.precision = CorrelationMatrix.PRECISION.DOUBLE;
+        this.requestedStatistics = allStatistics();
+        this.previewLevel = 0;
+        this.samplingTolerance = 0;
+        this.sketchCoefficients = 0;
+        this.histogramBins = 0;
+
+        timeSeriesLength = setA.get(0).getSize();
         numBaseWindows = getNumberOfBaseWindows();
         lagRangeOverlap = getLagRangeOverlap();
     }
@@ -81,10 +140,17 @@ public class WindowMetadata {
         this.tauMin = tauMin;
         this.tauMax = tauMax;
         this.tauStep= tauStep;
-//        this.naAction = naAction;
+        this.naAction = CrossCorrelation.NA_ACTION.LEAVE_UNCHANGED;
         this.windowSize = windowSize;
         this.baseWindowOffset = baseWindowOffset;
-
+        this.precision = CorrelationMatrix.PRECISION.DOUBLE;
+        this.requestedStatistics = allStatistics();
+        this.previewLevel = 0;
+        this.samplingTolerance = 0;
+        this.sketchCoefficients = 0;
+        this.histogramBins = 0;
+
+        timeSeriesLength = setA.get(0).getSize();
         numBaseWindows = getNumberOfBaseWindows();
         lagRangeOverlap = getLagRangeOverlap();
     }
@@ -95,10 +161,20 @@ public class WindowMetadata {
         this.tauMin = builder.tauMin;
         this.tauMax = builder.tauMax;
         this.tauStep= builder.tauStep;
-//        this.naAction = builder.naAction;
+        this.naAction = builder.naAction;
         this.windowSize = builder.windowSize;
         this.baseWindowOffset = builder.baseWindowOffset;
         CorrelationMatrix.setSignificanceLevel(this, builder.pValue);
+        this.precision = builder.precision;
+        this.histogramBins = Math.max(0, builder.histogramBins);
+        if(builder.sketchCoefficients > DFTSketch.maxCoefficients(builder.windowSize))
+            throw new IllegalArgumentException(String.format("At most %s coefficients for window size %s.", DFTSketch.maxCoefficients(builder.windowSize), builder.windowSize));
+        this.sketchCoefficients = Math.max(0, builder.sketchCoefficients);
+        this.samplingTolerance = Math.max(0, builder.samplingTolerance);
+        this.previewLevel = Math.max(0, builder.previewLevel);
+        assert builder.requestedStatistics == null || builder.requestedStatistics.stream().allMatch(stat -> CorrelationMatrix.isValidStatistic(stat) || stat == CorrelationMatrix.HISTOGRAM) : "Unknown statistic in " + builder.requestedStatistics;
+        this.requestedStatistics = builder.requestedStatistics == null ? allStatistics() : Collections.unmodifiableSet(new TreeSet<>(builder.requestedStatistics));
+        timeSeriesLength = setA.get(0).getSize();
         numBaseWindows = getNumberOfBaseWindows();
         lagRangeOverlap = getLagRangeOverlap();
     }
@@ -123,7 +199,6 @@ public class WindowMetadata {
 
     /** Computes {@link #numBaseWindows}. */
     private int getNumberOfBaseWindows() {
-        int timeSeriesLength = setA.get(0).getSize();
         assert baseWindowOffset > 0 : "Illegal base window offset. Must be larger than zero.";
         return (int) Math.ceil(1. * timeSeriesLength / baseWindowOffset);
 //        used in the asymmetric computation
@@ -167,6 +242,14 @@ public class WindowMetadata {
         public final int windowSize;
         public final int baseWindowOffset;
         public double pValue = 0.05;
+        public CorrelationMatrix.PRECISION precision = CorrelationMatrix.PRECISION.DOUBLE;
+        public int histogramBins = 0;
+        public int sketchCoefficients = 0;
+        public double samplingTolerance = 0;
+        /** The pyramid level of the time series of a coarse preview (see {@link WindowMetadata#previewLevel}), 0 for full resolution. */
+        public int previewLevel = 0;
+        /** The statistics to compute (see {@link WindowMetadata#requestedStatistics}), null for all. */
+        public Collection<Integer> requestedStatistics = null;
         final List<TimeSeries> setA = new ArrayList<>();
         final List<TimeSeries> setB = new ArrayList<>();
         CrossCorrelation.NA_ACTION naAction = CrossCorrelation.NA_ACTION.LEAVE_UNCHANGED;
@@ -183,7 +266,26 @@ public class WindowMetadata {
         public Builder tsB(TimeSeries ts){ setB.add(ts); return this; }
         public Builder tsB(Collection<TimeSeries> ts){ setB.addAll(ts); return this; }
         public Builder pValue(double pValue) { this.pValue = pValue; return this; }
-        //        public Builder naAction(CrossCorrelation.NA_ACTION naAction){ this.naAction = naAction; return this; }
+        public Builder precision(CorrelationMatrix.PRECISION precision) { this.precision = precision; return this; }
+        public Builder histogramBins(int histogramBins) { this.histogramBins = histogramBins; return this; }
+        public Builder sketchCoefficients(int sketchCoefficients) { this.sketchCoefficients = sketchCoefficients; return this; }
+        public Builder samplingTolerance(double samplingTolerance) { this.samplingTolerance = samplingTolerance; return this; }
+        public Builder previewLevel(int previewLevel) { this.previewLevel = previewLevel; return this; }
+        public Builder statistics(Integer... statistics) { this.requestedStatistics = Arrays.asList(statistics); return this; }
+        public Builder naAction(CrossCorrelation.NA_ACTION naAction){ this.naAction = naAction; return this; }
+        /** Takes over the parameters of the computation (significance level, missing value handling, precision, approximations and requested statistics) from the given metadata,
+         * e.g. to compute the same matrix for other time lags or a grown time series. */
+        public Builder parameters(WindowMetadata metadata){
+            if(metadata.customParameters.containsKey("significanceLevel")) pValue = CorrelationMatrix.getSignificanceLevel(metadata);
+            naAction = metadata.naAction;
+            precision = metadata.precision;
+            histogramBins = metadata.histogramBins;
+            sketchCoefficients = metadata.sketchCoefficients;
+            samplingTolerance = metadata.samplingTolerance;
+            previewLevel = metadata.previewLevel;
+            requestedStatistics = metadata.requestedStatistics;
+            return this;
+        }
         public WindowMetadata build(){return new WindowMetadata(this);}
     }
 
@@ -211,6 +313,13 @@ public class WindowMetadata {
         if (tauStep != that.tauStep) return false;
         if (windowSize != that.windowSize) return false;
         if (naAction != that.naAction) return false;
+        if (precision != that.precision) return false;
+        if (!requestedStatistics.equals(that.requestedStatistics)) return false;
+        if (previewLevel != that.previewLevel) return false;
+        if (Double.compare(samplingTolerance, that.samplingTolerance) != 0) return false;
+        if (sketchCoefficients != that.sketchCoefficients) return false;
+        if (histogramBins != that.histogramBins) return false;
+        if (timeSeriesLength != that.timeSeriesLength) return false; // the time series are compared by their current values, which may have grown since (see TimeSeries#append)
         if (!setA.equals(that.setA)) return false;
         if (!setB.equals(that.setB)) return false;
         if (!customParameters.equals(that.customParameters)) return false;
@@ -227,12 +336,30 @@ public class WindowMetadata {
         result = 31 * result + setA.hashCode();
         result = 31 * result + setB.hashCode();
         result = 31 * result + naAction.hashCode();
-        result = 31 * result + numBaseWindows;
+        result = 31 * result + precision.hashCode();
+        result = 31 * result + requestedStatistics.hashCode();
+        result = 31 * result + previewLevel;
+        result = 31 * result + Double.hashCode(samplingTolerance);
+        result = 31 * result + sketchCoefficients;
+        result = 31 * result + histogramBins;
+        result = 31 * result + timeSeriesLength;
         result = 31 * result + lagRangeOverlap;
         result = 31 * result + customParameters.hashCode();
         return result;
     }
 
+    /** @return all statistics including the histogram. */
+    private static Set<Integer> allStatistics(){
+        Set<Integer> all = new TreeSet<>();
+        for (int stat = 0; stat <= CorrelationMatrix.HISTOGRAM; stat++) all.add(stat);
+        return Collections.unmodifiableSet(all);
+    }
+
+    /** @return whether the parameters of the computation (see {@link Builder#parameters(WindowMetadata)}) are the same, regardless of the time series, window size and time lags. */
+    public boolean sameParameters(WindowMetadata other){
+        return naAction == other.naAction && precision == other.precision && requestedStatistics.equals(other.requestedStatistics) && previewLevel == other.previewLevel && samplingTolerance == other.samplingTolerance && sketchCoefficients == other.sketchCoefficients && histogramBins == other.histogramBins && customParameters.equals(other.customParameters);
+    }
+
     /** These methods are used to display metadata objects in the results table (via the cell value factory). */
     public Integer getInputSet1Size(){return setA.size(); }
     public Integer getInputSet2Size(){return setB.size(); }
@@ -240,6 +367,14 @@ public class WindowMetadata {
     public Integer getOverlap(){ return windowSize-baseWindowOffset; }
     public Double getSignificanceLevel(){ return CorrelationMatrix.getSignificanceLevel(this); }
     public String getLagRange(){ return String.format("[%s, %s]",tauMin,tauMax); }
+    /** @return how the result was computed, distinguishing coarse previews (see {@link #previewLevel}) and other approximations (see {@link CorrelationMatrix#isApproximate(WindowMetadata)})
+     * from results whose median and interquartile range are derived from histogram bins (see {@link #histogramBins}) and exact results.
+     * Results of a pair tiled or incremental computation have approximate medians as well, which only the matrix knows (see {@link CorrelationMatrix#getResultKind()}). */
+    public String getResultKind(){
+        if(previewLevel > 0) return String.format("preview 1:%s", 1 << previewLevel);
+        if(CorrelationMatrix.isApproximate(this)) return "approximate";
+        return histogramBins > 0 ? "approximate median" : "exact";
+    }
     public Integer getLagStep(){ return tauStep; }
     public String getApproximateMemoryConsumption(){
         int bytes = CorrelationHistogram.NUM_BINS * 2 * getNumberOfDifferentTimeLags() * getNumberOfBaseWindows();
@@ -1,5 +1,6 @@
 package Global;
 
+import Data.Correlation.CorrelationKernels;
 import javafx.application.Platform;
 
 import java.util.Locale;
@@ -20,5 +21,7 @@ public class RuntimeConfiguration {
 
         Platform.setImplicitExit(true); // after closing the last window, the program exits.
 
+        CorrelationKernels.active(); // select the fastest correlation kernel that passes the self-check and log it
+
     }
 }
@@ -1,10 +1,15 @@
 package Gui;
 
+import Data.Correlation.CoarsePreview;
+import Data.Correlation.CorrelationKernels;
 import Data.Correlation.CorrelationMatrix;
 import Data.DataModel;
 import Data.SharedData;
+import Data.Statistics.CellSummary;
 import Data.TimeSeries;
 import Data.Windowing.WindowMetadata;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.beans.value.ChangeListener;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
@@ -30,6 +35,7 @@ import java.util.List;
 import java.util.Optional;
 import java.util.ResourceBundle;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  *
@@ -88,6 +94,8 @@ public class ComputationController implements Initializable {
     @FXML private Button setBInvertSelectedButton;
 
     @FXML private Button runButton;
+    @FXML private Button previewButton;
+    @FXML private CheckBox keepSummariesCheckBox;
 
     @FXML private TableView<WindowMetadata> correlogramCacheTable;
     @FXML private TableColumn<WindowMetadata,String> input1SeriesColumn;
@@ -97,6 +105,7 @@ public class ComputationController implements Initializable {
     @FXML private TableColumn<WindowMetadata,String> lagRangeColumn;
     @FXML private TableColumn<WindowMetadata,Integer> lagStepColumn;
     @FXML private TableColumn<WindowMetadata,Double> significanceColumn;
+    @FXML private TableColumn<WindowMetadata,String> resultKindColumn;
     @FXML private TableColumn<WindowMetadata,String> approximateMemoryColumn;
     @FXML private MenuItem deleteSelectedResultsMenuItem;
 
@@ -120,6 +129,11 @@ public class ComputationController implements Initializable {
         lagRangeColumn.setCellValueFactory(new PropertyValueFactory<>("lagRange"));
         lagStepColumn.setCellValueFactory(new PropertyValueFactory<>("lagStep"));
         significanceColumn.setCellValueFactory(new PropertyValueFactory<>("significanceLevel"));
+        // the matrix knows whether its computation approximated the median (e.g. pair tiling), the metadata doesn't
+        resultKindColumn.setCellValueFactory(cell -> {
+            CorrelationMatrix result = sharedData.experiment.getResult(cell.getValue());
+            return new ReadOnlyStringWrapper(result == null ? cell.getValue().getResultKind() : result.getResultKind());
+        });
         approximateMemoryColumn.setCellValueFactory(new PropertyValueFactory<>("approximateMemoryConsumption"));
 
         // initialize context menu action on table: delete selected results
@@ -147,8 +161,10 @@ public class ComputationController implements Initializable {
         inputGridPane.add(setBSelector.listView, 1, 1);
 
         // enable computation run button only if both sets contain at least one element
-        ListChangeListener<TimeSeries> checkNonEmpty = change ->
-                runButton.setDisable(dataModel.correlationSetA.size() == 0 || dataModel.correlationSetB.size() == 0);
+        ListChangeListener<TimeSeries> checkNonEmpty = change -> {
+            runButton.setDisable(dataModel.correlationSetA.size() == 0 || dataModel.correlationSetB.size() == 0);
+            previewButton.setDisable(runButton.isDisable());
+        };
         dataModel.correlationSetA.addListener(checkNonEmpty);
         dataModel.correlationSetB.addListener(checkNonEmpty);
 
@@ -182,11 +198,37 @@ public class ComputationController implements Initializable {
             sharedData.setcorrelationMatrix(result);
         } else {
             result = new CorrelationMatrix(metadata);
+            // after adding or removing a few time series, only the changed window pairs are computed
+            sharedData.experiment.getResults().stream().filter(result::canDeriveFrom).findFirst().ifPresent(result::setMembershipBasis);
             computeMatrixWithProgressFeedback(result);
         }
         
     }
 
+    /**
+     * Computes a coarse preview of the correlation matrix on downsampled time series (see {@link CoarsePreview#metadata(WindowMetadata, int)}),
+     * such that the parameters can be checked before computing the full resolution result. The preview is added to the results, labeled as such.
+     */
+    public void computePreview(){
+
+        Optional<WindowMetadata> metadataFromGUIElements = createMetadataFromGUIElements();
+        if(! metadataFromGUIElements.isPresent()) return;
+
+        int level = CoarsePreview.level(metadataFromGUIElements.get());
+        if(level == 0){
+            new Alert(Alert.AlertType.INFORMATION, "The time series are short enough to compute the full resolution result right away.").show();
+            return;
+        }
+        WindowMetadata metadata = CoarsePreview.metadata(metadataFromGUIElements.get(), level);
+
+        startMeasuringComputationTime(metadata);
+        if(sharedData.experiment.hasResult(metadata)){
+            sharedData.setcorrelationMatrix(sharedData.experiment.getResult(metadata));
+        } else {
+            computeMatrixWithProgressFeedback(new CorrelationMatrix(metadata));
+        }
+    }
+
     /**
      * Assembles computation input parameters from the GUI input elements.
      * @return If the input parameters are valid, an Optional with the desired metadata. Otherwise this Optional is empty.
@@ -300,16 +342,18 @@ public class ComputationController implements Initializable {
      */
     public void restoreComputationParameters(WindowMetadata metadata){
 
-        windowSizeText.setText(""+metadata.windowSize);
-        baseWindowOffsetText.setText(""+metadata.getOverlap());
+        // previews show the (approximate) full resolution parameters
+        int factor = 1 << metadata.previewLevel;
+        windowSizeText.setText(""+metadata.windowSize * factor);
+        baseWindowOffsetText.setText(""+metadata.getOverlap() * factor);
 //        timeLagMinText.setText(""+metadata.tauMin);
-        timeLagMaxText.setText(""+metadata.tauMax);
-        timeLagStepText.setText(""+metadata.tauStep);
+        timeLagMaxText.setText(""+metadata.tauMax * factor);
+        timeLagStepText.setText(""+metadata.tauStep * factor);
         significanceLevelText.setText(""+CorrelationMatrix.getSignificanceLevel(metadata));
 
         // restore time series selection
-        setASelector.setSample(metadata.setA);
-        setBSelector.setSample(metadata.setB);
+        setASelector.setSample(metadata.setA.stream().map(TimeSeries::getFullResolution).collect(Collectors.toList()));
+        setBSelector.setSample(metadata.setB.stream().map(TimeSeries::getFullResolution).collect(Collectors.toList()));
     }
 
     public void deleteSelectedResults(){
@@ -333,16 +377,32 @@ public class ComputationController implements Initializable {
         // remove partial state if previous computation was cancelled
         service.reset();
 
+        // keep the cell summaries on request, such that changing the time series selection doesn't require a full recomputation.
+        // a matrix derived from the summaries of a previous result consists of summaries as well.
+        if(keepSummariesCheckBox.isSelected() || matrix.getMembershipBasis() != null)
+            matrix.setCellSummaryBudget(CorrelationMatrix.DEFAULT_CELL_SUMMARY_BUDGET_BYTES);
+
+        // compute the columns coarse-to-fine and render the previews while the computation continues
+        matrix.setProgressive(true);
+        ChangeListener<CorrelationMatrix> showPreview = (observable, oldValue, preview) -> {
+            if(preview != null && preview.isPartial()) sharedData.setcorrelationMatrix(preview);
+        };
+        service.valueProperty().addListener(showPreview);
+
         // after the computation, put correlation result in the shared data object and save the result
         service.setOnSucceeded(t -> {
+            service.valueProperty().removeListener(showPreview);
             progressLayer.hide();
             sharedData.experiment.addResult(service.getValue());
+            // only the latest result keeps its cell summaries (as the basis for the next change of the time series selection), which bounds their memory
+            if(service.getValue().hasCellSummaries())
+                sharedData.experiment.getResults().stream().filter(result -> result != service.getValue()).forEach(CorrelationMatrix::releaseCellSummaries);
             sharedData.setcorrelationMatrix(service.getValue());
-            finishAndReportComputationTime();
+            finishAndReportComputationTime(service.getValue());
         });
 
         // on cancel: hide the progress layer. wire the cancel button to that action.
-        service.setOnCancelled(t -> progressLayer.hide());
+        service.setOnCancelled(t -> { service.valueProperty().removeListener(showPreview); progressLayer.hide(); });
         progressLayer.cancelButton.setOnAction(t -> { System.out.println(String.format("Computation cancelled. Success: %s", service.cancel())); progressLayer.hide(); });
 
         // bind progress display elements
@@ -502,14 +562,31 @@ public class ComputationController implements Initializable {
         metadataForTimeMeasurement = metadata;
     }
 
-    private void finishAndReportComputationTime(){
+    private void finishAndReportComputationTime(CorrelationMatrix result){
         // report needed time and parameters
         neededTimeMs = System.currentTimeMillis()-neededTimeMs;
 
         try(BufferedWriter writer = new BufferedWriter(new FileWriter("computationLog.txt",true))){
             String filename = sharedData.experiment.filename;
             double neededTimeSeconds = 1. * neededTimeMs / 1e3;
-            writer.write(String.format("experiment: %s\nmetadata: %s\nneeded time: %.4f seconds\n\n", filename, metadataForTimeMeasurement, neededTimeSeconds));
+            // single precision computations report how much they deviate from double precision
+            String precision = result.metadata.precision == CorrelationMatrix.PRECISION.FLOAT ?
+                    String.format("precision: float (reduces memory bandwidth), max deviation from double precision: %.3g\n", result.getMaxFloatDeviation()) : "";
+            // histogram mode computations report the maximum error of the median
+            int histogramBins = result.metadata.histogramBins;
+            String histogram = histogramBins > 0 ? String.format("histogram bins: %s, max median error: %.3g\n", histogramBins, CellSummary.maxPercentileError(histogramBins)) : "";
+            // sketched computations report how many window pairs had to be correlated exactly
+            String sketch = result.metadata.sketchCoefficients > 0 ? String.format("sketch coefficients: %s, refined pairs: %s of %s\n", result.metadata.sketchCoefficients, result.getRefinedPairs(), result.getSketchedPairs()) : "";
+            // sampled computations report how many window pairs have been correlated
+            String sampling = result.metadata.samplingTolerance > 0 ? String.format("sampling tolerance: %s, sampled pairs: %s\n", result.metadata.samplingTolerance, result.getSampledPairs()) : "";
+            // coarse previews report the downsampling factor
+            String preview = result.isPreview() ? String.format("coarse preview, downsampled 1:%s\n", 1 << result.metadata.previewLevel) : "";
+            // results derived from a previous result report how many window pairs per cell had to be correlated
+            String derived = result.getChangedPairs() > 0 ? String.format("derived from a previous result, changed window pairs per cell: %s\n", result.getChangedPairs()) : "";
+            // within-ensemble comparisons report whether the symmetry could be exploited
+            String selfCorrelation = result.getSelfCorrelation() && !result.isSymmetric() ? "self correlation requested, but set A and set B differ or the engine doesn't support it: computed all window pairs\n" :
+                    result.isSymmetric() ? "self correlation: computed each unordered pair once\n" : "";
+            writer.write(String.format("experiment: %s\nmetadata: %s\nneeded time: %.4f seconds\n%s%s%s%s%s%s%s%s\n\n", filename, metadataForTimeMeasurement, neededTimeSeconds, precision, histogram, sketch, sampling, preview, derived, selfCorrelation, CorrelationKernels.describe()));
         } catch (IOException e) {
             new Alert(Alert.AlertType.ERROR, "Couldn't log performance data.").show();
         }
@@ -2,15 +2,18 @@ package Visualization;
 
 import Data.Cacheable;
 import Data.Correlation.CorrelationMatrix;
+import Data.Correlation.Refinement;
 import Data.SharedData;
 import Data.Statistics.AggregatedCorrelationMatrix;
 import Data.Windowing.WindowMetadata;
 import javafx.beans.value.ObservableValue;
+import javafx.concurrent.Task;
 import javafx.geometry.BoundingBox;
 import javafx.geometry.Bounds;
 import javafx.geometry.Point2D;
 import javafx.scene.Node;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Alert;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
@@ -19,6 +22,8 @@ import javafx.scene.transform.*;
 
 import java.awt.*;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static Data.Correlation.CorrelationMatrix.*;
 import static Data.Statistics.AggregatedCorrelationMatrix.MatrixRegionData;
@@ -97,6 +102,16 @@ public class Correlogram extends CanvasChart {
 
     Color backgroundColor = Color.GRAY;//Color.gray(0.176);//new Color(0.78, 0.78, 0.78, 1);
     Color filteredColor = backgroundColor;
+
+    /** The factor by which the time lag step and base window offset are reduced when refining a region (see {@link #finalizeRectangleSelection(MouseEvent)}). */
+    static final int REFINEMENT_FACTOR = 4;
+
+    /** Computes the refinements one after the other on a single daemon thread, such that repeated selections queue up instead of competing for the CPU and don't keep the application alive. */
+    private static final ExecutorService REFINEMENT_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "correlogram refinement");
+        thread.setDaemon(true);
+        return thread;
+    });
     // how to draw the border of the correlogram
     int borderwidthPx = 1;                  // line width in pixels
     Color borderColor=Color.gray(0.176);    // line color
@@ -209,6 +224,12 @@ public class Correlogram extends CanvasChart {
 
         // listen to changes in the correlation result matrix
         sharedData.correlationMatrixProperty().addListener((ov, t, m) -> {
+            // previews of a progressive computation and its final result keep the current view
+            if(t != null && t.isPartial() && t.metadata == m.metadata){
+                aggregatedCorrelationMatrix.invalidate();
+                drawContents();
+                return;
+            }
             yAxis.setMinTickUnit(m.metadata.tauStep);
             yAxis.setTickOrigin(m.metadata.tauMin);   // good for small lag ranges (exact tick labels), bad for large lag ranges (odd tick labels)
             xAxis.setScrollBarBoundsDC(new BoundingBox(m.metadata.getMinXValue(),0,m.metadata.baseWindowOffset*m.metadata.getTimeInterval()*m.getSize(),0));
@@ -219,6 +240,9 @@ public class Correlogram extends CanvasChart {
             drawContents();
         });
 
+        // a running computation computes the visible columns first
+        clipRegionDCProperty().addListener((observable, oldValue, newValue) -> prioritizeVisibleColumns());
+
         // listen to changes in the matrix filter ranges
         sharedData.matrixFilterRangesProperty().addListener((ov, t, m) -> drawContents());
 
@@ -272,6 +296,22 @@ public class Correlogram extends CanvasChart {
         return new Affine(dataToScreen().createConcatenation(toUpperLeftCorner.createConcatenation(cellToData(metadata))));
     }
 
+    /** If the displayed matrix is a preview of a running computation, lets the computation compute the visible columns first (see {@link CorrelationMatrix#setPriorityColumns(int, int)}). */
+    void prioritizeVisibleColumns(){
+
+        if(sharedData == null || sharedData.getCorrelationMatrix() == null || !sharedData.getCorrelationMatrix().isPartial()) return;
+        CorrelationMatrix matrix = sharedData.getCorrelationMatrix();
+
+        try {
+            Affine cellToData = cellToData(matrix.metadata);
+            int minCol = (int) Math.floor(cellToData.inverseTransform(xAxis.getLowerBound(), yAxis.getLowerBound()).getX());
+            int maxCol = (int) Math.floor(cellToData.inverseTransform(xAxis.getUpperBound(), yAxis.getUpperBound()).getX());
+            // if the entire matrix is visible, the coarse-to-fine order is preserved
+            if(minCol <= 0 && maxCol >= matrix.getSize() - 1) matrix.setPriorityColumns(0, 0);
+            else matrix.setPriorityColumns(Math.max(0, minCol), Math.min(matrix.getSize(), maxCol + 1));
+        } catch (NonInvertibleTransformException e) { e.printStackTrace(); }
+    }
+
     /**
      * Renders the correlogram.
      * The width of a window is windowSize - overlap (overlap = |w| - baseWindowOffset)
@@ -343,6 +383,12 @@ public class Correlogram extends CanvasChart {
             drawContentsUnivariate(gc, matrix, minColMinLag, maxColMaxLag, windowStep, lagStep, getCorrelationStatistic());
         }
 
+        // draw the regions that have been recomputed at a finer resolution on top of the coarse cells
+        if(!matrix.getRefinements().isEmpty()){
+            for(Refinement refinement : matrix.getRefinements()) drawRefinement(gc, refinement);
+            cellToData(matrix.metadata); // restores the block dimensions of the matrix
+        }
+
         xAxis.drawContents();
         yAxis.drawContents();
 
@@ -357,6 +403,104 @@ public class Correlogram extends CanvasChart {
 
     }
 
+    /**
+     * Draws the cells of a region that has been recomputed at a finer resolution (see {@link CorrelationMatrix#refine(int, int, int, int, int, int)}).
+     * The cells are colored by the correlation statistic and, if the uncertainty is encoded in color, by the uncertainty statistic of the current render mode.
+     */
+    void drawRefinement(GraphicsContext gc, Refinement refinement){
+
+        int CORRELATION_DIM = getCorrelationStatistic(), UNCERTAINTY_DIM = getUncertaintyStatistic();
+        if(!isValidStatistic(CORRELATION_DIM)) return;
+        boolean bivariate = isValidStatistic(UNCERTAINTY_DIM) && uncertaintyVisualization == UNCERTAINTY_VISUALIZATION.COLOR;
+
+        Affine cellToScreen = cellToScreen(refinement.metadata);
+        Point2D blockSizeSC = cellToScreen.deltaTransform(1, -1);
+        double widthSC = blockSizeSC.getX() + 1, // +1: to avoid gaps between the blocks
+               heightSC = blockSizeSC.getY() + 1;
+
+        double[][] matrixFilterRanges = sharedData.getMatrixFilterRanges();
+        MultiDimensionalPaintScale paintScale = this.paintScale.get();
+        double[] srcPts = new double[2], dstPts = new double[2];
+
+        for (int i = refinement.fromColumn; i < refinement.toColumn(); i++) {
+
+            CorrelationMatrix.CorrelationColumn column = refinement.getColumn(i);
+
+            for (int lag = 0; lag < column.getSize(); lag++) {
+
+                srcPts[0] = i; srcPts[1] = lag;
+                cellToScreen.transform2DPoints(srcPts, 0, dstPts, 0, 1);
+
+                gc.setFill(bivariate ? paintScale.getPaint(column.data[CORRELATION_DIM][lag], column.data[UNCERTAINTY_DIM][lag]) : paintScale.getPaint(column.data[CORRELATION_DIM][lag]));
+                for (int STAT = 0; STAT < CorrelationMatrix.NUM_STATS; STAT++) {
+                    if(matrixFilterRanges[STAT] == null) continue;
+                    if(column.data[STAT][lag] < matrixFilterRanges[STAT][0] ||
+                       column.data[STAT][lag] > matrixFilterRanges[STAT][1]){
+                        gc.setFill(filteredColor);
+                        break;
+                    }
+                }
+
+                gc.fillRect(dstPts[0], dstPts[1], widthSC, heightSC);
+            }
+        }
+    }
+
+    /**
+     * A rectangle selected while holding shift is recomputed at a finer resolution instead of being zoomed into.
+     * The time lag step and base window offset of the refinement are those of the matrix divided by {@link #REFINEMENT_FACTOR}.
+     * The computation runs in the background, the correlogram is redrawn when it has finished. Cancelling a selection while holding shift removes all refinements.
+     */
+    @Override protected void finalizeRectangleSelection(MouseEvent t){
+
+        if(!t.isShiftDown()){
+            super.finalizeRectangleSelection(t);
+            return;
+        }
+
+        selectionRect.setVisible(false);
+        CorrelationMatrix matrix = sharedData == null ? null : sharedData.getCorrelationMatrix();
+        if(matrix == null || matrix.isPartial()) return;
+
+        double minXSC = selectionRect.getX(), minYSC = selectionRect.getY(),
+               maxXSC = minXSC + selectionRect.getWidth(), maxYSC = minYSC + selectionRect.getHeight();
+        if(t.getX() < minXSC || t.getY() < minYSC){
+            matrix.clearRefinements();
+            drawContents();
+            return;
+        }
+
+        WindowMetadata metadata = matrix.metadata;
+        int tauStep = Math.max(1, metadata.tauStep / REFINEMENT_FACTOR),
+            baseWindowOffset = Math.max(1, metadata.baseWindowOffset / REFINEMENT_FACTOR);
+        if(tauStep == metadata.tauStep && baseWindowOffset == metadata.baseWindowOffset){
+            new Alert(Alert.AlertType.INFORMATION, "The matrix has already been computed at the finest resolution.").show();
+            return;
+        }
+
+        try {
+            // the selected cells
+            Affine cellToData = cellToData(metadata);
+            Point2D minColMinLag = cellToData.inverseTransform(xAxis.fromScreen(minXSC), yAxis.fromScreen(maxYSC));
+            Point2D maxColMaxLag = cellToData.inverseTransform(xAxis.fromScreen(maxXSC), yAxis.fromScreen(minYSC));
+            int fromColumn = Math.max(0, (int) Math.floor(minColMinLag.getX())),
+                toColumn = Math.min(matrix.getSize(), (int) Math.floor(maxColMaxLag.getX()) + 1);
+            int minLagIdx = Math.max(0, (int) Math.ceil(minColMinLag.getY()) - 1),
+                maxLagIdx = Math.min(metadata.getNumberOfDifferentTimeLags() - 1, (int) Math.ceil(maxColMaxLag.getY()));
+            if(toColumn <= fromColumn || maxLagIdx < minLagIdx) return;
+
+            int minLag = metadata.tauMin + minLagIdx * metadata.tauStep, maxLag = metadata.tauMin + maxLagIdx * metadata.tauStep;
+            Task<Refinement> refinement = new Task<Refinement>() {
+                @Override protected Refinement call() {
+                    return matrix.refine(fromColumn, toColumn, minLag, maxLag, tauStep, baseWindowOffset);
+                }
+            };
+            refinement.setOnSucceeded(event -> drawContents());
+            refinement.setOnFailed(event -> new Alert(Alert.AlertType.ERROR, "Couldn't refine the selected region: " + refinement.getException()).show());
+            REFINEMENT_EXECUTOR.execute(refinement);
+        } catch (NonInvertibleTransformException e) { e.printStackTrace(); }
+    }
+
     /** @return the correlation statistic of the current render mode (which variable of the correlation matrix to visualize).
      * If the value is -1, no statistic is defined. */
     protected int getCorrelationStatistic(){
@@ -786,6 +930,11 @@ public class Correlogram extends CanvasChart {
                 if(CorrelationMatrix.isValidStatistic(getCorrelationStatistic())) newRegion.medianCorrelation = column.data[getCorrelationStatistic()][lagIdx];
                 if(CorrelationMatrix.isValidStatistic(getUncertaintyStatistic())) newRegion.averageUncertainty = column.data[getUncertaintyStatistic()][lagIdx];
                 newRegion.cellDistribution = column.histogram == null ? null : column.histogram.getHistogram(lagIdx);
+                // statistics estimated from a sample of window pairs come with confidence intervals
+                if(column.confidenceHalfWidths != null){
+                    if(CorrelationMatrix.isValidStatistic(getCorrelationStatistic())) newRegion.correlationHalfWidth = column.confidenceHalfWidths[getCorrelationStatistic()][lagIdx];
+                    if(CorrelationMatrix.isValidStatistic(getUncertaintyStatistic())) newRegion.uncertaintyHalfWidth = column.confidenceHalfWidths[getUncertaintyStatistic()][lagIdx];
+                }
             }
         }
 
@@ -347,6 +347,9 @@ public class CorrelogramLegend extends CanvasChart {
 
         String horizontalValueString = Double.isNaN(horizontalValue) ? "Not a Number" : legendTipConverter.toString(horizontalValue);
         String verticalValueString = Double.isNaN(verticalValue) ? "Not a Number" : legendTipConverter.toString(verticalValue);
+        // sampled statistics: append the confidence interval half-width
+        if(!Double.isNaN(horizontalValue) && !Double.isNaN(matrixRegionData.correlationHalfWidth)) horizontalValueString += " ± " + legendTipConverter.toString(matrixRegionData.correlationHalfWidth);
+        if(!Double.isNaN(verticalValue) && !Double.isNaN(matrixRegionData.uncertaintyHalfWidth)) verticalValueString += " ± " + legendTipConverter.toString(matrixRegionData.uncertaintyHalfWidth);
 
         // handle NaN: position label in center of legend
         horizontalValue = Double.isNaN(horizontalValue) ? 0 : horizontalValue;
@@ -60,6 +60,38 @@ public class ComplexSequenceTest {
         ComplexSequence result = instance.pointWiseProduct(other);
         assertEquals(expResult, result);
     }
+
+    /** Compares the fast fourier transform to the definition of the discrete fourier transform and checks the inverse transform. */
+    @Test
+    public void testFFT() {
+        System.out.println("fft");
+        int n = 16;
+        double[] re = new double[n], im = new double[n];
+        for (int i = 0; i < n; i++) { re[i] = Math.sin(i) + i; im[i] = Math.cos(3*i); }
+        ComplexSequence original = ComplexSequence.create(re, im);
+        ComplexSequence result = ComplexSequence.create(original).fft();
+
+        for (int k = 0; k < n; k++) {
+            double expRe = 0, expIm = 0;
+            for (int t = 0; t < n; t++) {
+                double angle = -2 * Math.PI * k * t / n;
+                expRe += re[t] * Math.cos(angle) - im[t] * Math.sin(angle);
+                expIm += re[t] * Math.sin(angle) + im[t] * Math.cos(angle);
+            }
+            assertEquals(expRe, result.re[k], 1e-12);
+            assertEquals(expIm, result.im[k], 1e-12);
+        }
+
+        result.inverseFFT();
+        for (int i = 0; i < n; i++) {
+            assertEquals(re[i], result.re[i], 1e-12);
+            assertEquals(im[i], result.im[i], 1e-12);
+        }
+
+        assertEquals(1, ComplexSequence.nextPowerOfTwo(1));
+        assertEquals(16, ComplexSequence.nextPowerOfTwo(16));
+        assertEquals(32, ComplexSequence.nextPowerOfTwo(17));
+    }
         
 //    @Test
 //    @Ignore
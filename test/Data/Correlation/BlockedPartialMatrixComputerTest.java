@@ -0,0 +1,35 @@
+package Data.Correlation;
+
+import Data.TimeSeries;
+import Data.TimeSeriesTest;
+import Data.Windowing.WindowMetadata;
+import org.junit.Test;
+
+import java.util.List;
+
+import static Data.Correlation.CorrelationMatrixTest.assertMatricesEqual;
+
+public class BlockedPartialMatrixComputerTest {
+
+    /** The blocked engine computes the same matrix as the lag loop engine (up to rounding errors). Ensemble sizes and window size are not multiples of the block sizes. */
+    @Test public void testBlockedEngine() {
+
+        List<TimeSeries> tsA = TimeSeriesTest.randomTimeSeries(37, 700, 5l);
+        List<TimeSeries> tsB = TimeSeriesTest.randomTimeSeries(34, 700, 6l);
+
+        int windowSize = 301, baseWindowOffset = 150, tauMin = -20, tauMax = 30, tauStep = 10;
+        WindowMetadata metadata = new WindowMetadata(tsA, tsB, windowSize, tauMin, tauMax, tauStep, baseWindowOffset);
+        CorrelationMatrix.setSignificanceLevel(metadata, 0.05);
+
+        CorrelationMatrix expected = new CorrelationMatrix(metadata);
+        expected.compute();
+
+        CorrelationMatrix result = new CorrelationMatrix(metadata);
+        result.setEngine(CorrelationMatrix.ENGINE.BLOCKED);
+        result.compute();
+
+        assertMatricesEqual(expected, result, 1e-12);
+
+    }
+
+}
@@ -0,0 +1,66 @@
+package Data.Correlation;
+
+import Data.TimeSeries;
+import Data.TimeSeriesTest;
+import Data.Windowing.WindowMetadata;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static Data.Correlation.CorrelationMatrixTest.assertMatricesEqual;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CoarsePreviewTest {
+
+    /** A coarse preview is the regular computation on the downsampled time series with scaled down parameters, and is labeled as a preview. */
+    @Test public void testCoarsePreview() {
+
+        List<TimeSeries> tsA = TimeSeriesTest.randomTimeSeries(3, 20000, 43l), tsB = TimeSeriesTest.randomTimeSeries(2, 20000, 44l);
+        WindowMetadata metadata = new WindowMetadata.Builder(-200, 200, 400, 20, 100).tsA(tsA).tsB(tsB).sketchCoefficients(10).build();
+
+        // the time series are downsampled to at most 4096 values
+        int level = CoarsePreview.level(metadata);
+        assertEquals(3, level);
+        assertEquals(0, CoarsePreview.level(new WindowMetadata.Builder(-2, 2, 10, 1, 5).tsA(tsA).tsB(tsB).build()));
+        // but the windows are not scaled below the minimum window size
+        assertEquals(2, CoarsePreview.level(new WindowMetadata.Builder(-2, 2, 32, 1, 5).tsA(tsA).tsB(tsB).build()));
+
+        WindowMetadata preview = CoarsePreview.metadata(metadata, level);
+        assertEquals(50, preview.windowSize);
+        assertEquals(-25, preview.tauMin);
+        assertEquals(25, preview.tauMax);
+        assertEquals(3, preview.tauStep);
+        assertEquals(13, preview.baseWindowOffset);
+        assertEquals(2500, preview.setA.get(0).getSize());
+        assertEquals(0, preview.sketchCoefficients);
+        assertEquals(level, preview.previewLevel);
+        assertNotEquals(metadata, preview);
+        assertEquals("preview 1:8", preview.getResultKind());
+        assertEquals("approximate", metadata.getResultKind());
+
+        CorrelationMatrix previewMatrix = new CorrelationMatrix(preview);
+        previewMatrix.compute();
+        assertTrue(previewMatrix.isPreview());
+        assertTrue(previewMatrix.isApproximate());
+
+        // the same as computing the matrix on explicitly downsampled time series
+        List<TimeSeries> downsampledA = new ArrayList<>(), downsampledB = new ArrayList<>();
+        for(TimeSeries ts : tsA) downsampledA.add(new TimeSeries(ts.getId(), blockMeans(ts.getDataItems().im, 8)));
+        for(TimeSeries ts : tsB) downsampledB.add(new TimeSeries(ts.getId(), blockMeans(ts.getDataItems().im, 8)));
+        CorrelationMatrix expected = new CorrelationMatrix(new WindowMetadata.Builder(-25, 25, 50, 3, 13).tsA(downsampledA).tsB(downsampledB).build());
+        expected.compute();
+        assertMatricesEqual(expected, previewMatrix, 1e-9);
+    }
+
+    private static double[] blockMeans(double[] values, int blockSize){
+        double[] means = new double[values.length / blockSize];
+        for (int i = 0; i < means.length; i++) {
+            for (int j = 0; j < blockSize; j++) means[i] += values[i * blockSize + j];
+            means[i] /= blockSize;
+        }
+        return means;
+    }
+}
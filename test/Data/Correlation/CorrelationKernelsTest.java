@@ -0,0 +1,36 @@
+package Data.Correlation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CorrelationKernelsTest {
+
+    final CorrelationKernel scalar = new CorrelationKernel.Scalar();
+
+    @Test public void testSelection() {
+        // the unrolled kernel has a higher priority than the scalar reference kernel and passes the self-check (the vector kernel, if available, has an even higher priority)
+        assertTrue(CorrelationKernels.active().getPriority() >= new CorrelationKernel.Unrolled().getPriority());
+        System.out.println(CorrelationKernels.describe());
+    }
+
+    @Test public void testSelfCheck() {
+
+        assertTrue(CorrelationKernels.selfCheck(new CorrelationKernel.Unrolled(), scalar));
+
+        // a kernel that ignores the last element of each vector is detected
+        CorrelationKernel faulty = new CorrelationKernel.Scalar(){
+            @Override public double dot(double[] a, int aFrom, double[] b, int bFrom, int length) { return super.dot(a, aFrom, b, bFrom, Math.max(0, length - 1)); }
+        };
+        assertFalse(CorrelationKernels.selfCheck(faulty, scalar));
+    }
+
+    @Test public void testUnrolled() {
+        CorrelationKernel unrolled = new CorrelationKernel.Unrolled();
+        double[] a = new double[]{1, 2, 3, 4, 5, 6, 7}, b = new double[]{7, 6, 5, 4, 3, 2, 1};
+        assertEquals(scalar.dot(a, 1, b, 0, 6), unrolled.dot(a, 1, b, 0, 6), 1e-15);
+        assertEquals(scalar.covariance(a, 0, 4, b, 0, 4, 7), unrolled.covariance(a, 0, 4, b, 0, 4, 7), 1e-15);
+        assertEquals(-28, unrolled.covariance(a, 0, 4, b, 0, 4, 7), 1e-15);
+    }
+
+}
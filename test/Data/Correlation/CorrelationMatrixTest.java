@@ -1,18 +1,26 @@
 package Data.Correlation;
 
+import Data.Statistics.CellSummary;
 import Data.TimeSeries;
 import Data.TimeSeriesTest;
 import Data.Windowing.WindowMetadata;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.junit.Ignore;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class CorrelationMatrixTest {
 
@@ -41,6 +49,33 @@ public class CorrelationMatrixTest {
 
     }
 
+    // the running sums stay accurate on long time series with a large offset and handle windows containing NaN values
+    @Test public void testPrecomputeWindowTermsAccuracy(){
+
+        int n = 200000, windowSize = 500;
+        Random random = new Random(1l);
+        double[] data = new double[n];
+        for (int i = 0; i < n; i++) data[i] = 1e6 + 1e-3 * i + random.nextGaussian();
+        data[1000] = Double.NaN;
+
+        double[] means = new double[n], l2Norms = new double[n];
+        CorrelationMatrix.precomputeWindowTerms(data, windowSize, means, l2Norms);
+
+        for (int from = 0; from <= n - windowSize; from += 997) {
+            boolean containsNaN = from <= 1000 && 1000 < from + windowSize;
+            double mean = 0;
+            for (int i = from; i < from + windowSize; i++) mean += data[i];
+            mean /= windowSize;
+            double summedSquares = 0;
+            for (int i = from; i < from + windowSize; i++) summedSquares += (data[i] - mean) * (data[i] - mean);
+            assertEquals(containsNaN, Double.isNaN(means[from]));
+            if(containsNaN) continue;
+            assertEquals(mean, means[from], 1e-13 * mean);
+            assertEquals(Math.sqrt(summedSquares), l2Norms[from], 1e-9 * Math.sqrt(summedSquares));
+        }
+        assertEquals(Double.NaN, means[n - windowSize + 1], 0);
+    }
+
     @Test public void compareWithHandComputedResult(){
 
         TimeSeries tsA = new TimeSeries(1, 1,2,3,4,4,3,2,1);
@@ -121,6 +156,280 @@ public class CorrelationMatrixTest {
 
     }
 
+    /** The statistics that are computed exactly in all modes, i.e. all except the percentiles median and IQR. */
+    static final int[] NON_PERCENTILE_STATISTICS = {CorrelationMatrix.MEAN, CorrelationMatrix.STD_DEV, CorrelationMatrix.POSITIVE_SIGNIFICANT, CorrelationMatrix.NEGATIVE_SIGNIFICANT, CorrelationMatrix.ABSOLUTE_SIGNIFICANT};
+
+    /** Asserts that both matrices have the same number of columns and that the given statistics (all if none are given) of each column agree up to the tolerance. */
+    static void assertMatricesEqual(CorrelationMatrix expected, CorrelationMatrix result, double tolerance, int... statistics){
+        if(statistics.length == 0){
+            statistics = new int[CorrelationMatrix.NUM_STATS];
+            for (int stat = 0; stat < statistics.length; stat++) statistics[stat] = stat;
+        }
+        assertEquals(expected.getSize(), result.getSize());
+        for (int i = 0; i < expected.getSize(); i++)
+            for (int stat : statistics)
+                assertArrayEquals(expected.getColumn(i).data[stat], result.getColumn(i).data[stat], tolerance);
+    }
+
+    /** Asserts that the histograms of all cells of both matrices are equal. */
+    static void assertHistogramsEqual(CorrelationMatrix expected, CorrelationMatrix result){
+        assertEquals(expected.getSize(), result.getSize());
+        for (int i = 0; i < expected.getSize(); i++)
+            for (int lagIdx = 0; lagIdx < expected.getColumn(i).getSize(); lagIdx++)
+                assertArrayEquals(expected.getColumn(i).histogram.getHistogram(lagIdx), result.getColumn(i).histogram.getHistogram(lagIdx));
+    }
+
+    /** Time series contained in both sets share their precomputed window terms, also across computations that use the same registry. */
+    @Test public void testSharedWindowStatistics() {
+
+        List<TimeSeries> tsA = TimeSeriesTest.randomTimeSeries(10, 300, 15l);
+        // set B is a re-sample of set A plus two other time series
+        List<TimeSeries> tsB = new ArrayList<>(Arrays.asList(tsA.get(7), tsA.get(2), tsA.get(2)));
+        tsB.addAll(TimeSeriesTest.randomTimeSeries(2, 300, 16l));
+
+        WindowStatisticsRegistry registry = new WindowStatisticsRegistry();
+        WindowMetadata metadata = new WindowMetadata.Builder(-10, 10, 50, 5, 40).tsA(tsA).tsB(tsB).build();
+        CorrelationMatrix.setSignificanceLevel(metadata, 0.05);
+        CorrelationMatrix matrix = new CorrelationMatrix(metadata);
+        matrix.setWindowStatisticsRegistry(registry);
+        matrix.compute();
+
+        assertEquals(12, registry.size());
+        assertTrue(matrix.meansA[7] == matrix.meansB[0] && matrix.L2NormsA[7] == matrix.L2NormsB[0]);
+        assertTrue(matrix.meansA[2] == matrix.meansB[1] && matrix.meansB[1] == matrix.meansB[2]);
+
+        double[] means = new double[300], l2Norms = new double[300];
+        CorrelationMatrix.precomputeWindowTerms(tsB.get(3).getDataItems().im, 50, means, l2Norms);
+        assertArrayEquals(means, matrix.meansB[3], 0);
+        assertArrayEquals(l2Norms, matrix.L2NormsB[3], 0);
+
+        // a second computation with the same window size reuses all terms, another window size adds new ones
+        CorrelationMatrix reusing = new CorrelationMatrix(new WindowMetadata.Builder(-10, 10, 50, 5, 20).tsA(tsB).tsB(tsA).build());
+        reusing.setWindowStatisticsRegistry(registry);
+        reusing.compute();
+        assertEquals(12, registry.size());
+        assertTrue(reusing.meansA[0] == matrix.meansA[7]);
+        CorrelationMatrix otherWindowSize = new CorrelationMatrix(new WindowMetadata.Builder(-10, 10, 60, 5, 20).tsA(tsA).tsB(tsA).build());
+        otherWindowSize.setWindowStatisticsRegistry(registry);
+        otherWindowSize.compute();
+        assertEquals(22, registry.size());
+
+    }
+
+    /** Exploiting the symmetry of a within-ensemble comparison gives the same results as correlating all ordered pairs for all time lags. */
+    @Test public void testSelfCorrelation() {
+
+        List<TimeSeries> ts = TimeSeriesTest.randomTimeSeries(15, 400, 14l);
+        // same values, different ids: not detected as a within-ensemble comparison
+        List<TimeSeries> copies = new ArrayList<>();
+        for(TimeSeries t : ts) copies.add(new TimeSeries(t.getId() + ts.size(), t.getDataItems().im.clone()));
+
+        WindowMetadata allPairs = new WindowMetadata.Builder(-30, 20, 100, 10, 60).tsA(ts).tsB(copies).build();
+        CorrelationMatrix.setSignificanceLevel(allPairs, 0.05);
+        CorrelationMatrix expected = new CorrelationMatrix(allPairs);
+        expected.compute();
+        assertEquals(null, expected.mirroredLagIdx);
+
+        WindowMetadata withinEnsemble = new WindowMetadata.Builder(-30, 20, 100, 10, 60).tsA(ts).tsB(ts).build();
+        CorrelationMatrix.setSignificanceLevel(withinEnsemble, 0.05);
+        CorrelationMatrix detected = new CorrelationMatrix(withinEnsemble);
+        detected.compute();
+        CorrelationMatrix detectedWithoutStore = new CorrelationMatrix(withinEnsemble);
+        detectedWithoutStore.setWindowStoreBudget(0);
+        detectedWithoutStore.compute();
+        CorrelationMatrix requested = new CorrelationMatrix(allPairs);
+        requested.setSelfCorrelation(true);
+        requested.compute();
+
+        for(CorrelationMatrix result : new CorrelationMatrix[]{detected, detectedWithoutStore, requested}){
+            assertArrayEquals(new int[]{-1, 5, 4, -1, -1, -1}, result.mirroredLagIdx); // lags -30 -20 -10 0 10 20
+            assertMatricesEqual(expected, result, 1e-12);
+            assertHistogramsEqual(expected, result);
+        }
+
+    }
+
+    /** Unrequested statistics are skipped and can be computed on demand for a range of columns. */
+    @Test public void testRequestedStatistics() {
+
+        List<TimeSeries> tsA = TimeSeriesTest.randomTimeSeries(12, 400, 19l);
+        List<TimeSeries> tsB = TimeSeriesTest.randomTimeSeries(14, 400, 20l);
+
+        CorrelationMatrix expected = new CorrelationMatrix(new WindowMetadata.Builder(-20, 20, 80, 10, 40).tsA(tsA).tsB(tsB).build());
+        expected.compute();
+
+        WindowMetadata metadata = new WindowMetadata.Builder(-20, 20, 80, 10, 40).tsA(tsA).tsB(tsB).statistics(CorrelationMatrix.MEAN, CorrelationMatrix.STD_DEV).build();
+        assertEquals(new HashSet<>(Arrays.asList(CorrelationMatrix.MEAN, CorrelationMatrix.STD_DEV)), metadata.requestedStatistics);
+        CorrelationMatrix result = new CorrelationMatrix(metadata);
+        result.compute();
+
+        assertEquals(expected.getSize(), result.getSize());
+        for (int i = 0; i < expected.getSize(); i++) {
+            CorrelationMatrix.CorrelationColumn expectedColumn = expected.getColumn(i), column = result.getColumn(i);
+            assertArrayEquals(expectedColumn.data[CorrelationMatrix.MEAN], column.data[CorrelationMatrix.MEAN], 0);
+            assertArrayEquals(expectedColumn.data[CorrelationMatrix.STD_DEV], column.data[CorrelationMatrix.STD_DEV], 0);
+            for(int stat : new int[]{CorrelationMatrix.MEDIAN, CorrelationMatrix.IQR, CorrelationMatrix.POSITIVE_SIGNIFICANT, CorrelationMatrix.NEGATIVE_SIGNIFICANT, CorrelationMatrix.ABSOLUTE_SIGNIFICANT})
+                for(double value : column.data[stat]) assertTrue(Double.isNaN(value));
+            assertEquals(null, column.histogram);
+        }
+
+        // compute the median, significance and histograms for columns 2 to 4
+        result.computeStatistics(2, 5, CorrelationMatrix.MEDIAN, CorrelationMatrix.POSITIVE_SIGNIFICANT, CorrelationMatrix.HISTOGRAM);
+        for (int i = 0; i < expected.getSize(); i++) {
+            CorrelationMatrix.CorrelationColumn expectedColumn = expected.getColumn(i), column = result.getColumn(i);
+            assertArrayEquals(expectedColumn.data[CorrelationMatrix.MEAN], column.data[CorrelationMatrix.MEAN], 0);
+            boolean computed = i >= 2 && i < 5;
+            for(int stat : new int[]{CorrelationMatrix.MEDIAN, CorrelationMatrix.POSITIVE_SIGNIFICANT}){
+                if(computed) assertArrayEquals(expectedColumn.data[stat], column.data[stat], 0);
+                else for(double value : column.data[stat]) assertTrue(Double.isNaN(value));
+            }
+            for(double value : column.data[CorrelationMatrix.IQR]) assertTrue(Double.isNaN(value));
+            for(double value : column.data[CorrelationMatrix.NEGATIVE_SIGNIFICANT]) assertTrue(Double.isNaN(value));
+            if(computed){
+                for (int lagIdx = 0; lagIdx < expectedColumn.getSize(); lagIdx++)
+                    assertArrayEquals(expectedColumn.histogram.getCompressedHistogram(lagIdx), column.histogram.getCompressedHistogram(lagIdx));
+            } else assertEquals(null, column.histogram);
+        }
+        assertEquals(expected.getColumn(3).getMax(CorrelationMatrix.MEDIAN), result.getColumn(3).getMax(CorrelationMatrix.MEDIAN), 0);
+
+    }
+
+    /** Pairwise complete handling of missing values matches a naive computation over the complete pairs of each window pair. Without missing values, it is the ordinary computation. */
+    @Test public void testPairwiseComplete() {
+
+        List<TimeSeries> tsA = TimeSeriesTest.randomTimeSeries(6, 300, 21l);
+        List<TimeSeries> tsB = TimeSeriesTest.randomTimeSeries(5, 300, 22l);
+
+        WindowMetadata withoutGaps = new WindowMetadata.Builder(-15, 15, 70, 5, 30).tsA(tsA).tsB(tsB).naAction(CrossCorrelation.NA_ACTION.PAIRWISE_COMPLETE).build();
+        CorrelationMatrix pairwiseWithoutGaps = new CorrelationMatrix(withoutGaps);
+        pairwiseWithoutGaps.compute();
+        assertNull(pairwiseWithoutGaps.nanTermsA);
+        CorrelationMatrix ordinary = new CorrelationMatrix(new WindowMetadata.Builder(-15, 15, 70, 5, 30).tsA(tsA).tsB(tsB).build());
+        ordinary.compute();
+        assertMatricesEqual(ordinary, pairwiseWithoutGaps, 0);
+
+        // sparse gaps, including a gap that spans more than a 64 bit mask word
+        Random random = new Random(23);
+        for(TimeSeries ts : tsA) for (int i = 0; i < 10; i++) ts.getDataItems().im[random.nextInt(300)] = Double.NaN;
+        for(TimeSeries ts : tsB) for (int i = 0; i < 10; i++) ts.getDataItems().im[random.nextInt(300)] = Double.NaN;
+        Arrays.fill(tsB.get(1).getDataItems().im, 100, 180, Double.NaN);
+
+        WindowMetadata metadata = new WindowMetadata.Builder(-15, 15, 70, 5, 30).tsA(tsA).tsB(tsB).naAction(CrossCorrelation.NA_ACTION.PAIRWISE_COMPLETE).build();
+        CorrelationMatrix result = new CorrelationMatrix(metadata);
+        result.compute();
+        CorrelationMatrix withoutStore = new CorrelationMatrix(metadata);
+        withoutStore.setWindowStoreBudget(0);
+        withoutStore.setEngine(CorrelationMatrix.ENGINE.FFT); // falls back to the lag loop engine
+        withoutStore.compute();
+
+        int[] lags = metadata.getDifferentTimeLags();
+        for (int i = 0; i < metadata.numBaseWindows; i++) {
+            int baseWindowStartIdx = i * metadata.baseWindowOffset;
+            for (int lagIdx = 0; lagIdx < lags.length; lagIdx++) {
+                int lag = lags[lagIdx];
+                int windowAStartIdx = lag >= 0 ? baseWindowStartIdx : baseWindowStartIdx + lag,
+                    windowBStartIdx = lag >= 0 ? baseWindowStartIdx - lag : baseWindowStartIdx;
+                DescriptiveStatistics values = new DescriptiveStatistics();
+                int positiveSignificant = 0;
+                if(windowAStartIdx >= 0 && windowBStartIdx >= 0 && windowAStartIdx <= 300 - 70 && windowBStartIdx <= 300 - 70){
+                    for(TimeSeries a : tsA) for(TimeSeries b : tsB){
+                        double r = naivePairwiseComplete(a.getDataItems().im, windowAStartIdx, b.getDataItems().im, windowBStartIdx, 70);
+                        if(Double.isNaN(r)) continue;
+                        values.addValue(r);
+                        int n = 0;
+                        for (int j = 0; j < 70; j++) if(!Double.isNaN(a.getDataItems().im[windowAStartIdx + j]) && !Double.isNaN(b.getDataItems().im[windowBStartIdx + j])) n++;
+                        if(r > 0 && new CorrelationSignificance(n, 0.05).significanceTest(r)) positiveSignificant++;
+                    }
+                }
+                for(CorrelationMatrix matrix : new CorrelationMatrix[]{result, withoutStore}){
+                    CorrelationMatrix.CorrelationColumn column = matrix.getColumn(i);
+                    assertEquals(values.getMean(), column.data[CorrelationMatrix.MEAN][lagIdx], 1e-12);
+                    assertEquals(values.getPercentile(50), column.data[CorrelationMatrix.MEDIAN][lagIdx], 1e-12);
+                    assertEquals((double) positiveSignificant / values.getN(), column.data[CorrelationMatrix.POSITIVE_SIGNIFICANT][lagIdx], 1e-12);
+                }
+            }
+        }
+
+    }
+
+    /** @return the correlation of the given windows over the positions where neither has a missing value, computed with two passes. */
+    private static double naivePairwiseComplete(double[] a, int aStart, double[] b, int bStart, int length){
+        double sumA = 0, sumB = 0;
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            if(Double.isNaN(a[aStart + i]) || Double.isNaN(b[bStart + i])) continue;
+            sumA += a[aStart + i];
+            sumB += b[bStart + i];
+            n++;
+        }
+        if(n < 2) return Double.NaN;
+        double meanA = sumA / n, meanB = sumB / n, covariance = 0, squaresA = 0, squaresB = 0;
+        for (int i = 0; i < length; i++) {
+            if(Double.isNaN(a[aStart + i]) || Double.isNaN(b[bStart + i])) continue;
+            covariance += (a[aStart + i] - meanA) * (b[bStart + i] - meanB);
+            squaresA += (a[aStart + i] - meanA) * (a[aStart + i] - meanA);
+            squaresB += (b[bStart + i] - meanB) * (b[bStart + i] - meanB);
+        }
+        return covariance / Math.sqrt(squaresA) / Math.sqrt(squaresB);
+    }
+
+    /** In histogram mode, median and IQR stay within the documented quantization error, all other statistics and the histograms are exact. */
+    @Test public void testHistogramMode() {
+
+        List<TimeSeries> tsA = TimeSeriesTest.randomTimeSeries(30, 400, 17l);
+        List<TimeSeries> tsB = TimeSeriesTest.randomTimeSeries(25, 400, 18l);
+
+        WindowMetadata exactMetadata = new WindowMetadata.Builder(-20, 20, 80, 10, 60).tsA(tsA).tsB(tsB).build();
+        CorrelationMatrix expected = new CorrelationMatrix(exactMetadata);
+        expected.compute();
+
+        int bins = 2000;
+        WindowMetadata metadata = new WindowMetadata.Builder(-20, 20, 80, 10, 60).tsA(tsA).tsB(tsB).histogramBins(bins).build();
+        assertEquals(bins, metadata.histogramBins);
+        assertEquals(0, exactMetadata.histogramBins);
+        assertEquals("approximate median", metadata.getResultKind());
+        assertEquals("exact", exactMetadata.getResultKind());
+
+        CorrelationMatrix binned = new CorrelationMatrix(metadata);
+        binned.compute();
+        CorrelationMatrix binnedWithoutStore = new CorrelationMatrix(metadata);
+        binnedWithoutStore.setWindowStoreBudget(0);
+        binnedWithoutStore.compute();
+        CorrelationMatrix tiled = new CorrelationMatrix(metadata);
+        tiled.setPairTiling(true);
+        tiled.compute();
+
+        double maxError = CellSummary.maxPercentileError(bins);
+        for(CorrelationMatrix result : new CorrelationMatrix[]{binned, binnedWithoutStore, tiled}){
+            assertMatricesEqual(expected, result, 1e-12, NON_PERCENTILE_STATISTICS);
+            assertMatricesEqual(expected, result, maxError, CorrelationMatrix.MEDIAN);
+            assertMatricesEqual(expected, result, 2 * maxError, CorrelationMatrix.IQR);
+            assertHistogramsEqual(expected, result);
+        }
+
+        // the per thread summarizer returns to exact mode
+        CorrelationMatrix exactAgain = new CorrelationMatrix(exactMetadata);
+        exactAgain.compute();
+        assertMatricesEqual(expected, exactAgain, 0, CorrelationMatrix.MEDIAN);
+
+    }
+
+    /** All workers report progress and the columns are assembled in order. */
+    @Test public void testProgressReporting() {
+
+        List<TimeSeries> ts = TimeSeriesTest.randomTimeSeries(3, 500, 11l);
+        WindowMetadata metadata = new WindowMetadata.Builder(-5, 5, 20, 1, 3).tsA(ts).tsB(ts).build();
+
+        Set<Integer> reported = Collections.synchronizedSet(new HashSet<>());
+        CorrelationMatrix matrix = new CorrelationMatrix(metadata);
+        matrix.compute(reported::add);
+
+        assertEquals(metadata.numBaseWindows, matrix.getSize());
+        for (int i = 1; i <= metadata.numBaseWindows; i++) assertTrue(reported.contains(i));
+        for (int i = 0; i < matrix.getSize(); i++) assertEquals(i * metadata.baseWindowOffset, matrix.getColumn(i).windowStartIndex);
+
+    }
+
     @Test @Ignore public void testPerformance() {
 
         int numTimeSeries = 100;
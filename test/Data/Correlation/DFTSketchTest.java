@@ -0,0 +1,63 @@
+package Data.Correlation;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DFTSketchTest {
+
+    /** @return a random walk, whose energy is concentrated in the low frequencies. */
+    static double[] randomWalk(int length, Random random){
+        double[] values = new double[length];
+        values[0] = 100 * random.nextDouble();
+        for (int i = 1; i < length; i++) values[i] = values[i - 1] + random.nextGaussian();
+        return values;
+    }
+
+    /** Sliding updates agree with the direct computation, the approximation error stays within the bound and all coefficients give the exact correlation. */
+    @Test public void testSketches() {
+
+        Random random = new Random(41);
+        int windowSize = 51, length = 400, numWindows = length - windowSize + 1;
+        double[] a = randomWalk(length, random), b = randomWalk(length, random);
+        a[300] = Double.NaN; // windows containing the missing value have no sketch
+
+        double[] meansA = new double[length], l2NormsA = new double[length], meansB = new double[length], l2NormsB = new double[length];
+        CorrelationMatrix.precomputeWindowTerms(a, windowSize, meansA, l2NormsA);
+        CorrelationMatrix.precomputeWindowTerms(b, windowSize, meansB, l2NormsB);
+
+        for(int numCoefficients : new int[]{4, DFTSketch.maxCoefficients(windowSize)}){
+            DFTSketch sketch = new DFTSketch(windowSize, numCoefficients);
+            double[] sketchesA = new double[numWindows * 2 * numCoefficients], energiesA = new double[numWindows],
+                     sketchesB = new double[numWindows * 2 * numCoefficients], energiesB = new double[numWindows],
+                     direct = new double[2 * numCoefficients], directEnergy = new double[1];
+            sketch.compute(a, meansA, l2NormsA, 0, numWindows, sketchesA, energiesA);
+            sketch.compute(b, meansB, l2NormsB, 0, numWindows, sketchesB, energiesB);
+
+            for (int s = 0; s < numWindows; s++) {
+                boolean missing = s <= 300 && s + windowSize > 300;
+                assertEquals(missing, Double.isNaN(energiesA[s]));
+                if(missing) continue;
+
+                sketch.compute(a, meansA, l2NormsA, s, s + 1, direct, directEnergy);
+                for (int i = 0; i < 2 * numCoefficients; i++) assertEquals(direct[i], sketchesA[s * 2 * numCoefficients + i], 1e-9);
+
+                int t = random.nextInt(numWindows);
+                double r = 0;
+                for (int i = 0; i < windowSize; i++) r += (a[s + i] - meansA[s]) * (b[t + i] - meansB[t]);
+                r = r / l2NormsA[s] / l2NormsB[t];
+                double approximation = DFTSketch.approximateCorrelation(sketchesA, s * 2 * numCoefficients, sketchesB, t * 2 * numCoefficients, numCoefficients);
+                assertTrue(Math.abs(r - approximation) <= DFTSketch.errorBound(energiesA[s], energiesB[t]) + 1e-9);
+                if(numCoefficients == DFTSketch.maxCoefficients(windowSize)){
+                    // odd window size: the kept coefficients and their conjugates are the complete spectrum
+                    assertEquals(1, energiesA[s], 1e-9);
+                    assertEquals(r, approximation, 1e-9);
+                }
+            }
+        }
+    }
+
+}
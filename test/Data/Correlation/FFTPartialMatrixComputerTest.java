@@ -0,0 +1,35 @@
+package Data.Correlation;
+
+import Data.TimeSeries;
+import Data.TimeSeriesTest;
+import Data.Windowing.WindowMetadata;
+import org.junit.Test;
+
+import java.util.List;
+
+import static Data.Correlation.CorrelationMatrixTest.assertMatricesEqual;
+
+public class FFTPartialMatrixComputerTest {
+
+    /** The FFT engine computes the same matrix as the lag loop engine (up to rounding errors), including lags where windows exceed the time series bounds. */
+    @Test public void testFFTEngine() {
+
+        List<TimeSeries> tsA = TimeSeriesTest.randomTimeSeries(10, 200, 1l);
+        List<TimeSeries> tsB = TimeSeriesTest.randomTimeSeries(12, 200, 2l);
+
+        int windowSize = 20, baseWindowOffset = 7, tauMin = -25, tauMax = 31, tauStep = 3;
+        WindowMetadata metadata = new WindowMetadata(tsA, tsB, windowSize, tauMin, tauMax, tauStep, baseWindowOffset);
+        CorrelationMatrix.setSignificanceLevel(metadata, 0.05);
+
+        CorrelationMatrix expected = new CorrelationMatrix(metadata);
+        expected.compute();
+
+        CorrelationMatrix result = new CorrelationMatrix(metadata);
+        result.setEngine(CorrelationMatrix.ENGINE.FFT);
+        result.compute();
+
+        assertMatricesEqual(expected, result, CorrelationMatrix.FFT_TOLERANCE);
+
+    }
+
+}
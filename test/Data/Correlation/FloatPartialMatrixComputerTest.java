@@ -0,0 +1,38 @@
+package Data.Correlation;
+
+import Data.TimeSeries;
+import Data.TimeSeriesTest;
+import Data.Windowing.WindowMetadata;
+import org.junit.Test;
+
+import java.util.List;
+
+import static Data.Correlation.CorrelationMatrixTest.assertMatricesEqual;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FloatPartialMatrixComputerTest {
+
+    /** Single precision results agree with double precision results far beyond the resolution of the correlation histogram. */
+    @Test public void testFloatPrecision() {
+
+        List<TimeSeries> tsA = TimeSeriesTest.randomTimeSeries(10, 400, 9l);
+        List<TimeSeries> tsB = TimeSeriesTest.randomTimeSeries(10, 400, 10l);
+
+        WindowMetadata doubleMetadata = new WindowMetadata.Builder(-20, 20, 150, 5, 25).tsA(tsA).tsB(tsB).build();
+        WindowMetadata floatMetadata = new WindowMetadata.Builder(-20, 20, 150, 5, 25).tsA(tsA).tsB(tsB).precision(CorrelationMatrix.PRECISION.FLOAT).build();
+        assertNotEquals(doubleMetadata, floatMetadata);
+
+        CorrelationMatrix expected = new CorrelationMatrix(doubleMetadata);
+        expected.compute();
+        assertTrue(Double.isNaN(expected.getMaxFloatDeviation()));
+
+        CorrelationMatrix result = new CorrelationMatrix(floatMetadata);
+        result.compute();
+
+        assertTrue(result.getMaxFloatDeviation() < 1e-5);
+        assertMatricesEqual(expected, result, 1e-5, CorrelationMatrix.MEAN, CorrelationMatrix.STD_DEV, CorrelationMatrix.MEDIAN, CorrelationMatrix.IQR);
+
+    }
+
+}
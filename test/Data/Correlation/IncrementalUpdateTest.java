@@ -0,0 +1,59 @@
+package Data.Correlation;
+
+import Data.TimeSeries;
+import Data.TimeSeriesTest;
+import Data.Windowing.WindowMetadata;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static Data.Correlation.CorrelationMatrixTest.assertHistogramsEqual;
+import static Data.Correlation.CorrelationMatrixTest.assertMatricesEqual;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IncrementalUpdateTest {
+
+    /** Appending values and updating the matrix gives the same result as computing the matrix from the complete time series. */
+    @Test public void testUpdate() {
+
+        List<TimeSeries> completeA = TimeSeriesTest.randomTimeSeries(4, 500, 29l);
+        List<TimeSeries> completeB = TimeSeriesTest.randomTimeSeries(3, 500, 30l);
+        CorrelationMatrix expected = new CorrelationMatrix(new WindowMetadata.Builder(-12, 12, 40, 3, 7).tsA(completeA).tsB(completeB).histogramBins(0).build());
+        expected.compute();
+
+        // the first 380 values, extended by two appends
+        List<TimeSeries> tsA = new ArrayList<>(), tsB = new ArrayList<>();
+        for(TimeSeries ts : completeA) tsA.add(new TimeSeries(ts.getId(), Arrays.copyOf(ts.getDataItems().im, 380)));
+        for(TimeSeries ts : completeB) tsB.add(new TimeSeries(ts.getId(), Arrays.copyOf(ts.getDataItems().im, 380)));
+        CorrelationMatrix matrix = new CorrelationMatrix(new WindowMetadata.Builder(-12, 12, 40, 3, 7).tsA(tsA).tsB(tsB).build());
+        matrix.compute();
+        CorrelationMatrix.CorrelationColumn firstColumn = matrix.getColumn(0);
+        WindowMetadata initialMetadata = matrix.metadata;
+        int initialSize = matrix.getSize(), initialHashCode = initialMetadata.hashCode();
+
+        for(int[] range : new int[][]{{380, 455}, {455, 500}}){
+            for (int i = 0; i < tsA.size(); i++) tsA.get(i).append(Arrays.copyOfRange(completeA.get(i).getDataItems().im, range[0], range[1]));
+            for (int i = 0; i < tsB.size(); i++) tsB.get(i).append(Arrays.copyOfRange(completeB.get(i).getDataItems().im, range[0], range[1]));
+            matrix = matrix.update();
+        }
+
+        // the initial matrix and its metadata are unchanged
+        assertEquals(initialSize, initialMetadata.numBaseWindows);
+        assertEquals(initialHashCode, initialMetadata.hashCode());
+        assertNotEquals(initialMetadata, matrix.metadata);
+
+        assertEquals(expected.metadata.numBaseWindows, matrix.metadata.numBaseWindows);
+        assertEquals(expected.metadata.customParameters, matrix.metadata.customParameters);
+        assertEquals(expected.getSize(), matrix.getSize());
+        // unaffected columns are kept
+        assertTrue(firstColumn == matrix.getColumn(0));
+        assertMatricesEqual(expected, matrix, 1e-9);
+        assertHistogramsEqual(expected, matrix);
+        assertEquals(expected.getMax(CorrelationMatrix.MEAN), matrix.getMax(CorrelationMatrix.MEAN), 1e-9);
+    }
+
+}
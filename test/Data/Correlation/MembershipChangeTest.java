@@ -0,0 +1,82 @@
+package Data.Correlation;
+
+import Data.Statistics.CellSummary;
+import Data.TimeSeries;
+import Data.TimeSeriesTest;
+import Data.Windowing.WindowMetadata;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static Data.Correlation.CorrelationMatrixTest.NON_PERCENTILE_STATISTICS;
+import static Data.Correlation.CorrelationMatrixTest.assertHistogramsEqual;
+import static Data.Correlation.CorrelationMatrixTest.assertMatricesEqual;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MembershipChangeTest {
+
+    /** A matrix derived from the cell summaries of a matrix with slightly different ensembles equals the matrix computed from scratch. */
+    @Test public void testMembershipBasis() {
+
+        List<TimeSeries> pool = TimeSeriesTest.randomTimeSeries(12, 300, 33l);
+        List<TimeSeries> setA = new ArrayList<>(pool.subList(0, 6)), setB = new ArrayList<>(pool.subList(6, 11));
+        CorrelationMatrix basis = new CorrelationMatrix(new WindowMetadata.Builder(-10, 10, 30, 2, 11).tsA(setA).tsB(setB).build());
+        basis.setCellSummaryBudget(CorrelationMatrix.DEFAULT_CELL_SUMMARY_BUDGET_BYTES);
+        basis.compute();
+        assertNotNull(basis.getColumn(0).cellSummaries);
+        // like a result loaded from a file, the basis has no window terms
+        basis.meansA = basis.meansB = basis.L2NormsA = basis.L2NormsB = null;
+
+        // remove a time series from set A, add one to set A and set B
+        setA.remove(2);
+        setA.add(pool.get(11));
+        setB.add(pool.get(0));
+        WindowMetadata changed = new WindowMetadata.Builder(-10, 10, 30, 2, 11).tsA(setA).tsB(setB).build();
+
+        CorrelationMatrix derived = new CorrelationMatrix(changed);
+        derived.setCellSummaryBudget(CorrelationMatrix.DEFAULT_CELL_SUMMARY_BUDGET_BYTES);
+        assertTrue(derived.canDeriveFrom(basis));
+        derived.setMembershipBasis(basis);
+        derived.compute();
+        assertEquals(1 * 5 + 1 * 6 + 5 * 1, derived.getChangedPairs());
+        // the basis (a cached result) is not modified
+        assertNull(basis.meansA);
+        assertTrue(derived.hasCellSummaries());
+        assertEquals("exact", changed.getResultKind());
+        assertEquals("approximate median", derived.getResultKind());
+
+        CorrelationMatrix expected = new CorrelationMatrix(new WindowMetadata.Builder(-10, 10, 30, 2, 11).tsA(setA).tsB(setB).build());
+        expected.setCellSummaryBudget(CorrelationMatrix.DEFAULT_CELL_SUMMARY_BUDGET_BYTES);
+        expected.compute();
+        assertEquals(0, expected.getChangedPairs());
+
+        assertMatricesEqual(expected, derived, 1e-9, NON_PERCENTILE_STATISTICS);
+        // extrema that have been removed are estimated from the bins
+        assertMatricesEqual(expected, derived, 4 * CellSummary.maxPercentileError(CellSummary.FINE_BINS), CorrelationMatrix.MEDIAN, CorrelationMatrix.IQR);
+        assertHistogramsEqual(expected, derived);
+
+        // a matrix with different parameters can't be derived
+        assertFalse(new CorrelationMatrix(new WindowMetadata.Builder(-10, 10, 31, 2, 11).tsA(setA).tsB(setB).build()).canDeriveFrom(basis));
+
+        // after appending fewer values than the base window offset, the metadata differs although the number of columns doesn't, and the basis is outdated
+        for(TimeSeries ts : pool) ts.append(0.5);
+        WindowMetadata grown = new WindowMetadata.Builder(-10, 10, 30, 2, 11).tsA(setA).tsB(setB).build();
+        assertEquals(changed.numBaseWindows, grown.numBaseWindows);
+        assertNotEquals(changed, grown);
+        assertFalse(new CorrelationMatrix(grown).canDeriveFrom(basis));
+        assertFalse(derived.canDeriveFrom(basis));
+
+        // without summaries, the matrix is no longer a basis
+        basis.releaseCellSummaries();
+        assertFalse(basis.hasCellSummaries());
+        assertEquals("approximate median", basis.getResultKind());
+        assertFalse(derived.canDeriveFrom(basis));
+    }
+
+}
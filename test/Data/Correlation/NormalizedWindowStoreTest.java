@@ -0,0 +1,55 @@
+package Data.Correlation;
+
+import Data.TimeSeries;
+import Data.TimeSeriesTest;
+import Data.Windowing.WindowMetadata;
+import org.junit.Test;
+
+import java.util.List;
+
+import static Data.Correlation.CorrelationMatrixTest.assertMatricesEqual;
+import static org.junit.Assert.*;
+
+public class NormalizedWindowStoreTest {
+
+    final List<TimeSeries> tsA = TimeSeriesTest.randomTimeSeries(6, 150, 7l);
+    final List<TimeSeries> tsB = TimeSeriesTest.randomTimeSeries(5, 150, 8l);
+
+    private WindowMetadata metadata(){
+        int windowSize = 30, baseWindowOffset = 10, tauMin = -14, tauMax = 21, tauStep = 7;
+        WindowMetadata metadata = new WindowMetadata(tsA, tsB, windowSize, tauMin, tauMax, tauStep, baseWindowOffset);
+        return CorrelationMatrix.setSignificanceLevel(metadata, 0.05);
+    }
+
+    /** Using the precomputed windows gives the same results as normalizing the windows on the fly. */
+    @Test public void testCompareWithoutStore() {
+
+        CorrelationMatrix expected = new CorrelationMatrix(metadata());
+        expected.setWindowStoreBudget(0);
+        expected.compute();
+
+        CorrelationMatrix result = new CorrelationMatrix(metadata());
+        result.compute();
+
+        assertMatricesEqual(expected, result, 1e-12);
+    }
+
+    /** Only referenced windows are stored and the store is not created if it exceeds the budget. */
+    @Test public void testBudget() {
+
+        CorrelationMatrix matrix = new CorrelationMatrix(metadata());
+        matrix.precomputeTerms();
+
+        NormalizedWindowStore store = NormalizedWindowStore.create(matrix.metadata, matrix.meansA, matrix.meansB, matrix.L2NormsA, matrix.L2NormsB, Long.MAX_VALUE);
+        assertNotNull(store);
+
+        // A windows start at base windows (13 complete windows) and base windows shifted by negative lags (12 + 11)
+        // B windows start at base windows shifted by non-negative lags (13 + 12 + 11 + 10)
+        assertEquals(36, store.numStoredA);
+        assertEquals(46, store.numStoredB);
+        assertEquals(8 * 30 * (6 * 36 + 5 * 46), store.getSizeInBytes());
+
+        assertNull(NormalizedWindowStore.create(matrix.metadata, matrix.meansA, matrix.meansB, matrix.L2NormsA, matrix.L2NormsB, store.getSizeInBytes() - 1));
+    }
+
+}
@@ -0,0 +1,70 @@
+package Data.Correlation;
+
+import Data.TimeSeries;
+import Data.TimeSeriesTest;
+import Data.Windowing.WindowMetadata;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static Data.Correlation.CorrelationMatrixTest.assertHistogramsEqual;
+import static Data.Correlation.CorrelationMatrixTest.assertMatricesEqual;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParameterSweepTest {
+
+    final List<TimeSeries> tsA = TimeSeriesTest.randomTimeSeries(5, 300, 41l);
+    final List<TimeSeries> tsB = TimeSeriesTest.randomTimeSeries(4, 300, 42l);
+
+    /** Each matrix of the sweep equals the matrix computed on its own, although variants with the same window size are computed together. */
+    @Test public void testSweep() {
+
+        List<WindowMetadata> variants = Arrays.asList(
+                new WindowMetadata.Builder(-10, 10, 30, 1, 5).tsA(tsA).tsB(tsB).build(),
+                new WindowMetadata.Builder(-4, 12, 30, 1, 10).tsA(tsA).tsB(tsB).build(),
+                new WindowMetadata.Builder(-8, 8, 40, 2, 6).tsA(tsA).tsB(tsB).build(),
+                new WindowMetadata.Builder(-4, 7, 40, 2, 6).tsA(tsA).tsB(tsB).build(),
+                new WindowMetadata.Builder(-20, 20, 30, 1, 15).tsA(tsA).tsB(tsB).build());
+
+        ParameterSweep sweep = new ParameterSweep(variants);
+        assertEquals(2, sweep.getNumberOfComputations());
+
+        List<CorrelationMatrix> completed = new ArrayList<>();
+        List<CorrelationMatrix> results = sweep.compute(completed::add);
+        assertEquals(variants.size(), results.size());
+        assertEquals(variants.size(), completed.size());
+
+        for (int i = 0; i < variants.size(); i++) {
+            CorrelationMatrix result = results.get(i);
+            assertTrue(result.metadata == variants.get(i));
+            assertTrue(completed.contains(result));
+
+            CorrelationMatrix expected = new CorrelationMatrix(variants.get(i));
+            expected.compute();
+            assertMatricesEqual(expected, result, 1e-12);
+            assertHistogramsEqual(expected, result);
+            for (int columnIdx = 0; columnIdx < expected.getSize(); columnIdx++) {
+                assertEquals(expected.getColumn(columnIdx).windowStartIndex, result.getColumn(columnIdx).windowStartIndex);
+                assertEquals(expected.getColumn(columnIdx).tauMin, result.getColumn(columnIdx).tauMin);
+            }
+        }
+    }
+
+    /** Variants with different parameters that affect the cell values are not computed together. */
+    @Test public void testIncompatibleVariants() {
+
+        WindowMetadata significance = new WindowMetadata.Builder(-10, 10, 30, 1, 5).tsA(tsA).tsB(tsB).build();
+        CorrelationMatrix.setSignificanceLevel(significance, 0.01);
+        List<WindowMetadata> variants = Arrays.asList(
+                new WindowMetadata.Builder(-10, 10, 30, 1, 5).tsA(tsA).tsB(tsB).build(),
+                significance,
+                new WindowMetadata.Builder(-10, 10, 30, 1, 7).tsA(tsA).tsB(tsB).build(),   // 7 isn't a multiple of 5
+                new WindowMetadata.Builder(-5, 5, 30, 1, 5).tsA(tsA).tsB(tsB).samplingTolerance(0.05).build());
+
+        assertEquals(4, new ParameterSweep(variants).getNumberOfComputations());
+    }
+
+}
@@ -0,0 +1,92 @@
+package Data.Correlation;
+
+import Data.TimeSeries;
+import Data.TimeSeriesTest;
+import Data.Windowing.WindowMetadata;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static Data.Correlation.CorrelationMatrixTest.assertMatricesEqual;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProgressiveLevelTest {
+
+    /** A progressive computation gives the same result as the column order computation and publishes previews that fill the gaps with the nearest computed column. */
+    @Test public void testProgressive() {
+
+        List<TimeSeries> tsA = TimeSeriesTest.randomTimeSeries(6, 1000, 23l);
+        List<TimeSeries> tsB = TimeSeriesTest.randomTimeSeries(5, 1000, 24l);
+        WindowMetadata metadata = new WindowMetadata.Builder(-10, 10, 40, 5, 10).tsA(tsA).tsB(tsB).build();
+        assertTrue(metadata.numBaseWindows > CorrelationMatrix.COARSEST_STRIDE);
+
+        CorrelationMatrix expected = new CorrelationMatrix(metadata);
+        expected.compute();
+
+        CorrelationMatrix progressive = new CorrelationMatrix(metadata);
+        progressive.setProgressive(true);
+        List<CorrelationMatrix> previews = new ArrayList<>();
+        progressive.compute(null, previews::add);
+        assertTrue(!progressive.isPartial());
+        assertMatricesEqual(expected, progressive, 1e-12);
+
+        // one preview per level except the last (strides 64, 32, ..., 2)
+        assertEquals(6, previews.size());
+        for(CorrelationMatrix preview : previews){
+            assertTrue(preview.isPartial());
+            assertEquals(expected.getSize(), preview.getSize());
+        }
+        // the first level computes the columns 0, 64, 128, ...
+        CorrelationMatrix first = previews.get(0);
+        for (int i = 0; i < first.getSize(); i++) {
+            int nearest = Math.min((i + CorrelationMatrix.COARSEST_STRIDE / 2 - 1) / CorrelationMatrix.COARSEST_STRIDE * CorrelationMatrix.COARSEST_STRIDE, (expected.getSize() - 1) / CorrelationMatrix.COARSEST_STRIDE * CorrelationMatrix.COARSEST_STRIDE);
+            assertArrayEquals(expected.getColumn(nearest).data[CorrelationMatrix.MEAN], first.getColumn(i).data[CorrelationMatrix.MEAN], 1e-12);
+        }
+
+        // the workers reuse their computer for all columns of a level, e.g. the FFT engine's spectra
+        CorrelationMatrix fft = new CorrelationMatrix(metadata);
+        fft.setEngine(CorrelationMatrix.ENGINE.FFT);
+        fft.setProgressive(true);
+        previews.clear();
+        fft.compute(null, previews::add);
+        assertEquals(6, previews.size());
+        assertMatricesEqual(expected, fft, 1e-9, CorrelationMatrix.MEAN);
+
+        // the rolling engine computes the columns in order, such that it can update each column from the previous one
+        CorrelationMatrix rolling = new CorrelationMatrix(metadata);
+        rolling.setEngine(CorrelationMatrix.ENGINE.ROLLING);
+        rolling.setProgressive(true);
+        previews.clear();
+        rolling.compute(null, previews::add);
+        assertTrue(previews.isEmpty());
+        assertMatricesEqual(expected, rolling, 1e-9, CorrelationMatrix.MEAN);
+    }
+
+    /** The columns in the priority range are computed with the first level of a progressive computation, the result is unaffected. */
+    @Test public void testPriorityColumns() {
+
+        List<TimeSeries> tsA = TimeSeriesTest.randomTimeSeries(6, 1000, 25l);
+        List<TimeSeries> tsB = TimeSeriesTest.randomTimeSeries(5, 1000, 26l);
+        WindowMetadata metadata = new WindowMetadata.Builder(-10, 10, 40, 5, 10).tsA(tsA).tsB(tsB).build();
+
+        CorrelationMatrix expected = new CorrelationMatrix(metadata);
+        expected.compute();
+
+        CorrelationMatrix progressive = new CorrelationMatrix(metadata);
+        progressive.setProgressive(true);
+        progressive.setPriorityColumns(40, 50);
+        List<CorrelationMatrix> previews = new ArrayList<>();
+        progressive.compute(null, previews::add);
+
+        assertMatricesEqual(expected, progressive, 1e-12, CorrelationMatrix.MEAN);
+
+        // the first preview contains the exact columns in the priority range
+        for (int i = 40; i < 50; i++)
+            assertTrue(previews.get(0).getColumn(i) == previews.get(previews.size() - 1).getColumn(i));
+        assertArrayEquals(expected.getColumn(45).data[CorrelationMatrix.MEAN], previews.get(0).getColumn(45).data[CorrelationMatrix.MEAN], 1e-12);
+    }
+
+}
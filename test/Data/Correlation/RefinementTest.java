@@ -0,0 +1,44 @@
+package Data.Correlation;
+
+import Data.TimeSeries;
+import Data.TimeSeriesTest;
+import Data.Windowing.WindowMetadata;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RefinementTest {
+
+    /** A refined region contains the columns of a finer resolution matrix whose base windows start within the region. */
+    @Test public void testRefine() {
+
+        List<TimeSeries> tsA = TimeSeriesTest.randomTimeSeries(4, 300, 27l);
+        List<TimeSeries> tsB = TimeSeriesTest.randomTimeSeries(3, 300, 28l);
+        CorrelationMatrix coarse = new CorrelationMatrix(new WindowMetadata.Builder(-20, 20, 50, 4, 8).tsA(tsA).tsB(tsB).pValue(0.01).build());
+        coarse.compute();
+        assertTrue(coarse.getRefinements().isEmpty());
+
+        Refinement refinement = coarse.refine(3, 6, -8, 8, 1, 2);
+        assertEquals(1, coarse.getRefinements().size());
+        assertEquals(0.01, CorrelationMatrix.getSignificanceLevel(refinement.metadata), 0);
+        // the base windows of columns 3..5 start at 24..40, those of the refinement at 24, 26, ..., 40
+        assertEquals(12, refinement.fromColumn);
+        assertEquals(21, refinement.toColumn());
+
+        CorrelationMatrix fine = new CorrelationMatrix(new WindowMetadata.Builder(-8, 8, 50, 1, 2).tsA(tsA).tsB(tsB).pValue(0.01).build());
+        fine.compute();
+        for (int i = refinement.fromColumn; i < refinement.toColumn(); i++) {
+            assertEquals(fine.getColumn(i).windowStartIndex, refinement.getColumn(i).windowStartIndex);
+            for (int stat = 0; stat < CorrelationMatrix.NUM_STATS; stat++)
+                assertArrayEquals(fine.getColumn(i).data[stat], refinement.getColumn(i).data[stat], 1e-12);
+        }
+
+        coarse.clearRefinements();
+        assertTrue(coarse.getRefinements().isEmpty());
+    }
+
+}
@@ -0,0 +1,38 @@
+package Data.Correlation;
+
+import Data.TimeSeries;
+import Data.TimeSeriesTest;
+import Data.Windowing.WindowMetadata;
+import org.junit.Test;
+
+import java.util.List;
+
+import static Data.Correlation.CorrelationMatrixTest.assertMatricesEqual;
+
+public class RollingPartialMatrixComputerTest {
+
+    /** The rolling engine computes the same matrix as the lag loop engine (up to rounding errors), for overlapping and non-overlapping base windows. */
+    @Test public void testRollingEngine() {
+
+        List<TimeSeries> tsA = TimeSeriesTest.randomTimeSeries(8, 300, 3l);
+        List<TimeSeries> tsB = TimeSeriesTest.randomTimeSeries(9, 300, 4l);
+
+        for(int baseWindowOffset : new int[]{1, 3, 25, 40}){
+
+            int windowSize = 25, tauMin = -12, tauMax = 17, tauStep = 2;
+            WindowMetadata metadata = new WindowMetadata(tsA, tsB, windowSize, tauMin, tauMax, tauStep, baseWindowOffset);
+            CorrelationMatrix.setSignificanceLevel(metadata, 0.05);
+
+            CorrelationMatrix expected = new CorrelationMatrix(metadata);
+            expected.compute();
+
+            CorrelationMatrix result = new CorrelationMatrix(metadata);
+            result.setEngine(CorrelationMatrix.ENGINE.ROLLING);
+            result.compute();
+
+            assertMatricesEqual(expected, result, CorrelationMatrix.ROLLING_TOLERANCE);
+        }
+
+    }
+
+}
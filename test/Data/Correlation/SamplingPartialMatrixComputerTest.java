@@ -0,0 +1,64 @@
+package Data.Correlation;
+
+import Data.TimeSeries;
+import Data.TimeSeriesTest;
+import Data.Windowing.WindowMetadata;
+import org.junit.Test;
+
+import java.util.List;
+
+import static Data.Correlation.CorrelationMatrixTest.assertMatricesEqual;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SamplingPartialMatrixComputerTest {
+
+    /** Sampled computations correlate fewer window pairs, report confidence intervals no wider than the tolerance and fall back to all pairs for small tolerances. */
+    @Test public void testSamplingTolerance() {
+
+        List<TimeSeries> tsA = TimeSeriesTest.randomTimeSeries(60, 300, 21l);
+        List<TimeSeries> tsB = TimeSeriesTest.randomTimeSeries(50, 300, 22l);
+
+        CorrelationMatrix exact = new CorrelationMatrix(new WindowMetadata.Builder(-20, 20, 100, 10, 50).tsA(tsA).tsB(tsB).build());
+        exact.compute();
+        assertNull(exact.getColumn(0).confidenceHalfWidths);
+
+        double tolerance = 0.05;
+        WindowMetadata metadata = new WindowMetadata.Builder(-20, 20, 100, 10, 50).tsA(tsA).tsB(tsB).samplingTolerance(tolerance).build();
+        assertEquals(tolerance, metadata.samplingTolerance, 0);
+        CorrelationMatrix sampled = new CorrelationMatrix(metadata);
+        sampled.compute();
+        assertTrue(sampled.isApproximate());
+
+        long numPairs = 0;
+        for (int i = 0; i < exact.getSize(); i++) {
+            CorrelationMatrix.CorrelationColumn expectedColumn = exact.getColumn(i), column = sampled.getColumn(i);
+            for (int lagIdx = 0; lagIdx < column.getSize(); lagIdx++) {
+                if(Double.isNaN(expectedColumn.data[CorrelationMatrix.MEAN][lagIdx])){
+                    assertTrue(Double.isNaN(column.data[CorrelationMatrix.MEAN][lagIdx]));
+                    continue;
+                }
+                numPairs += tsA.size() * tsB.size();
+                for(int stat : new int[]{CorrelationMatrix.MEAN, CorrelationMatrix.POSITIVE_SIGNIFICANT, CorrelationMatrix.NEGATIVE_SIGNIFICANT, CorrelationMatrix.ABSOLUTE_SIGNIFICANT}){
+                    double halfWidth = column.confidenceHalfWidths[stat][lagIdx];
+                    assertTrue(halfWidth > 0 && halfWidth <= tolerance);
+                    assertEquals(expectedColumn.data[stat][lagIdx], column.data[stat][lagIdx], 3 * halfWidth);
+                }
+                assertTrue(Double.isNaN(column.confidenceHalfWidths[CorrelationMatrix.MEDIAN][lagIdx]));
+            }
+        }
+        assertTrue(sampled.getSampledPairs() > 0 && sampled.getSampledPairs() < numPairs / 2);
+
+        // if the sample would have to cover most of the pairs, all pairs are correlated
+        CorrelationMatrix exhaustive = new CorrelationMatrix(new WindowMetadata.Builder(-20, 20, 100, 10, 50).tsA(tsA).tsB(tsB).samplingTolerance(1e-4).build());
+        exhaustive.compute();
+        assertMatricesEqual(exact, exhaustive, 1e-9);
+        for (int i = 0; i < exact.getSize(); i++) {
+            for (int lagIdx = 0; lagIdx < exact.getColumn(i).getSize(); lagIdx++)
+                if(!Double.isNaN(exact.getColumn(i).data[CorrelationMatrix.MEAN][lagIdx]))
+                    assertEquals(0, exhaustive.getColumn(i).confidenceHalfWidths[CorrelationMatrix.MEAN][lagIdx], 0);
+        }
+    }
+
+}
@@ -0,0 +1,101 @@
+package Data.Correlation;
+
+import Data.TimeSeries;
+import Data.TimeSeriesTest;
+import Data.Windowing.WindowMetadata;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SignificantPairSearchTest {
+
+    final List<TimeSeries> tsA = TimeSeriesTest.randomTimeSeries(8, 400, 31l);
+    final List<TimeSeries> tsB = TimeSeriesTest.randomTimeSeries(9, 400, 32l);
+    final WindowMetadata metadata = new WindowMetadata.Builder(-20, 20, 64, 5, 30).tsA(tsA).tsB(tsB).build();
+
+    /** All pairs above the threshold are found, although many pairs are abandoned early. */
+    @Test public void testThreshold() {
+
+        SignificantPairSearch search = new SignificantPairSearch(metadata);
+        assertEquals(new CorrelationSignificance(64, 0.05).getCriticalCorrelationValue(), search.getThreshold(), 0);
+        search.setThreshold(0.3);
+        List<SignificantPairSearch.SignificantPair> pairs = search.search();
+
+        List<SignificantPairSearch.SignificantPair> expected = bruteForce(0.3, 0, 0, metadata.numBaseWindows, metadata.tauMin, metadata.tauMax);
+        assertEquals(expected.size(), pairs.size());
+        for (int i = 0; i < expected.size(); i++) assertSamePair(expected.get(i), pairs.get(i));
+        assertTrue(search.getPrunedPairs() > 0);
+
+        // a region of the matrix
+        pairs = search.search(3, 6, -5, 10);
+        expected = bruteForce(0.3, 0, 3, 6, -5, 10);
+        assertEquals(expected.size(), pairs.size());
+        for (int i = 0; i < expected.size(); i++) assertSamePair(expected.get(i), pairs.get(i));
+    }
+
+    /** The k strongest pairs per cell are reported in order of decreasing absolute correlation. */
+    @Test public void testTopK() {
+
+        SignificantPairSearch search = new SignificantPairSearch(metadata);
+        search.setThreshold(0);
+        search.setTopK(3);
+        List<SignificantPairSearch.SignificantPair> pairs = search.search();
+
+        List<SignificantPairSearch.SignificantPair> expected = bruteForce(0, 3, 0, metadata.numBaseWindows, metadata.tauMin, metadata.tauMax);
+        assertEquals(expected.size(), pairs.size());
+        for (int i = 0; i < expected.size(); i++) assertSamePair(expected.get(i), pairs.get(i));
+        assertTrue(search.getPrunedPairs() > 0);
+    }
+
+    private static void assertSamePair(SignificantPairSearch.SignificantPair expected, SignificantPairSearch.SignificantPair actual){
+        assertTrue(expected.tsA == actual.tsA && expected.tsB == actual.tsB);
+        assertEquals(expected.baseWindowIdx, actual.baseWindowIdx);
+        assertEquals(expected.lag, actual.lag);
+        assertEquals(expected.correlation, actual.correlation, 1e-12);
+    }
+
+    /** Correlates all window pairs explicitly. */
+    private List<SignificantPairSearch.SignificantPair> bruteForce(double threshold, int topK, int fromColumn, int toColumn, int minLag, int maxLag){
+
+        int windowSize = metadata.windowSize, lastValidWindowStartIdx = 400 - windowSize;
+        List<SignificantPairSearch.SignificantPair> result = new ArrayList<>();
+        for (int baseWindowIdx = fromColumn; baseWindowIdx < toColumn; baseWindowIdx++) {
+            int baseWindowStartIdx = baseWindowIdx * metadata.baseWindowOffset;
+            for(int lag : metadata.getDifferentTimeLags()){
+                if(lag < minLag || lag > maxLag) continue;
+                int windowAStartIdx = lag >= 0 ? baseWindowStartIdx : baseWindowStartIdx + lag,
+                    windowBStartIdx = lag >= 0 ? baseWindowStartIdx - lag : baseWindowStartIdx;
+                if(windowAStartIdx < 0 || windowBStartIdx < 0 || windowAStartIdx > lastValidWindowStartIdx || windowBStartIdx > lastValidWindowStartIdx) continue;
+                List<SignificantPairSearch.SignificantPair> cell = new ArrayList<>();
+                for(TimeSeries a : tsA) for(TimeSeries b : tsB){
+                    double r = naiveCorrelation(a.getDataItems().im, windowAStartIdx, b.getDataItems().im, windowBStartIdx, windowSize);
+                    if(Math.abs(r) >= threshold) cell.add(new SignificantPairSearch.SignificantPair(a, b, baseWindowIdx, lag, r));
+                }
+                if(topK > 0){
+                    cell.sort(Comparator.comparingDouble((SignificantPairSearch.SignificantPair pair) -> Math.abs(pair.correlation)).reversed());
+                    cell = cell.subList(0, Math.min(topK, cell.size()));
+                }
+                result.addAll(cell);
+            }
+        }
+        return result;
+    }
+
+    private static double naiveCorrelation(double[] a, int aStart, double[] b, int bStart, int length){
+        double meanA = 0, meanB = 0;
+        for (int i = 0; i < length; i++) { meanA += a[aStart + i]; meanB += b[bStart + i]; }
+        meanA /= length;
+        meanB /= length;
+        double covariance = 0, squaresA = 0, squaresB = 0;
+        for (int i = 0; i < length; i++) {
+            covariance += (a[aStart + i] - meanA) * (b[bStart + i] - meanB);
+            squaresA += (a[aStart + i] - meanA) * (a[aStart + i] - meanA);
+            squaresB += (b[bStart + i] - meanB) * (b[bStart + i] - meanB);
+        }
+        return covariance / Math.sqrt(squaresA) / Math.sqrt(squaresB);
+    }
+
+}
@@ -0,0 +1,61 @@
+package Data.Correlation;
+
+import Data.TimeSeries;
+import Data.Windowing.WindowMetadata;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static Data.Correlation.CorrelationMatrixTest.assertMatricesEqual;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SketchPartialMatrixComputerTest {
+
+    /** Sketched computations are marked approximate, refine only undecided window pairs and give exact significance fractions. */
+    @Test public void testSketchCoefficients() {
+
+        Random random = new Random(42);
+        List<TimeSeries> tsA = new ArrayList<>(), tsB = new ArrayList<>();
+        for (int i = 0; i < 12; i++) tsA.add(new TimeSeries(i + 1, DFTSketchTest.randomWalk(500, random)));
+        for (int i = 0; i < 10; i++) tsB.add(new TimeSeries(i + 13, DFTSketchTest.randomWalk(500, random)));
+
+        CorrelationMatrix exact = new CorrelationMatrix(new WindowMetadata.Builder(-40, 30, 101, 5, 40).tsA(tsA).tsB(tsB).build());
+        exact.compute();
+        assertTrue(!exact.isApproximate());
+
+        WindowMetadata metadata = new WindowMetadata.Builder(-40, 30, 101, 5, 40).tsA(tsA).tsB(tsB).sketchCoefficients(6).build();
+        assertEquals(6, metadata.sketchCoefficients);
+        CorrelationMatrix sketched = new CorrelationMatrix(metadata);
+        sketched.compute();
+        assertTrue(sketched.isApproximate());
+        assertTrue(sketched.getRefinedPairs() > 0 && sketched.getRefinedPairs() < sketched.getSketchedPairs());
+
+        for (int i = 0; i < exact.getSize(); i++) {
+            CorrelationMatrix.CorrelationColumn expectedColumn = exact.getColumn(i), column = sketched.getColumn(i);
+            for(int stat : new int[]{CorrelationMatrix.POSITIVE_SIGNIFICANT, CorrelationMatrix.NEGATIVE_SIGNIFICANT, CorrelationMatrix.ABSOLUTE_SIGNIFICANT})
+                assertArrayEquals(expectedColumn.data[stat], column.data[stat], 1e-12);
+            // every approximated value deviates by less than one
+            for (int lagIdx = 0; lagIdx < column.getSize(); lagIdx++)
+                assertEquals(expectedColumn.data[CorrelationMatrix.MEAN][lagIdx], column.data[CorrelationMatrix.MEAN][lagIdx], 1);
+        }
+
+        // with all coefficients, the approximation is exact
+        WindowMetadata complete = new WindowMetadata.Builder(-40, 30, 101, 5, 40).tsA(tsA).tsB(tsB).sketchCoefficients(DFTSketch.maxCoefficients(101)).build();
+        CorrelationMatrix completeSketches = new CorrelationMatrix(complete);
+        completeSketches.compute();
+        assertMatricesEqual(exact, completeSketches, 1e-9, CorrelationMatrix.MEAN);
+
+        // windows too short for the significance test can't be sketched
+        try {
+            new WindowMetadata.Builder(-4, 4, 2, 1, 1).tsA(tsA).tsB(tsB).sketchCoefficients(1).build();
+            fail("Window size 2 allows no sketch coefficients.");
+        } catch (IllegalArgumentException expected) {}
+
+    }
+
+}
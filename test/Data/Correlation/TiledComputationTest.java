@@ -0,0 +1,45 @@
+package Data.Correlation;
+
+import Data.Statistics.CellSummary;
+import Data.TimeSeries;
+import Data.TimeSeriesTest;
+import Data.Windowing.WindowMetadata;
+import org.junit.Test;
+
+import java.util.List;
+
+import static Data.Correlation.CorrelationMatrixTest.NON_PERCENTILE_STATISTICS;
+import static Data.Correlation.CorrelationMatrixTest.assertHistogramsEqual;
+import static Data.Correlation.CorrelationMatrixTest.assertMatricesEqual;
+import static org.junit.Assert.assertEquals;
+
+public class TiledComputationTest {
+
+    /** Tiling the pair space gives the same statistics and histograms, except for median and IQR which are approximated from the fine histogram. */
+    @Test public void testPairTiling() {
+
+        List<TimeSeries> tsA = TimeSeriesTest.randomTimeSeries(40, 300, 12l);
+        List<TimeSeries> tsB = TimeSeriesTest.randomTimeSeries(30, 300, 13l);
+
+        WindowMetadata metadata = new WindowMetadata.Builder(-20, 20, 100, 5, 150).tsA(tsA).tsB(tsB).build();
+        CorrelationMatrix.setSignificanceLevel(metadata, 0.05);
+
+        CorrelationMatrix expected = new CorrelationMatrix(metadata);
+        expected.compute();
+
+        CorrelationMatrix result = new CorrelationMatrix(metadata);
+        result.setPairTiling(true);
+        result.compute();
+        assertEquals("exact", expected.getResultKind());
+        assertEquals("approximate median", result.getResultKind());
+
+        double percentileTolerance = 2. * 2 / CellSummary.FINE_BINS;
+        for (int i = 0; i < expected.getSize(); i++) assertEquals(expected.getColumn(i).windowStartIndex, result.getColumn(i).windowStartIndex);
+        assertMatricesEqual(expected, result, 1e-12, NON_PERCENTILE_STATISTICS);
+        assertMatricesEqual(expected, result, percentileTolerance, CorrelationMatrix.MEDIAN);
+        assertMatricesEqual(expected, result, 2 * percentileTolerance, CorrelationMatrix.IQR);
+        assertHistogramsEqual(expected, result);
+
+    }
+
+}
@@ -0,0 +1,58 @@
+package Data.Statistics;
+
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CellSummarizerTest {
+
+    /** The summarizer gives the same results as DescriptiveStatistics, also for small cells, ties and reused buffers. */
+    @Test public void testCompareWithDescriptiveStatistics(){
+
+        Random random = new Random(4);
+        CellSummarizer summarizer = new CellSummarizer();
+        for (int n : new int[]{0, 1, 2, 3, 4, 5, 17, 100, 1001, 5000, 3}) {
+            for(boolean ties : new boolean[]{false, true}){
+                DescriptiveStatistics reference = new DescriptiveStatistics();
+                summarizer.clear();
+                for (int i = 0; i < n; i++) {
+                    double r = ties ? Math.round(10 * (2 * random.nextDouble() - 1)) / 10. : 2 * random.nextDouble() - 1;
+                    reference.addValue(r);
+                    summarizer.addValue(r);
+                }
+                summarizer.summarize();
+
+                assertEquals(reference.getN(), summarizer.getN());
+                assertEquals(reference.getMean(), summarizer.getMean(), 0);
+                assertEquals(reference.getPopulationVariance(), summarizer.getPopulationVariance(), 0);
+                assertEquals(reference.getPercentile(25), summarizer.getFirstQuartile(), 0);
+                assertEquals(reference.getPercentile(50), summarizer.getMedian(), 0);
+                assertEquals(reference.getPercentile(75), summarizer.getThirdQuartile(), 0);
+                // same binning as CorrelationHistogram#setDistribution
+                int[] histogram = new int[CorrelationHistogram.NUM_BINS];
+                for(double r : reference.getValues()) histogram[Math.min(CorrelationHistogram.NUM_BINS - 1, (int) ((r + 1.) / 2. * CorrelationHistogram.NUM_BINS))]++;
+                assertArrayEquals(histogram, summarizer.getHistogram());
+            }
+        }
+    }
+
+    @Test public void testTrim(){
+
+        CellSummarizer summarizer = new CellSummarizer();
+        summarizer.ensureCapacity(4 * CellSummarizer.RETAINED_CAPACITY);
+        for (int i = 0; i < 4 * CellSummarizer.RETAINED_CAPACITY; i++) summarizer.addValue(i % 2 == 0 ? 0.5 : -0.5);
+        summarizer.trim();
+
+        // the buffer is shrunk and the values are removed
+        assertEquals(0, summarizer.getN());
+        assertEquals(CellSummarizer.RETAINED_CAPACITY, summarizer.getValues().length);
+
+        summarizer.addValue(0.25);
+        summarizer.summarize();
+        assertEquals(0.25, summarizer.getMedian(), 0);
+    }
+
+}
@@ -0,0 +1,112 @@
+package Data.Statistics;
+
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CellSummaryTest {
+
+    @Test public void testMerge(){
+
+        Random random = new Random(3);
+        DescriptiveStatistics reference = new DescriptiveStatistics();
+        CellSummary sequential = new CellSummary(), merged = new CellSummary();
+        CellSummary[] parts = new CellSummary[]{new CellSummary(), new CellSummary(), new CellSummary()};
+
+        for (int i = 0; i < 5000; i++) {
+            double r = Math.tanh(random.nextGaussian());
+            boolean significant = Math.abs(r) > 0.8;
+            reference.addValue(r);
+            sequential.add(r, significant);
+            parts[random.nextInt(2)].add(r, significant); // parts[2] stays empty
+        }
+        for(CellSummary part : parts) merged.merge(part);
+
+        for(CellSummary summary : new CellSummary[]{sequential, merged}){
+            assertEquals(reference.getN(), summary.getN());
+            assertEquals(reference.getMean(), summary.getMean(), 1e-12);
+            assertEquals(Math.sqrt(reference.getPopulationVariance()), summary.getPopulationStandardDeviation(), 1e-12);
+            for (double p : new double[]{1, 25, 50, 75, 99})
+                assertEquals(reference.getPercentile(p), summary.getPercentile(p), 2. / CellSummary.FINE_BINS);
+            assertEquals(reference.getMin(), summary.getPercentile(0.001), 0);
+            assertEquals(reference.getMax(), summary.getPercentile(100), 0);
+        }
+        assertEquals(sequential.getPositiveSignificantCount(), merged.getPositiveSignificantCount());
+        assertEquals(sequential.getNegativeSignificantCount(), merged.getNegativeSignificantCount());
+        assertArrayEquals(sequential.getHistogram(), merged.getHistogram());
+        // same binning as CorrelationHistogram#setDistribution
+        int[] histogram = new int[CorrelationHistogram.NUM_BINS];
+        for(double r : reference.getValues()) histogram[Math.min(CorrelationHistogram.NUM_BINS - 1, (int) ((r + 1.) / 2. * CorrelationHistogram.NUM_BINS))]++;
+        assertArrayEquals(histogram, merged.getHistogram());
+    }
+
+    /** Removing a part of the values gives the summary of the remaining values. */
+    @Test public void testRemove(){
+
+        Random random = new Random(7);
+        DescriptiveStatistics reference = new DescriptiveStatistics();
+        CellSummary all = new CellSummary(), kept = new CellSummary(), removed = new CellSummary();
+        for (int i = 0; i < 5000; i++) {
+            double r = Math.tanh(random.nextGaussian());
+            boolean significant = Math.abs(r) > 0.8, remove = random.nextInt(4) == 0;
+            all.add(r, significant);
+            (remove ? removed : kept).add(r, significant);
+            if(!remove) reference.addValue(r);
+        }
+        // the removed values include the extrema
+        all.add(-0.999, true);
+        removed.add(-0.999, true);
+        all.add(0.999, true);
+        removed.add(0.999, true);
+
+        CellSummary remaining = new CellSummary(all);
+        remaining.remove(removed);
+        assertEquals(5002, all.getN()); // the copy is independent of the original
+        assertEquals(reference.getN(), remaining.getN());
+        assertEquals(reference.getMean(), remaining.getMean(), 1e-12);
+        assertEquals(Math.sqrt(reference.getPopulationVariance()), remaining.getPopulationStandardDeviation(), 1e-12);
+        for (double p : new double[]{1, 25, 50, 75, 99})
+            assertEquals(reference.getPercentile(p), remaining.getPercentile(p), 2. / CellSummary.FINE_BINS);
+        assertEquals(reference.getMin(), remaining.getPercentile(0.001), 2. / CellSummary.FINE_BINS);
+        assertEquals(reference.getMax(), remaining.getPercentile(100), 2. / CellSummary.FINE_BINS);
+        assertEquals(kept.getPositiveSignificantCount(), remaining.getPositiveSignificantCount());
+        assertEquals(kept.getNegativeSignificantCount(), remaining.getNegativeSignificantCount());
+        assertArrayEquals(kept.getHistogram(), remaining.getHistogram());
+
+        remaining.remove(kept);
+        assertEquals(0, remaining.getN());
+        assertTrue(Double.isNaN(remaining.getMean()));
+    }
+
+    @Test public void testResolution(){
+
+        Random random = new Random(5);
+        DescriptiveStatistics reference = new DescriptiveStatistics();
+        CellSummary coarse = new CellSummary(100);
+        for (int i = 0; i < 2000; i++) {
+            double r = 2 * random.nextDouble() - 1;
+            reference.addValue(r);
+            coarse.add(r, false);
+        }
+        for (double p : new double[]{25, 50, 75})
+            assertEquals(reference.getPercentile(p), coarse.getPercentile(p), CellSummary.maxPercentileError(100));
+
+        coarse.clear();
+        assertEquals(0, coarse.getN());
+        assertTrue(Double.isNaN(coarse.getPercentile(50)));
+        coarse.add(0.5, true);
+        assertEquals(0.5, coarse.getPercentile(50), 0);
+        assertEquals(1, coarse.getPositiveSignificantCount());
+    }
+
+    @Test public void testEmpty(){
+        CellSummary summary = new CellSummary();
+        assertTrue(Double.isNaN(summary.getMean()));
+        assertTrue(Double.isNaN(summary.getPopulationStandardDeviation()));
+        assertTrue(Double.isNaN(summary.getPercentile(50)));
+    }
+
+}
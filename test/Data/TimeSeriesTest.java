@@ -10,7 +10,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  *
@@ -54,6 +56,46 @@ public class TimeSeriesTest {
         assertEquals(expResult, result);
     }
 
+    @Test public void testAppend() {
+        int modificationCount = instance.getModificationCount();
+        instance.append(5., 6.);
+        assertEquals(modificationCount + 1, instance.getModificationCount());
+        assertEquals(6, instance.getSize());
+        assertEquals(6., instance.getItemById(5), 0);
+        assertEquals(6., instance.getMaxX(), 0);
+        assertEquals(6., instance.getMaxY(), 0);
+
+        // data items obtained before an append are not overwritten
+        ComplexSequence before = instance.getDataItems();
+        instance.append(7.);
+        instance.append(8., 9.);
+        assertArrayEquals(new double[]{1, 2, 3, 4, 5, 6}, before.im, 0);
+        assertArrayEquals(new double[]{1, 2, 3, 4, 5, 6, 7, 8, 9}, instance.getDataItems().im, 0);
+        assertArrayEquals(new double[]{1, 2, 3, 4, 5, 6, 7, 8, 9}, instance.getDataItems().re, 0);
+        assertEquals(9, instance.getSize());
+    }
+
+    @Test public void testPyramid() {
+        TimeSeries ts = new TimeSeries(3, new double[]{0, 2, 4, 6, 8, 10, 12}, new double[]{1, 3, 5, Double.NaN, 2, 4, 7});
+        assertTrue(ts.getPyramidLevel(0) == ts);
+
+        TimeSeries level1 = ts.getPyramidLevel(1);
+        assertEquals(3, level1.getId());
+        assertArrayEquals(new double[]{1, 5, 9}, level1.getDataItems().re, 0);
+        assertArrayEquals(new double[]{2, Double.NaN, 3}, level1.getDataItems().im, 0);
+        assertTrue(level1.getFullResolution() == ts);
+        assertTrue(ts.getFullResolution() == ts);
+
+        TimeSeries level2 = ts.getPyramidLevel(2);
+        assertArrayEquals(new double[]{3}, level2.getDataItems().re, 0);
+        assertTrue(Double.isNaN(level2.getItemById(0)));
+        assertTrue(level2 == ts.getPyramidLevel(2));
+
+        // appending values rebuilds the levels
+        ts.append(9);
+        assertArrayEquals(new double[]{2, Double.NaN, 3, 8}, ts.getPyramidLevel(1).getDataItems().im, 0);
+    }
+
     @Test public void testEquals(){
         List<TimeSeries> randomSeries = randomTimeSeries(1000, 10000, 1l);
         for (int i = 0; i < randomSeries.size(); i++) {